@@ -0,0 +1 @@
+../mvnw.cmd
\ No newline at end of file
@@ -0,0 +1,115 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+
+
+/**
+ * Measures the cost of resolving {@link GrpcModule#rpcScope RPC-scoped} {@code Objects} from
+ * client RPCs nested by {@link GrpcModule#nestingClientInterceptor} at various depths, compared
+ * with client RPCs created by {@link GrpcModule#clientInterceptor} that are not nested.
+ * <p>
+ * {@code *ProviderLookup} benchmarks obtain an {@code Object} via a Guice {@link Provider} within
+ * a {@link ListenerEventContext}, as application code does, while {@code *CtxLookup} benchmarks
+ * call {@link RpcContext#getOrProduce(Key, com.google.inject.Provider)} directly to isolate the
+ * cost of reaching the storage of the outermost ctx.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RpcScopeNestingBenchmark {
+
+
+
+	public static class ScopedObject {}
+
+	static final Key<ScopedObject> KEY = Key.get(ScopedObject.class);
+
+
+
+	@State(Scope.Benchmark)
+	public static class Injection {
+
+		final GrpcModule grpcModule = new GrpcModule();
+		final Provider<ScopedObject> provider = Guice.createInjector(
+			grpcModule,
+			(binder) -> binder.bind(ScopedObject.class).in(grpcModule.rpcScope)
+		).getProvider(ScopedObject.class);
+	}
+
+
+
+	@State(Scope.Thread)
+	public static class NestedRpc {
+
+		/** Number of client RPCs between the server RPC and the measured one (inclusive). */
+		@Param({"1", "4", "16"})
+		int depth;
+
+		RpcContext rpcCtx;
+		ListenerEventContext eventCtx;
+
+		@Setup
+		public void setup(Injection injection) {
+			rpcCtx = new ServerRpcContext(null, null);
+			for (int i = 0; i < depth; i++) {
+				rpcCtx = new ClientRpcContext(null, "benchmark/nested" + i, null, rpcCtx);
+			}
+			eventCtx = new ListenerEventContext(
+					rpcCtx, injection.grpcModule.listenerEventScope.tracker);
+			rpcCtx.getOrProduce(KEY, ScopedObject::new);
+		}
+	}
+
+
+
+	@State(Scope.Thread)
+	public static class NonNestedRpc {
+
+		RpcContext rpcCtx;
+		ListenerEventContext eventCtx;
+
+		@Setup
+		public void setup(Injection injection) {
+			rpcCtx = new ClientRpcContext(null, "benchmark/nonNested", null);
+			eventCtx = new ListenerEventContext(
+					rpcCtx, injection.grpcModule.listenerEventScope.tracker);
+			rpcCtx.getOrProduce(KEY, ScopedObject::new);
+		}
+	}
+
+
+
+	@Benchmark
+	public ScopedObject nestedProviderLookup(Injection injection, NestedRpc rpc) {
+		return rpc.eventCtx.executeWithinSelf(() -> injection.provider.get());
+	}
+
+
+
+	@Benchmark
+	public ScopedObject nonNestedProviderLookup(Injection injection, NonNestedRpc rpc) {
+		return rpc.eventCtx.executeWithinSelf(() -> injection.provider.get());
+	}
+
+
+
+	@Benchmark
+	public ScopedObject nestedCtxLookup(NestedRpc rpc) {
+		return rpc.rpcCtx.getOrProduce(KEY, ScopedObject::new);
+	}
+
+
+
+	@Benchmark
+	public ScopedObject nonNestedCtxLookup(NonNestedRpc rpc) {
+		return rpc.rpcCtx.getOrProduce(KEY, ScopedObject::new);
+	}
+}
@@ -0,0 +1,111 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.coroutines;
+
+import java.util.List;
+
+import kotlin.coroutines.CoroutineContext;
+import kotlin.coroutines.EmptyCoroutineContext;
+import kotlinx.coroutines.CoroutineDispatcher;
+import pl.morgwai.base.grpc.scopes.GrpcModule;
+import pl.morgwai.base.guice.scopes.*;
+
+
+
+/**
+ * {@link CoroutineDispatcher} that executes each resumption of coroutines within
+ * {@code Contexts} (for example a {@link pl.morgwai.base.grpc.scopes.ListenerEventContext} and
+ * thus its {@link pl.morgwai.base.grpc.scopes.RpcContext}) captured when it was created, so that
+ * scoped injection keeps working after suspension points move a coroutine to another
+ * {@code Thread}. Actual {@code Threads} are provided by a backing {@link CoroutineDispatcher}.
+ * <p>
+ * {@code ContextTrackers} of {@code Scopes} bind {@code Contexts} to {@code Threads} only for the
+ * duration of a given call (see
+ * {@link TrackableContext#executeWithinSelf(Runnable) executeWithinSelf(...)}), so instead of a
+ * {@code ThreadContextElement} that would install a {@code Context} upon each resume and remove
+ * it upon each suspension, each {@code Runnable} dispatched by the backing dispatcher is
+ * wrapped, which has the same effect. For this reason, dispatch is always needed and backing
+ * dispatchers that do not dispatch (like {@code Dispatchers.Unconfined}) are not supported.</p>
+ * <p>
+ * Usage in a gRPC method implemented in Kotlin:</p>
+ * <pre>{@code
+ * override fun myMethod(request: MyRequest, responseObserver: StreamObserver<MyResponse>) {
+ *     serviceScope.launch(ContextBoundDispatcher.ofCurrentContexts(grpcModule, Dispatchers.IO)) {
+ *         val response = myRpcScopedComponent.process(request)  // may suspend
+ *         responseObserver.onNext(response)
+ *         responseObserver.onCompleted()
+ *     }
+ * }}</pre>
+ * <p>
+ * A {@code ContextBoundDispatcher} retains captured {@code Contexts} as long as it is reachable,
+ * so it should not outlive coroutines of the RPC it was created for.</p>
+ */
+public class ContextBoundDispatcher extends CoroutineDispatcher {
+
+
+
+	public CoroutineDispatcher getBackingDispatcher() { return backingDispatcher; }
+	final CoroutineDispatcher backingDispatcher;
+
+	public List<TrackableContext<?>> getContexts() { return ctxs; }
+	final List<TrackableContext<?>> ctxs;
+
+
+
+	/**
+	 * Returns a dispatcher executing coroutines on {@code backingDispatcher} within the
+	 * {@code Contexts} of all {@code Scopes} of {@code grpcModule} that are active in the calling
+	 * {@code Thread}.
+	 */
+	public static ContextBoundDispatcher ofCurrentContexts(
+		GrpcModule grpcModule,
+		CoroutineDispatcher backingDispatcher
+	) {
+		return new ContextBoundDispatcher(
+			backingDispatcher,
+			ContextTracker.getActiveContexts(grpcModule.getAllTrackers())
+		);
+	}
+
+
+
+	/**
+	 * Creates a dispatcher executing coroutines on {@code backingDispatcher} within {@code ctxs}.
+	 * @throws IllegalArgumentException if {@code backingDispatcher} does not
+	 *     {@link CoroutineDispatcher#isDispatchNeeded(CoroutineContext) need dispatch} (like
+	 *     {@code Dispatchers.Unconfined}).
+	 */
+	public ContextBoundDispatcher(
+		CoroutineDispatcher backingDispatcher,
+		List<TrackableContext<?>> ctxs
+	) {
+		if ( !backingDispatcher.isDispatchNeeded(EmptyCoroutineContext.INSTANCE)) {
+			throw new IllegalArgumentException(
+					"backingDispatcher must dispatch: " + backingDispatcher);
+		}
+		this.backingDispatcher = backingDispatcher;
+		this.ctxs = List.copyOf(ctxs);
+	}
+
+
+
+	@Override
+	public boolean isDispatchNeeded(CoroutineContext coroutineCtx) {
+		return true;
+	}
+
+
+
+	@Override
+	public void dispatch(CoroutineContext coroutineCtx, Runnable resumption) {
+		backingDispatcher.dispatch(
+				coroutineCtx, () -> TrackableContext.executeWithinAll(ctxs, resumption));
+	}
+
+
+
+	@Override
+	public String toString() {
+		return "ContextBoundDispatcher { backingDispatcher=" + backingDispatcher + ", ctxs="
+				+ ctxs + " }";
+	}
+}
@@ -0,0 +1,173 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.coroutines;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import io.grpc.*;
+import kotlin.Unit;
+import kotlin.coroutines.*;
+import kotlin.jvm.functions.Function1;
+import kotlinx.coroutines.DelayKt;
+import kotlinx.coroutines.Dispatchers;
+import kotlinx.coroutines.ExecutorsKt;
+import org.junit.After;
+import org.junit.Test;
+import pl.morgwai.base.grpc.scopes.GrpcModule;
+import pl.morgwai.base.grpc.scopes.ListenerEventContext;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+
+
+public class ContextBoundDispatcherTests {
+
+
+
+	static final long TIMEOUT_MILLIS = 500L;
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final ContextTracker<ListenerEventContext> ctxTracker = grpcModule.listenerEventScope.tracker;
+	final Provider<Object> rpcScopedProvider =
+			grpcModule.rpcScope.scope(Key.get(Object.class), Object::new);
+	final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+
+
+	@After
+	public void shutdownExecutor() throws InterruptedException {
+		executor.shutdown();
+		assertTrue("executor should terminate",
+				executor.awaitTermination(TIMEOUT_MILLIS, MILLISECONDS));
+	}
+
+
+
+	/** State observed by a part of a coroutine. */
+	static class Observation {
+
+		final Thread thread = Thread.currentThread();
+		final ListenerEventContext eventCtx;
+		final Object rpcScopedObject;
+
+		Observation(ListenerEventContext eventCtx, Object rpcScopedObject) {
+			this.eventCtx = eventCtx;
+			this.rpcScopedObject = rpcScopedObject;
+		}
+	}
+
+
+
+	Observation observe() {
+		return new Observation(ctxTracker.getCurrentContext(), rpcScopedProvider.get());
+	}
+
+
+
+	/** Starts a server RPC via {@link GrpcModule#serverInterceptor} and returns its first ctx. */
+	ListenerEventContext startServerRpc() {
+		final var eventCtx = new AtomicReference<ListenerEventContext>();
+		grpcModule.serverInterceptor.interceptCall(
+			new FakeServerCall(),
+			new Metadata(),
+			(rpc, headers) -> {
+				eventCtx.set(ctxTracker.getCurrentContext());
+				return new ServerCall.Listener<>() {};
+			}
+		);
+		return eventCtx.get();
+	}
+
+
+
+	@Test
+	public void testCoroutineIsResumedWithinCtxAfterSuspension() throws Exception {
+		final var eventCtx = startServerRpc();
+		final var beforeSuspension = new CompletableFuture<Observation>();
+		final var afterResumption = new CompletableFuture<Observation>();
+		final var rpcScopedObject = eventCtx.executeWithinSelf(rpcScopedProvider::get);
+		final var dispatcher = eventCtx.executeWithinSelf(() -> ContextBoundDispatcher
+				.ofCurrentContexts(grpcModule, ExecutorsKt.from((Executor) executor)));
+
+		// suspend () -> Unit that suspends on delay(...): after the timer Thread resumes it, its
+		// completion below is resumed by the dispatcher
+		final Function1<Continuation<? super Unit>, Object> suspendingBlock = (continuation) -> {
+			beforeSuspension.complete(observe());
+			return DelayKt.delay(10L, continuation);
+		};
+		ContinuationKt.startCoroutine(suspendingBlock, new Continuation<Unit>() {
+			@Override public CoroutineContext getContext() {
+				return dispatcher;
+			}
+			@Override public void resumeWith(Object result) {
+				afterResumption.complete(observe());
+			}
+		});
+
+		final var before = beforeSuspension.get(TIMEOUT_MILLIS, MILLISECONDS);
+		final var after = afterResumption.get(TIMEOUT_MILLIS, MILLISECONDS);
+		assertNotSame("coroutine should be dispatched to the backing dispatcher",
+				Thread.currentThread(), before.thread);
+		assertNotSame("coroutine should be resumed by the backing dispatcher",
+				Thread.currentThread(), after.thread);
+		assertSame("coroutine should start within the captured ctx",
+				eventCtx, before.eventCtx);
+		assertSame("coroutine should be resumed within the captured ctx",
+				eventCtx, after.eventCtx);
+		assertSame("RPC-scoped object should be the same before suspension",
+				rpcScopedObject, before.rpcScopedObject);
+		assertSame("RPC-scoped object should be the same after resumption",
+				rpcScopedObject, after.rpcScopedObject);
+		assertNull("ctx should not be leaked to the calling Thread",
+				ctxTracker.getCurrentContext());
+	}
+
+
+
+	@Test
+	public void testNotDispatchingBackingDispatcherIsRejected() {
+		try {
+			new ContextBoundDispatcher(Dispatchers.getUnconfined(), List.of());
+			fail("not dispatching backing dispatcher should be rejected");
+		} catch (IllegalArgumentException expected) {}
+	}
+
+
+
+	static class FakeServerCall extends ServerCall<Integer, Integer> {
+
+		static final MethodDescriptor<Integer, Integer> METHOD =
+				MethodDescriptor.<Integer, Integer>newBuilder()
+					.setType(MethodDescriptor.MethodType.UNARY)
+					.setFullMethodName("test/testMethod")
+					.setRequestMarshaller(new StubMarshaller())
+					.setResponseMarshaller(new StubMarshaller())
+					.build();
+
+		@Override public MethodDescriptor<Integer, Integer> getMethodDescriptor() { return METHOD; }
+		@Override public boolean isCancelled() { return false; }
+		@Override public void request(int numMessages) {}
+		@Override public void sendHeaders(Metadata headers) {}
+		@Override public void sendMessage(Integer message) {}
+		@Override public void close(Status status, Metadata trailers) {}
+	}
+
+
+
+	static class StubMarshaller implements MethodDescriptor.Marshaller<Integer> {
+
+		@Override public InputStream stream(Integer value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override public Integer parse(InputStream stream) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
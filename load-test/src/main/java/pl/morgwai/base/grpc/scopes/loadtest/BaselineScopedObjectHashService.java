@@ -0,0 +1,120 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.loadtest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.stub.StreamObserver;
+import pl.morgwai.base.grpc.scopes.tests.EventScopedService;
+import pl.morgwai.base.grpc.scopes.tests.RpcScopedService;
+import pl.morgwai.base.grpc.scopes.tests.grpc.*;
+import pl.morgwai.base.grpc.scopes.tests.grpc.BackendGrpc.BackendStub;
+import pl.morgwai.base.grpc.scopes.tests.grpc.ScopedObjectHashGrpc.ScopedObjectHashImplBase;
+
+
+
+/**
+ * Baseline for {@link pl.morgwai.base.grpc.scopes.tests.ScopedObjectHashService} used when the
+ * test is run without interceptors: produces the same message flow (including the backend call)
+ * but creates "scoped" objects manually instead of obtaining them from Guice {@code Scope}s.
+ */
+public class BaselineScopedObjectHashService extends ScopedObjectHashImplBase {
+
+
+
+	final BackendStub backendConnector;
+
+
+
+	public BaselineScopedObjectHashService(BackendStub backendConnector) {
+		this.backendConnector = backendConnector;
+	}
+
+
+
+	@Override
+	public void unary(Request request, StreamObserver<ScopedObjectsHashes> responseObserver) {
+		responseObserver.onNext(
+				buildResponse("unary", new RpcScopedService(), new EventScopedService()));
+		responseObserver.onCompleted();
+	}
+
+
+
+	@Override
+	public StreamObserver<Request> streaming(
+		StreamObserver<ScopedObjectsHashes> basicResponseObserver
+	) {
+		final var responseObserver = new SynchronizedStreamObserver<>(basicResponseObserver);
+		final var rpcScoped = new RpcScopedService();
+		final var completionCounter = new AtomicInteger(2);  // 1 for client, 1 for backend
+		responseObserver.onNext(buildResponse("startCall", rpcScoped, new EventScopedService()));
+
+		final var backendResponseObserver = new StreamObserver<Empty>() {
+
+			@Override public void onNext(Empty response) {
+				responseObserver.onNext(
+						buildResponse("backend.onNext", rpcScoped, new EventScopedService()));
+			}
+
+			@Override public void onError(Throwable error) {
+				responseObserver.onError(error);
+			}
+
+			@Override public void onCompleted() {
+				if (completionCounter.decrementAndGet() == 0) responseObserver.onCompleted();
+			}
+		};
+
+		return new StreamObserver<>() {
+
+			boolean backendCalled = false;
+
+			@Override public void onNext(Request request) {
+				if ( !backendCalled) {
+					backendCalled = true;
+					backendConnector.unary(
+						BackendRequest.newBuilder().setCallId(request.getCallId()).build(),
+						backendResponseObserver
+					);
+				}
+				responseObserver.onNext(
+						buildResponse("onNext", rpcScoped, new EventScopedService()));
+			}
+
+			@Override public void onError(Throwable error) {}
+
+			@Override public void onCompleted() {
+				if (completionCounter.decrementAndGet() == 0) responseObserver.onCompleted();
+			}
+		};
+	}
+
+
+
+	static ScopedObjectsHashes buildResponse(
+		String eventName,
+		RpcScopedService rpcScoped,
+		EventScopedService eventScoped
+	) {
+		return ScopedObjectsHashes.newBuilder()
+			.setEventName(eventName)
+			.setRpcScopedHash(rpcScoped.hashCode())
+			.setEventScopedHash(eventScoped.hashCode())
+			.build();
+	}
+
+
+
+	static class SynchronizedStreamObserver<MessageT> implements StreamObserver<MessageT> {
+
+		final StreamObserver<MessageT> wrappedObserver;
+
+		SynchronizedStreamObserver(StreamObserver<MessageT> observerToWrap) {
+			wrappedObserver = observerToWrap;
+		}
+
+		@Override public synchronized void onNext(MessageT m) { wrappedObserver.onNext(m); }
+		@Override public synchronized void onError(Throwable t) { wrappedObserver.onError(t); }
+		@Override public synchronized void onCompleted() { wrappedObserver.onCompleted(); }
+	}
+}
@@ -0,0 +1,29 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.loadtest;
+
+import java.util.function.BiConsumer;
+
+import io.grpc.stub.StreamObserver;
+
+
+
+/** Counts response messages and reports them to {@code onFinish} callback upon completion. */
+class CountingResponseObserver<ResponseT> implements StreamObserver<ResponseT> {
+
+
+
+	final BiConsumer<Integer, Throwable> onFinish;
+	int responseCount = 0;
+
+
+
+	CountingResponseObserver(BiConsumer<Integer, Throwable> onFinish) {
+		this.onFinish = onFinish;
+	}
+
+
+
+	@Override public void onNext(ResponseT response) { responseCount++; }
+	@Override public void onError(Throwable error) { onFinish.accept(responseCount, error); }
+	@Override public void onCompleted() { onFinish.accept(responseCount, null); }
+}
@@ -0,0 +1,83 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.loadtest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+
+/**
+ * Lock-free log-linear histogram of latencies in nanoseconds.
+ * Values below {@value #LINEAR_BUCKET_COUNT} are recorded exactly, greater values with a relative
+ * error below {@code 1 / }{@value #SUB_BUCKET_COUNT}.
+ */
+public class LatencyHistogram {
+
+
+
+	static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	static final int LINEAR_BUCKET_COUNT = 2 * SUB_BUCKET_COUNT;
+	static final int MAX_SHIFT = 63 - SUB_BUCKET_BITS;
+
+	final AtomicLongArray counts =
+			new AtomicLongArray(LINEAR_BUCKET_COUNT + MAX_SHIFT * SUB_BUCKET_COUNT);
+
+
+
+	public void record(long nanos) {
+		counts.incrementAndGet(indexOf(Math.max(0L, nanos)));
+	}
+
+
+
+	public long getTotalCount() {
+		long total = 0L;
+		for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+		return total;
+	}
+
+
+
+	/**
+	 * Returns the value at {@code percentile} (from {@code 0.0} to {@code 100.0}), rounded down to
+	 * the lower bound of its bucket.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		final long total = getTotalCount();
+		if (total == 0L) return 0L;
+		final long targetCount = Math.max(1L, (long) Math.ceil(total * percentile / 100.0));
+		long cumulativeCount = 0L;
+		for (int i = 0; i < counts.length(); i++) {
+			cumulativeCount += counts.get(i);
+			if (cumulativeCount >= targetCount) return lowerBoundOf(i);
+		}
+		return lowerBoundOf(counts.length() - 1);
+	}
+
+
+
+	public long getMax() {
+		for (int i = counts.length() - 1; i >= 0; i--) {
+			if (counts.get(i) > 0L) return lowerBoundOf(i);
+		}
+		return 0L;
+	}
+
+
+
+	static int indexOf(long value) {
+		if (value < LINEAR_BUCKET_COUNT) return (int) value;
+		final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+		return LINEAR_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+
+
+	static long lowerBoundOf(int index) {
+		if (index < LINEAR_BUCKET_COUNT) return index;
+		final int shift = (index - LINEAR_BUCKET_COUNT) / SUB_BUCKET_COUNT + 1;
+		final long subBucket = (index - LINEAR_BUCKET_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+		return subBucket << shift;
+	}
+}
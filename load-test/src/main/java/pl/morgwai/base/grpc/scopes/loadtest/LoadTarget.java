@@ -0,0 +1,53 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.loadtest;
+
+import java.util.function.BiConsumer;
+
+import io.grpc.Channel;
+import io.grpc.ServerServiceDefinition;
+
+
+
+/** A gRPC service under load together with a client issuing RPCs of a given scenario to it. */
+public interface LoadTarget extends AutoCloseable {
+
+
+
+	/** Scenarios of RPCs issued by {@link #startRpc(Channel, BiConsumer)}. */
+	enum Scenario {
+
+		/** A single request message and a single response message. */
+		UNARY,
+
+		/**
+		 * Request stream of {@link LoadTest#STREAM_LENGTH_ENVVAR} messages (fan-in) answered with
+		 * a response stream of at least as many messages (fan-out).
+		 */
+		STREAMING,
+
+		/** A single request message answered with a long response stream (fan-out only). */
+		SERVER_STREAMING
+	}
+
+
+
+	/**
+	 * Returns the definition of the service to be added to the server, intercepted with
+	 * {@link pl.morgwai.base.grpc.scopes.GrpcModule#serverInterceptor} if the test is run with
+	 * interceptors.
+	 */
+	ServerServiceDefinition getServiceDefinition();
+
+	/** Called after the server is started and before the first RPC. */
+	default void prepare(Channel channel) throws Exception {}
+
+	/**
+	 * Starts a single RPC of the configured {@link Scenario} on {@code channel}. When the RPC
+	 * finishes, {@code onFinish} should be called with the number of received response messages
+	 * and an error if the RPC failed or {@code null} otherwise.
+	 */
+	void startRpc(Channel channel, BiConsumer<Integer, Throwable> onFinish);
+
+	@Override
+	default void close() throws Exception {}
+}
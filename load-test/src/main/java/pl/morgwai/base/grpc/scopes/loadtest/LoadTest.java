@@ -0,0 +1,317 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import io.grpc.*;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import pl.morgwai.base.grpc.scopes.GrpcModule;
+import pl.morgwai.base.grpc.scopes.loadtest.LoadTarget.Scenario;
+
+import static java.util.concurrent.TimeUnit.*;
+
+
+
+/**
+ * Closed-loop load generator: keeps {@value #CONCURRENCY_ENVVAR} RPCs of the configured
+ * {@link Scenario} in flight against the configured {@link LoadTarget} and reports throughput,
+ * latency percentiles and allocation rate measured after a warm-up period.
+ * All parameters are obtained from env vars with names defined by {@code *_ENVVAR} constants.
+ */
+public class LoadTest {
+
+
+
+	enum Target { SCOPED_OBJECT_HASH, RECORD_STORAGE }
+
+	enum Transport { IN_PROCESS, NETTY }
+
+	/** Name of a {@link Target} to put under load. */
+	public static final String TARGET_ENVVAR = "TARGET";
+	static final Target DEFAULT_TARGET = Target.SCOPED_OBJECT_HASH;
+
+	/** Name of a {@link Scenario} of RPCs to issue. */
+	public static final String SCENARIO_ENVVAR = "SCENARIO";
+	static final Scenario DEFAULT_SCENARIO = Scenario.UNARY;
+
+	/** Name of a {@link Transport} to use between the load generator and the target server. */
+	public static final String TRANSPORT_ENVVAR = "TRANSPORT";
+	static final Transport DEFAULT_TRANSPORT = Transport.IN_PROCESS;
+
+	/**
+	 * Whether the target service and its client should be intercepted with
+	 * {@link GrpcModule}'s interceptors: setting it to {@code false} provides a baseline for
+	 * measuring the overhead of scoping.
+	 */
+	public static final String INTERCEPTORS_ENVVAR = "INTERCEPTORS";
+	static final boolean DEFAULT_INTERCEPTORS = true;
+
+	/** Number of RPCs kept in flight concurrently. */
+	public static final String CONCURRENCY_ENVVAR = "CONCURRENCY";
+	static final int DEFAULT_CONCURRENCY = 64;
+
+	/** Duration of the warm-up period, during which results are not recorded. */
+	public static final String WARMUP_ENVVAR = "WARMUP_SECONDS";
+	static final int DEFAULT_WARMUP = 10;
+
+	/** Duration of the measurement period. */
+	public static final String DURATION_ENVVAR = "DURATION_SECONDS";
+	static final int DEFAULT_DURATION = 30;
+
+	/** Number of messages in request streams and in server-side response streams. */
+	public static final String STREAM_LENGTH_ENVVAR = "STREAM_LENGTH";
+	static final int DEFAULT_STREAM_LENGTH = 10;
+
+	/** Approximate size in bytes of each request message's payload. */
+	public static final String MESSAGE_SIZE_ENVVAR = "MESSAGE_SIZE";
+	static final int DEFAULT_MESSAGE_SIZE = 100;
+
+	/** Threadpool size of the JPA executor of {@link Target#RECORD_STORAGE} target. */
+	public static final String JPA_EXECUTOR_THREADPOOL_SIZE_ENVVAR = "JPA_EXECUTOR_THREADPOOL_SIZE";
+	static final int DEFAULT_JPA_EXECUTOR_THREADPOOL_SIZE = 10;
+
+
+
+	final LoadTarget target;
+	final int concurrency;
+
+	final Server server;
+	final ManagedChannel channel;
+	final Channel clientChannel;
+
+	volatile boolean recording = false;
+	volatile boolean stopped = false;
+	final CountDownLatch slotsStopped;
+
+	final LatencyHistogram latencies = new LatencyHistogram();
+	final LongAdder rpcCount = new LongAdder();
+	final LongAdder responseCount = new LongAdder();
+	final LongAdder errorCount = new LongAdder();
+
+
+
+	LoadTest(LoadTarget target, Transport transport, boolean withInterceptors, int concurrency)
+			throws Exception {
+		this.target = target;
+		this.concurrency = concurrency;
+		slotsStopped = new CountDownLatch(concurrency);
+
+		if (transport == Transport.IN_PROCESS) {
+			final var serverName = "grpc-scopes-load-test-" + UUID.randomUUID();
+			server = InProcessServerBuilder.forName(serverName)
+				.addService(target.getServiceDefinition())
+				.build()
+				.start();
+			channel = InProcessChannelBuilder.forName(serverName)
+				.build();
+		} else {
+			server = NettyServerBuilder.forPort(0)
+				.addService(target.getServiceDefinition())
+				.build()
+				.start();
+			channel = ManagedChannelBuilder.forTarget("localhost:" + server.getPort())
+				.usePlaintext()
+				.build();
+		}
+		clientChannel = withInterceptors
+				? ClientInterceptors.intercept(channel, new GrpcModule().clientInterceptor)
+				: channel;
+		target.prepare(clientChannel);
+	}
+
+
+
+	void startRpc() {
+		if (stopped) {
+			slotsStopped.countDown();
+			return;
+		}
+		final var startNanos = System.nanoTime();
+		target.startRpc(clientChannel, (responses, error) -> {
+			if (recording) {
+				latencies.record(System.nanoTime() - startNanos);
+				rpcCount.increment();
+				responseCount.add(responses);
+				if (error != null) errorCount.increment();
+			}
+			if (error != null && !recording && !stopped) {
+				log.warning("RPC failed during warm-up: " + error);
+			}
+			startRpc();
+		});
+	}
+
+
+
+	void run(int warmupSeconds, int durationSeconds) throws InterruptedException {
+		for (int i = 0; i < concurrency; i++) startRpc();
+		log.info("warming up for " + warmupSeconds + "s");
+		Thread.sleep(SECONDS.toMillis(warmupSeconds));
+
+		final var allocatedBytesBefore = getAllocatedBytesPerThread();
+		final var startNanos = System.nanoTime();
+		recording = true;
+		log.info("measuring for " + durationSeconds + "s");
+		Thread.sleep(SECONDS.toMillis(durationSeconds));
+		recording = false;
+		final var elapsedNanos = System.nanoTime() - startNanos;
+		final var allocatedBytes = getAllocatedBytesSince(allocatedBytesBefore);
+
+		stopped = true;
+		if ( !slotsStopped.await(10L, SECONDS)) log.warning("some RPCs did not finish in time");
+		report(elapsedNanos, allocatedBytes);
+	}
+
+
+
+	void report(long elapsedNanos, long allocatedBytes) {
+		final var elapsedSeconds = elapsedNanos / 1e9;
+		final var rpcs = rpcCount.sum();
+		System.out.printf("RPCs:                  %d (%d failed)%n", rpcs, errorCount.sum());
+		System.out.printf("throughput:            %.1f RPCs/s%n", rpcs / elapsedSeconds);
+		System.out.printf("response messages:     %.1f msgs/s%n",
+				responseCount.sum() / elapsedSeconds);
+		System.out.printf("latency p50:           %d µs%n",
+				NANOSECONDS.toMicros(latencies.getValueAtPercentile(50.0)));
+		System.out.printf("latency p99:           %d µs%n",
+				NANOSECONDS.toMicros(latencies.getValueAtPercentile(99.0)));
+		System.out.printf("latency p99.9:         %d µs%n",
+				NANOSECONDS.toMicros(latencies.getValueAtPercentile(99.9)));
+		System.out.printf("latency max:           %d µs%n",
+				NANOSECONDS.toMicros(latencies.getMax()));
+		if (allocatedBytes >= 0L) {
+			System.out.printf("allocation rate:       %.1f MB/s%n",
+					allocatedBytes / elapsedSeconds / (1024 * 1024));
+			if (rpcs > 0L) {
+				System.out.printf("allocated per RPC:     %d bytes%n", allocatedBytes / rpcs);
+			}
+		}
+	}
+
+
+
+	void shutdown() throws Exception {
+		channel.shutdown();
+		server.shutdown();
+		if ( !channel.awaitTermination(1L, SECONDS)) channel.shutdownNow();
+		if ( !server.awaitTermination(1L, SECONDS)) server.shutdownNow();
+		target.close();
+	}
+
+
+
+	/**
+	 * Returns a map from IDs of all live {@code Thread}s to numbers of bytes allocated by them so
+	 * far or {@code null} if the JVM does not support measuring thread allocation.
+	 */
+	static Map<Long, Long> getAllocatedBytesPerThread() {
+		final var threadBean = ManagementFactory.getThreadMXBean();
+		if ( !(threadBean instanceof com.sun.management.ThreadMXBean)) return null;
+		final var sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+		if ( !sunThreadBean.isThreadAllocatedMemorySupported()) return null;
+		sunThreadBean.setThreadAllocatedMemoryEnabled(true);
+		final var threadIds = sunThreadBean.getAllThreadIds();
+		final var allocatedBytes = sunThreadBean.getThreadAllocatedBytes(threadIds);
+		final var result = new HashMap<Long, Long>(threadIds.length * 2);
+		for (int i = 0; i < threadIds.length; i++) {
+			if (allocatedBytes[i] >= 0L) result.put(threadIds[i], allocatedBytes[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes allocated by all {@code Thread}s since {@code before} was
+	 * obtained or {@code -1} if not supported. Allocations of {@code Thread}s that exited in the
+	 * meantime are not included.
+	 */
+	static long getAllocatedBytesSince(Map<Long, Long> before) {
+		if (before == null) return -1L;
+		final var after = getAllocatedBytesPerThread();
+		long total = 0L;
+		for (var threadEntry: after.entrySet()) {
+			total += threadEntry.getValue() - before.getOrDefault(threadEntry.getKey(), 0L);
+		}
+		return total;
+	}
+
+
+
+	public static void main(String[] args) throws Exception {
+		final var withInterceptors =
+				getBooleanFromEnv(INTERCEPTORS_ENVVAR, DEFAULT_INTERCEPTORS);
+		final var scenario = getEnumFromEnv(SCENARIO_ENVVAR, DEFAULT_SCENARIO);
+		final var streamLength = getIntFromEnv(STREAM_LENGTH_ENVVAR, DEFAULT_STREAM_LENGTH);
+		final var messageSize = getIntFromEnv(MESSAGE_SIZE_ENVVAR, DEFAULT_MESSAGE_SIZE);
+		final LoadTarget target;
+		switch (getEnumFromEnv(TARGET_ENVVAR, DEFAULT_TARGET)) {
+			case RECORD_STORAGE:
+				target = new RecordStorageTarget(
+					withInterceptors,
+					scenario,
+					streamLength,
+					messageSize,
+					getIntFromEnv(
+						JPA_EXECUTOR_THREADPOOL_SIZE_ENVVAR,
+						DEFAULT_JPA_EXECUTOR_THREADPOOL_SIZE
+					)
+				);
+				break;
+			default:
+				target = new ScopedObjectHashTarget(
+						withInterceptors, scenario, streamLength, messageSize);
+		}
+		final var loadTest = new LoadTest(
+			target,
+			getEnumFromEnv(TRANSPORT_ENVVAR, DEFAULT_TRANSPORT),
+			withInterceptors,
+			getIntFromEnv(CONCURRENCY_ENVVAR, DEFAULT_CONCURRENCY)
+		);
+		try {
+			loadTest.run(
+				getIntFromEnv(WARMUP_ENVVAR, DEFAULT_WARMUP),
+				getIntFromEnv(DURATION_ENVVAR, DEFAULT_DURATION)
+			);
+		} finally {
+			loadTest.shutdown();
+		}
+	}
+
+	static int getIntFromEnv(String envVarName, int defaultValue) {
+		final var value = System.getenv(envVarName);
+		if (value == null) {
+			log.info(envVarName + " unset, using default " + defaultValue);
+			return defaultValue;
+		}
+		return Integer.parseInt(value);
+	}
+
+	static boolean getBooleanFromEnv(String envVarName, boolean defaultValue) {
+		final var value = System.getenv(envVarName);
+		if (value == null) {
+			log.info(envVarName + " unset, using default " + defaultValue);
+			return defaultValue;
+		}
+		return Boolean.parseBoolean(value);
+	}
+
+	static <E extends Enum<E>> E getEnumFromEnv(String envVarName, E defaultValue) {
+		final var value = System.getenv(envVarName);
+		if (value == null) {
+			log.info(envVarName + " unset, using default " + defaultValue);
+			return defaultValue;
+		}
+		return Enum.valueOf(defaultValue.getDeclaringClass(), value.toUpperCase());
+	}
+
+
+
+	static final Logger log = Logger.getLogger(LoadTest.class.getName());
+}
@@ -0,0 +1,148 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.loadtest;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+import javax.persistence.*;
+
+import com.google.inject.Guice;
+import io.grpc.*;
+import pl.morgwai.base.grpc.scopes.GrpcModule;
+import pl.morgwai.base.grpc.scopes.StreamingRequestSender;
+import pl.morgwai.samples.grpc.scopes.grpc.*;
+import pl.morgwai.samples.grpc.scopes.grpc.Record;
+
+import static pl.morgwai.samples.grpc.scopes.grpc.RecordStorageModule.MAX_BATCH_DELAY_MILLIS;
+import static pl.morgwai.samples.grpc.scopes.grpc.RecordStorageServer.PERSISTENCE_UNIT_NAME;
+
+
+
+/**
+ * Drives {@link RecordStorageService} from the sample app. As this service obtains
+ * {@link EntityManager}s from {@link GrpcModule#listenerEventScope}, it can only be run with
+ * interceptors.
+ */
+public class RecordStorageTarget implements LoadTarget {
+
+
+
+	final Scenario scenario;
+	final int streamLength;
+	final String content;
+
+	final EntityManagerFactory entityManagerFactory;
+	final ExecutorService jpaExecutor;
+	final ScheduledExecutorService batchTimer;
+	final ServerServiceDefinition serviceDefinition;
+
+
+
+	public RecordStorageTarget(
+		boolean withInterceptors,
+		Scenario scenario,
+		int streamLength,
+		int messageSize,
+		int jpaExecutorThreadpoolSize
+	) {
+		if ( !withInterceptors) {
+			throw new IllegalArgumentException(
+					"RecordStorage service requires scopes and cannot be run without interceptors");
+		}
+		this.scenario = scenario;
+		this.streamLength = streamLength;
+		content = "x".repeat(messageSize);
+
+		final var grpcModule = new GrpcModule();
+		entityManagerFactory = Persistence.createEntityManagerFactory(
+				PERSISTENCE_UNIT_NAME, Map.of("hibernate.show_sql", "false"));
+		jpaExecutor = Executors.newFixedThreadPool(jpaExecutorThreadpoolSize);
+		batchTimer = Executors.newSingleThreadScheduledExecutor();
+		final var recordStorageModule = new RecordStorageModule(
+			grpcModule,
+			entityManagerFactory,
+			jpaExecutor,
+			batchTimer,
+			jpaExecutorThreadpoolSize
+		);
+		final var service = Guice.createInjector(grpcModule, recordStorageModule)
+			.getInstance(RecordStorageService.class);
+		serviceDefinition = ServerInterceptors.intercept(service, grpcModule.serverInterceptor);
+	}
+
+
+
+	@Override
+	public ServerServiceDefinition getServiceDefinition() {
+		return serviceDefinition;
+	}
+
+
+
+	/**
+	 * In case of {@link Scenario#SERVER_STREAMING}, stores {@link #streamLength} records, so that
+	 * each {@code getAll} call streams that many.
+	 */
+	@Override
+	public void prepare(Channel channel) throws Exception {
+		if (scenario != Scenario.SERVER_STREAMING) return;
+		final var result = new CompletableFuture<Integer>();
+		startStoreMultiple(channel, (responseCount, error) -> {
+			if (error != null) {
+				result.completeExceptionally(error);
+			} else {
+				result.complete(responseCount);
+			}
+		});
+		result.get();
+	}
+
+
+
+	@Override
+	public void startRpc(Channel channel, BiConsumer<Integer, Throwable> onFinish) {
+		switch (scenario) {
+			case UNARY:
+				RecordStorageGrpc.newStub(channel).store(
+					Record.newBuilder().setContent(content).build(),
+					new CountingResponseObserver<>(onFinish)
+				);
+				break;
+			case STREAMING:
+				startStoreMultiple(channel, onFinish);
+				break;
+			case SERVER_STREAMING:
+				RecordStorageGrpc.newStub(channel).getAll(
+					Empty.newBuilder().build(),
+					new CountingResponseObserver<>(onFinish)
+				);
+		}
+	}
+
+	void startStoreMultiple(Channel channel, BiConsumer<Integer, Throwable> onFinish) {
+		RecordStorageGrpc.newStub(channel).storeMultiple(new StreamingRequestSender<>(
+				new CountingResponseObserver<>(onFinish), newRequests()));
+	}
+
+	Iterator<StoreRecordRequest> newRequests() {
+		return IntStream.rangeClosed(1, streamLength)
+			.mapToObj((i) -> StoreRecordRequest.newBuilder()
+				.setRequestId(i)
+				.setContent(content)
+				.build())
+			.iterator();
+	}
+
+
+
+	@Override
+	public void close() throws Exception {
+		batchTimer.shutdown();  // already scheduled batch writes are still executed
+		batchTimer.awaitTermination(MAX_BATCH_DELAY_MILLIS * 2L, TimeUnit.MILLISECONDS);
+		jpaExecutor.shutdown();
+		jpaExecutor.awaitTermination(2L, TimeUnit.SECONDS);
+		entityManagerFactory.close();
+	}
+}
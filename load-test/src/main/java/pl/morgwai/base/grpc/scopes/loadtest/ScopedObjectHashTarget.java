@@ -0,0 +1,121 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.loadtest;
+
+import java.util.Iterator;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+import com.google.inject.Guice;
+import com.google.protobuf.ByteString;
+import io.grpc.*;
+import pl.morgwai.base.grpc.scopes.GrpcModule;
+import pl.morgwai.base.grpc.scopes.StreamingRequestSender;
+import pl.morgwai.base.grpc.scopes.tests.*;
+import pl.morgwai.base.grpc.scopes.tests.grpc.*;
+import pl.morgwai.base.grpc.scopes.tests.grpc.BackendGrpc.BackendStub;
+
+
+
+/**
+ * Drives {@link ScopedObjectHashService} (or {@link BaselineScopedObjectHashService} if the test is
+ * run without interceptors). Both call {@link BackendServer} once per streaming RPC.
+ */
+public class ScopedObjectHashTarget implements LoadTarget {
+
+
+
+	final Scenario scenario;
+	final int streamLength;
+	final ByteString payload;
+
+	final BackendServer backendServer;
+	final ManagedChannel backendChannel;
+	final ServerServiceDefinition serviceDefinition;
+
+
+
+	public ScopedObjectHashTarget(
+		boolean withInterceptors,
+		Scenario scenario,
+		int streamLength,
+		int messageSize
+	) throws Exception {
+		if (scenario == Scenario.SERVER_STREAMING) {
+			throw new IllegalArgumentException(
+					"ScopedObjectHash service does not have a server-streaming method");
+		}
+		this.scenario = scenario;
+		this.streamLength = streamLength;
+		payload = ByteString.copyFrom(new byte[messageSize]);
+
+		backendServer = new BackendServer(0);
+		backendChannel = ManagedChannelBuilder
+			.forTarget("localhost:" + backendServer.getPort())
+			.usePlaintext()
+			.build();
+		if (withInterceptors) {
+			final var grpcModule = new GrpcModule();
+			final var backendConnector = BackendGrpc.newStub(ClientInterceptors.intercept(
+					backendChannel, grpcModule.nestingClientInterceptor));
+			final var injector = Guice.createInjector(
+				grpcModule,
+				(binder) -> {
+					binder.bind(BackendStub.class)
+						.toInstance(backendConnector);
+					binder.bind(RpcScopedService.class)
+						.in(grpcModule.rpcScope);
+					binder.bind(EventScopedService.class)
+						.in(grpcModule.listenerEventScope);
+				}
+			);
+			final var service = injector.getInstance(ScopedObjectHashService.class);
+			service.setDuplicationCheckingEnabled(false);
+			serviceDefinition =
+					ServerInterceptors.intercept(service, grpcModule.serverInterceptor);
+		} else {
+			serviceDefinition = new BaselineScopedObjectHashService(
+					BackendGrpc.newStub(backendChannel)).bindService();
+		}
+	}
+
+
+
+	@Override
+	public ServerServiceDefinition getServiceDefinition() {
+		return serviceDefinition;
+	}
+
+
+
+	@Override
+	public void startRpc(Channel channel, BiConsumer<Integer, Throwable> onFinish) {
+		final var connector = ScopedObjectHashGrpc.newStub(channel);
+		final var responseObserver = new CountingResponseObserver<ScopedObjectsHashes>(onFinish);
+		if (scenario == Scenario.UNARY) {
+			connector.unary(newRequest(1), responseObserver);
+		} else {
+			connector.streaming(new StreamingRequestSender<>(responseObserver, newRequests()));
+		}
+	}
+
+	Request newRequest(int callId) {
+		return Request.newBuilder()
+			.setCallId(callId)
+			.setPayload(payload)
+			.build();
+	}
+
+	Iterator<Request> newRequests() {
+		return IntStream.rangeClosed(1, streamLength)
+			.mapToObj(this::newRequest)
+			.iterator();
+	}
+
+
+
+	@Override
+	public void close() throws Exception {
+		backendChannel.shutdown();
+		backendServer.toAwaitableOfEnforcedTermination().await(500L);
+	}
+}
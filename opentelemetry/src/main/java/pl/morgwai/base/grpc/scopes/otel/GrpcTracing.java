@@ -0,0 +1,224 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.otel;
+
+import java.util.function.Supplier;
+
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.name.Names;
+import io.grpc.*;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.*;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import pl.morgwai.base.grpc.scopes.*;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+
+
+/**
+ * OpenTelemetry tracing of gRPC RPCs with spans stored in {@code Contexts} of
+ * {@link GrpcModule}'s {@code Scopes} instead of OpenTelemetry's own {@code ThreadLocal}, so that
+ * they are transferred between {@code Threads} together with the {@code Contexts} (for example by
+ * {@link GrpcModule#ctxBinder}) at no additional cost.
+ * <p>
+ * A span is created for each {@link ServerRpcContext server RPC} with its parent extracted from the
+ * request {@link Metadata headers}, and for each client RPC with the {@link #currentSpan() current
+ * span} as its parent, which links client RPCs made within server RPCs (whether their
+ * {@code Contexts} are joined by {@link GrpcModule#nestingClientInterceptor} or not) to their
+ * "parent" RPCs. The trace context of client RPCs is injected into their request headers.
+ * Optionally, a child span is created for each {@link ListenerEventContext Listener event}.</p>
+ * <p>
+ * {@link #serverInterceptor} must be applied <b>after</b> {@link GrpcModule#serverInterceptor},
+ * while {@link #clientInterceptor} must be applied <b>before</b> (further from the
+ * {@link Channel}) {@link GrpcModule#clientInterceptor} or
+ * {@link GrpcModule#nestingClientInterceptor}:</p>
+ * <pre>{@code
+ * final var tracing = new GrpcTracing(grpcModule, openTelemetry, false);
+ * // the last Interceptor is called first
+ * ServerInterceptors.intercept(
+ *         service, tracing.serverInterceptor, grpcModule.serverInterceptor);
+ * ClientInterceptors.intercept(
+ *         channel, grpcModule.nestingClientInterceptor, tracing.clientInterceptor);
+ * }</pre>
+ * <p>
+ * Within gRPC {@code Contexts}, {@link #currentSpan()} should be used instead of
+ * {@link Span#current()}. When calling code instrumented with OpenTelemetry's own context
+ * propagation, the current span may be activated with
+ * {@code try (var scope = tracing.currentSpan().makeCurrent()) {...}}.</p>
+ */
+public class GrpcTracing {
+
+
+
+	/** Must be applied after {@link GrpcModule#serverInterceptor}. */
+	public final ServerInterceptor serverInterceptor;
+
+	/**
+	 * Must be applied before {@link GrpcModule#clientInterceptor} or
+	 * {@link GrpcModule#nestingClientInterceptor}.
+	 */
+	public final ClientInterceptor clientInterceptor;
+
+	final Tracer tracer;
+	final TextMapPropagator propagator;
+	final boolean eventSpans;
+	final ContextTracker<ListenerEventContext> ctxTracker;
+
+	/** Span of the current server RPC stored in its {@link RpcContext}. */
+	final Provider<SpanHolder> rpcSpanHolder;
+	/** Span of the current {@code Listener} event or its RPC stored in its ctx. */
+	final Provider<SpanHolder> eventSpanHolder;
+
+
+
+	/**
+	 * Creates tracing using {@code openTelemetry}'s {@link Tracer} and
+	 * {@link TextMapPropagator}.
+	 * @param eventSpans whether to create a child span for each {@code Listener} event. This
+	 *     allows to see time spent in each event-handling method, but may produce huge numbers of
+	 *     spans for long streams.
+	 */
+	public GrpcTracing(GrpcModule grpcModule, OpenTelemetry openTelemetry, boolean eventSpans) {
+		this(
+			grpcModule,
+			openTelemetry.getTracer(INSTRUMENTATION_NAME),
+			openTelemetry.getPropagators().getTextMapPropagator(),
+			eventSpans
+		);
+	}
+
+	public GrpcTracing(
+		GrpcModule grpcModule,
+		Tracer tracer,
+		TextMapPropagator propagator,
+		boolean eventSpans
+	) {
+		this.tracer = tracer;
+		this.propagator = propagator;
+		this.eventSpans = eventSpans;
+		ctxTracker = grpcModule.listenerEventScope.tracker;
+		rpcSpanHolder = grpcModule.rpcScope.scope(RPC_SPAN_KEY, SpanHolder::new);
+		eventSpanHolder = grpcModule.listenerEventScope.scope(EVENT_SPAN_KEY, SpanHolder::new);
+		serverInterceptor = new TracingServerInterceptor(this);
+		clientInterceptor = new TracingClientInterceptor(this);
+	}
+
+	public static final String INSTRUMENTATION_NAME = "pl.morgwai.base.grpc-scopes";
+
+	static final Key<SpanHolder> RPC_SPAN_KEY =
+			Key.get(SpanHolder.class, Names.named("GrpcTracing.rpcSpan"));
+	static final Key<SpanHolder> EVENT_SPAN_KEY =
+			Key.get(SpanHolder.class, Names.named("GrpcTracing.eventSpan"));
+
+
+
+	/**
+	 * Returns the span of the current {@code Listener} event (if {@code eventSpans} are enabled) or
+	 * of the current RPC. Outside of gRPC {@code Contexts} returns {@link Span#current()}.
+	 */
+	public Span currentSpan() {
+		if (ctxTracker.getCurrentContext() == null) return Span.current();
+		final var eventSpan = eventSpanHolder.get().span;
+		if (eventSpan != null) return eventSpan;
+		final var rpcSpan = rpcSpanHolder.get().span;
+		return rpcSpan != null ? rpcSpan : Span.current();
+	}
+
+
+
+	/**
+	 * Returns OpenTelemetry {@link Context#current() current Context} with
+	 * {@link #currentSpan()}.
+	 */
+	public Context currentContext() {
+		return Context.current().with(currentSpan());
+	}
+
+
+
+	/**
+	 * Executes {@code listenerCall} that handles an event of the RPC traced by {@code rpcSpan}
+	 * within a new child span of {@code rpcSpan} if {@link #eventSpans} are enabled. Must be called
+	 * within the {@link ListenerEventContext} of the event. After the event span ends,
+	 * {@code rpcSpan} becomes the {@link #currentSpan() current span} of the event's ctx, so that
+	 * tasks that outlive the event (for example executed via {@link GrpcModule#ctxBinder}) do not
+	 * create children of an already ended span.
+	 */
+	void executeEvent(Span rpcSpan, String eventType, Runnable listenerCall) {
+		executeEvent(rpcSpan, eventType, () -> {
+			listenerCall.run();
+			return null;
+		});
+	}
+
+	<T> T executeEvent(Span rpcSpan, String eventType, Supplier<T> listenerCall) {
+		final var holder = eventSpanHolder.get();
+		if ( !eventSpans) {
+			holder.span = rpcSpan;
+			return listenerCall.get();
+		}
+		final var eventSpan = tracer.spanBuilder(eventType)
+			.setParent(Context.root().with(rpcSpan))
+			.setSpanKind(SpanKind.INTERNAL)
+			.startSpan();
+		holder.span = eventSpan;
+		try {
+			return listenerCall.get();
+		} catch (RuntimeException | Error e) {
+			eventSpan.recordException(e);
+			eventSpan.setStatus(StatusCode.ERROR);
+			throw e;
+		} finally {
+			eventSpan.end();
+			holder.span = rpcSpan;
+		}
+	}
+
+
+
+	/** Creates a span for a new RPC of {@code method}. */
+	Span startRpcSpan(MethodDescriptor<?, ?> method, SpanKind kind, Context parent) {
+		final var spanBuilder = tracer.spanBuilder(method.getFullMethodName())
+			.setParent(parent)
+			.setSpanKind(kind)
+			.setAttribute(RPC_SYSTEM, "grpc");
+		final var serviceName = method.getServiceName();
+		if (serviceName != null) spanBuilder.setAttribute(RPC_SERVICE, serviceName);
+		final var methodName = method.getBareMethodName();
+		if (methodName != null) spanBuilder.setAttribute(RPC_METHOD, methodName);
+		return spanBuilder.startSpan();
+	}
+
+	static final AttributeKey<String> RPC_SYSTEM = AttributeKey.stringKey("rpc.system");
+	static final AttributeKey<String> RPC_SERVICE = AttributeKey.stringKey("rpc.service");
+	static final AttributeKey<String> RPC_METHOD = AttributeKey.stringKey("rpc.method");
+
+
+
+	/** Records {@code status} of the RPC traced by {@code rpcSpan}. */
+	static void recordStatus(Span rpcSpan, Status status) {
+		rpcSpan.setAttribute(RPC_GRPC_STATUS_CODE, status.getCode().value());
+		if ( !status.isOk()) {
+			final var description = status.getDescription();
+			rpcSpan.setStatus(
+				StatusCode.ERROR,
+				description != null ? description : status.getCode().name()
+			);
+		}
+	}
+
+	static final AttributeKey<Long> RPC_GRPC_STATUS_CODE =
+			AttributeKey.longKey("rpc.grpc.status_code");
+
+
+
+	/**
+	 * Mutable holder stored in a {@code Context}, as {@code Scopes} can only store
+	 * {@code Objects} produced by their {@code Providers}.
+	 */
+	static class SpanHolder {
+		volatile Span span;
+	}
+}
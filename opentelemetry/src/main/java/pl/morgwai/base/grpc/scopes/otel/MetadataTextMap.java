@@ -0,0 +1,37 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.otel;
+
+import io.grpc.Metadata;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapSetter;
+
+
+
+/** Accesses ASCII gRPC {@link Metadata} headers for OpenTelemetry propagators. */
+enum MetadataTextMap implements TextMapGetter<Metadata>, TextMapSetter<Metadata> {
+
+	INSTANCE;
+
+
+
+	@Override
+	public Iterable<String> keys(Metadata carrier) {
+		return carrier.keys();
+	}
+
+
+
+	@Override
+	public String get(Metadata carrier, String key) {
+		if (carrier == null || key.endsWith(Metadata.BINARY_HEADER_SUFFIX)) return null;
+		return carrier.get(Metadata.Key.of(key, Metadata.ASCII_STRING_MARSHALLER));
+	}
+
+
+
+	@Override
+	public void set(Metadata carrier, String key, String value) {
+		if (carrier == null) return;
+		carrier.put(Metadata.Key.of(key, Metadata.ASCII_STRING_MARSHALLER), value);
+	}
+}
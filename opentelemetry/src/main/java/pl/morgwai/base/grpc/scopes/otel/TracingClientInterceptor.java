@@ -0,0 +1,115 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.otel;
+
+import io.grpc.*;
+import io.grpc.ClientCall.Listener;
+import io.opentelemetry.api.trace.*;
+
+
+
+/**
+ * Starts a span for each client RPC as a child of {@link GrpcTracing#currentSpan()}, injects its
+ * trace context into the request headers and ends it when the RPC is closed.
+ * An instance can be obtained from {@link GrpcTracing#clientInterceptor}.
+ */
+class TracingClientInterceptor implements ClientInterceptor {
+
+
+
+	final GrpcTracing tracing;
+
+
+
+	TracingClientInterceptor(GrpcTracing tracing) {
+		this.tracing = tracing;
+	}
+
+
+
+	@Override
+	public <RequestT, ResponseT> ClientCall<RequestT, ResponseT> interceptCall(
+		MethodDescriptor<RequestT, ResponseT> method,
+		CallOptions callOptions,
+		Channel channel
+	) {
+		return new TracedClientCall<>(channel.newCall(method, callOptions), method);
+	}
+
+
+
+	/**
+	 * Upon {@link #start(Listener, Metadata) start} starts the span of the RPC and wraps its
+	 * {@link Listener} with a {@link TracingListener}.
+	 */
+	class TracedClientCall<RequestT, ResponseT>
+			extends ForwardingClientCall.SimpleForwardingClientCall<RequestT, ResponseT> {
+
+		final MethodDescriptor<RequestT, ResponseT> method;
+
+
+
+		TracedClientCall(
+			ClientCall<RequestT, ResponseT> rpcToWrap,
+			MethodDescriptor<RequestT, ResponseT> method
+		) {
+			super(rpcToWrap);
+			this.method = method;
+		}
+
+
+
+		@Override
+		public void start(Listener<ResponseT> listener, Metadata requestHeaders) {
+			final var parent = tracing.currentContext();
+			final var rpcSpan = tracing.startRpcSpan(method, SpanKind.CLIENT, parent);
+			tracing.propagator.inject(
+					parent.with(rpcSpan), requestHeaders, MetadataTextMap.INSTANCE);
+			try {
+				super.start(new TracingListener<>(listener, rpcSpan), requestHeaders);
+			} catch (RuntimeException | Error e) {
+				rpcSpan.recordException(e);
+				rpcSpan.setStatus(StatusCode.ERROR);
+				rpcSpan.end();
+				throw e;
+			}
+		}
+	}
+
+
+
+	/**
+	 * Executes each {@code Listener} event via {@link GrpcTracing#executeEvent} and ends the span
+	 * of the RPC after {@link #onClose(Status, Metadata)}.
+	 */
+	class TracingListener<ResponseT>
+			extends ForwardingClientCallListener.SimpleForwardingClientCallListener<ResponseT> {
+
+		final Span rpcSpan;
+
+		TracingListener(Listener<ResponseT> listenerToWrap, Span rpcSpan) {
+			super(listenerToWrap);
+			this.rpcSpan = rpcSpan;
+		}
+
+		@Override public void onHeaders(Metadata headers) {
+			tracing.executeEvent(rpcSpan, "onHeaders", () -> super.onHeaders(headers));
+		}
+
+		@Override public void onMessage(ResponseT message) {
+			tracing.executeEvent(rpcSpan, "onMessage", () -> super.onMessage(message));
+		}
+
+		@Override public void onReady() {
+			tracing.executeEvent(rpcSpan, "onReady", super::onReady);
+		}
+
+		@Override public void onClose(Status status, Metadata trailers) {
+			GrpcTracing.recordStatus(rpcSpan, status);
+			try {
+				tracing.executeEvent(rpcSpan, "onClose", () -> super.onClose(status, trailers));
+			} finally {
+				rpcSpan.end();
+			}
+		}
+	}
+}
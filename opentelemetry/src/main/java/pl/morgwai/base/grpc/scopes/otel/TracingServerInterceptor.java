@@ -0,0 +1,111 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.otel;
+
+import io.grpc.*;
+import io.grpc.ServerCall.Listener;
+import io.opentelemetry.api.trace.*;
+import io.opentelemetry.context.Context;
+import pl.morgwai.base.grpc.scopes.ServerRpcContext;
+
+
+
+/**
+ * Starts a span for each server RPC, stores it in the RPC's {@link ServerRpcContext} and ends it
+ * when the RPC {@link ServerRpcContext#isFinished() finishes}.
+ * An instance can be obtained from {@link GrpcTracing#serverInterceptor}.
+ */
+class TracingServerInterceptor implements ServerInterceptor {
+
+
+
+	final GrpcTracing tracing;
+
+
+
+	TracingServerInterceptor(GrpcTracing tracing) {
+		this.tracing = tracing;
+	}
+
+
+
+	@Override
+	public <RequestT, ResponseT> Listener<RequestT> interceptCall(
+		ServerCall<RequestT, ResponseT> rpc,
+		Metadata headers,
+		ServerCallHandler<RequestT, ResponseT> handler
+	) {
+		final var eventCtx = tracing.ctxTracker.getCurrentContext();
+		if (eventCtx == null) {
+			throw new IllegalStateException("GrpcTracing.serverInterceptor must be applied after "
+					+ "GrpcModule.serverInterceptor");
+		}
+		final var rpcCtx = (ServerRpcContext) eventCtx.getRpcContext();
+		final var parent =
+				tracing.propagator.extract(Context.root(), headers, MetadataTextMap.INSTANCE);
+		final var rpcSpan =
+				tracing.startRpcSpan(rpc.getMethodDescriptor(), SpanKind.SERVER, parent);
+		tracing.rpcSpanHolder.get().span = rpcSpan;
+		rpcCtx.addOnFinishHandler(() -> {
+			if (rpcCtx.isCancelled()) rpcSpan.setStatus(StatusCode.ERROR, "cancelled");
+			rpcSpan.end();
+		});
+		final var tracedRpc = new TracedServerCall<>(rpc, rpcSpan);
+		final var listener = tracing.executeEvent(
+				rpcSpan, "startCall", () -> handler.startCall(tracedRpc, headers));
+		return new TracingListener<>(listener, rpcSpan);
+	}
+
+
+
+	/** Records the {@link Status} of the RPC in its span. */
+	static class TracedServerCall<RequestT, ResponseT>
+			extends ForwardingServerCall.SimpleForwardingServerCall<RequestT, ResponseT> {
+
+		final Span rpcSpan;
+
+		TracedServerCall(ServerCall<RequestT, ResponseT> rpcToWrap, Span rpcSpan) {
+			super(rpcToWrap);
+			this.rpcSpan = rpcSpan;
+		}
+
+		@Override
+		public void close(Status status, Metadata trailers) {
+			GrpcTracing.recordStatus(rpcSpan, status);
+			super.close(status, trailers);
+		}
+	}
+
+
+
+	/** Executes each {@code Listener} event via {@link GrpcTracing#executeEvent}. */
+	class TracingListener<RequestT>
+			extends ForwardingServerCallListener.SimpleForwardingServerCallListener<RequestT> {
+
+		final Span rpcSpan;
+
+		TracingListener(Listener<RequestT> listenerToWrap, Span rpcSpan) {
+			super(listenerToWrap);
+			this.rpcSpan = rpcSpan;
+		}
+
+		@Override public void onMessage(RequestT message) {
+			tracing.executeEvent(rpcSpan, "onMessage", () -> super.onMessage(message));
+		}
+
+		@Override public void onHalfClose() {
+			tracing.executeEvent(rpcSpan, "onHalfClose", super::onHalfClose);
+		}
+
+		@Override public void onCancel() {
+			tracing.executeEvent(rpcSpan, "onCancel", super::onCancel);
+		}
+
+		@Override public void onComplete() {
+			tracing.executeEvent(rpcSpan, "onComplete", super::onComplete);
+		}
+
+		@Override public void onReady() {
+			tracing.executeEvent(rpcSpan, "onReady", super::onReady);
+		}
+	}
+}
@@ -0,0 +1,322 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes.otel;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import io.grpc.*;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.ServerCall.Listener;
+import io.opentelemetry.api.trace.*;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import org.junit.After;
+import org.junit.Test;
+import pl.morgwai.base.grpc.scopes.GrpcModule;
+
+import static org.junit.Assert.*;
+
+
+
+public class GrpcTracingTests {
+
+
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final InMemorySpanExporter exporter = InMemorySpanExporter.create();
+	final SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+		.addSpanProcessor(SimpleSpanProcessor.create(exporter))
+		.build();
+
+	static final MethodDescriptor<Integer, Integer> METHOD =
+			MethodDescriptor.<Integer, Integer>newBuilder()
+				.setType(MethodType.UNARY)
+				.setFullMethodName("test/testMethod")
+				.setRequestMarshaller(new StubMarshaller())
+				.setResponseMarshaller(new StubMarshaller())
+				.build();
+
+	static final SpanContext REMOTE_PARENT = SpanContext.createFromRemoteParent(
+		"0af7651916cd43dd8448eb211c80319c",
+		"b7ad6b7169203331",
+		TraceFlags.getSampled(),
+		TraceState.getDefault()
+	);
+
+
+
+	@After
+	public void shutdownTracerProvider() {
+		tracerProvider.shutdown();
+	}
+
+
+
+	GrpcTracing newTracing(boolean eventSpans) {
+		return new GrpcTracing(
+			grpcModule,
+			tracerProvider.get(GrpcTracing.INSTRUMENTATION_NAME),
+			W3CTraceContextPropagator.getInstance(),
+			eventSpans
+		);
+	}
+
+
+
+	/**
+	 * Starts a server RPC of {@link #METHOD} intercepted with {@code tracing} and
+	 * {@link GrpcModule#serverInterceptor}, whose {@code onHalfClose()} is handled by
+	 * {@code halfCloseHandler}.
+	 */
+	Listener<Integer> startServerRpc(
+		GrpcTracing tracing,
+		FakeServerCall rpc,
+		Metadata headers,
+		Consumer<ServerCall<Integer, Integer>> halfCloseHandler
+	) {
+		final ServerCallHandler<Integer, Integer> handler = (tracedRpc, requestHeaders) ->
+			new Listener<>() {
+				@Override public void onHalfClose() {
+					halfCloseHandler.accept(tracedRpc);
+				}
+			};
+		@SuppressWarnings("unchecked")
+		final var interceptedHandler = (ServerCallHandler<Integer, Integer>)
+			ServerInterceptors.intercept(
+				ServerServiceDefinition.builder("test")
+					.addMethod(METHOD, handler)
+					.build(),
+				tracing.serverInterceptor,
+				grpcModule.serverInterceptor
+			).getMethod(METHOD.getFullMethodName()).getServerCallHandler();
+		return interceptedHandler.startCall(rpc, headers);
+	}
+
+
+
+	SpanData getFinishedSpan(String name, SpanKind kind) {
+		return exporter.getFinishedSpanItems().stream()
+			.filter((span) -> span.getName().equals(name) && span.getKind() == kind)
+			.findFirst()
+			.orElseThrow(() -> new AssertionError("span " + name + " should be finished"));
+	}
+
+
+
+	@Test
+	public void testServerSpanParentIsExtractedFromHeaders() {
+		final var tracing = newTracing(false);
+		final var headers = new Metadata();
+		W3CTraceContextPropagator.getInstance().inject(
+				Context.root().with(Span.wrap(REMOTE_PARENT)), headers, MetadataTextMap.INSTANCE);
+		final var currentSpans = new ArrayList<SpanContext>();
+		final var listener = startServerRpc(tracing, new FakeServerCall(), headers,
+				(rpc) -> currentSpans.add(tracing.currentSpan().getSpanContext()));
+		listener.onHalfClose();
+		listener.onComplete();
+
+		final var rpcSpan = getFinishedSpan(METHOD.getFullMethodName(), SpanKind.SERVER);
+		assertEquals("server span should belong to the trace from the headers",
+				REMOTE_PARENT.getTraceId(), rpcSpan.getTraceId());
+		assertEquals("server span should be a child of the span from the headers",
+				REMOTE_PARENT.getSpanId(), rpcSpan.getParentSpanId());
+		assertEquals("server span should have rpc.system attribute",
+				"grpc", rpcSpan.getAttributes().get(GrpcTracing.RPC_SYSTEM));
+		assertEquals("server span should be current within Listener events",
+				List.of(rpcSpan.getSpanContext()), currentSpans);
+		assertEquals("no event spans should be created if disabled",
+				1, exporter.getFinishedSpanItems().size());
+	}
+
+
+
+	@Test
+	public void testServerSpanRecordsStatus() {
+		final var tracing = newTracing(false);
+		final var rpc = new FakeServerCall();
+		final var listener = startServerRpc(tracing, rpc, new Metadata(),
+				(tracedRpc) -> tracedRpc.close(
+						Status.NOT_FOUND.withDescription("missing"), new Metadata()));
+		listener.onHalfClose();
+		listener.onComplete();
+
+		assertEquals("status should be passed to the wrapped rpc",
+				Status.Code.NOT_FOUND, rpc.status.getCode());
+		final var rpcSpan = getFinishedSpan(METHOD.getFullMethodName(), SpanKind.SERVER);
+		assertEquals("status code should be recorded",
+				Long.valueOf(Status.Code.NOT_FOUND.value()),
+				rpcSpan.getAttributes().get(GrpcTracing.RPC_GRPC_STATUS_CODE));
+		assertEquals("non-OK status should mark the span as failed",
+				StatusCode.ERROR, rpcSpan.getStatus().getStatusCode());
+		assertEquals("status description should be recorded",
+				"missing", rpcSpan.getStatus().getDescription());
+	}
+
+
+
+	@Test
+	public void testServerSpanIsEndedOnCancel() {
+		final var tracing = newTracing(false);
+		final var listener = startServerRpc(
+				tracing, new FakeServerCall(), new Metadata(), (rpc) -> {});
+		listener.onCancel();
+
+		final var rpcSpan = getFinishedSpan(METHOD.getFullMethodName(), SpanKind.SERVER);
+		assertEquals("cancelled RPC should mark the span as failed",
+				StatusCode.ERROR, rpcSpan.getStatus().getStatusCode());
+		assertEquals("cancellation should be recorded",
+				"cancelled", rpcSpan.getStatus().getDescription());
+	}
+
+
+
+	@Test
+	public void testEventSpansAreChildrenOfRpcSpan() {
+		final var tracing = newTracing(true);
+		final var currentSpans = new ArrayList<SpanContext>();
+		final var boundTasks = new ArrayList<Runnable>();
+		final var listener = startServerRpc(tracing, new FakeServerCall(), new Metadata(),
+			(rpc) -> {
+				currentSpans.add(tracing.currentSpan().getSpanContext());
+				boundTasks.add(grpcModule.ctxBinder.bindToContext(
+						(Runnable) () -> currentSpans.add(tracing.currentSpan().getSpanContext())));
+			}
+		);
+		listener.onHalfClose();
+		boundTasks.get(0).run();  // a task that outlived the event
+		listener.onComplete();
+
+		final var rpcSpan = getFinishedSpan(METHOD.getFullMethodName(), SpanKind.SERVER);
+		for (var eventType: List.of("startCall", "onHalfClose", "onComplete")) {
+			final var eventSpan = getFinishedSpan(eventType, SpanKind.INTERNAL);
+			assertEquals(eventType + " span should be a child of the RPC span",
+					rpcSpan.getSpanId(), eventSpan.getParentSpanId());
+		}
+		assertEquals("event span should be current within its event",
+				getFinishedSpan("onHalfClose", SpanKind.INTERNAL).getSpanContext(),
+				currentSpans.get(0));
+		assertEquals("RPC span should be current in the event's ctx after the event",
+				rpcSpan.getSpanContext(), currentSpans.get(1));
+	}
+
+
+
+	@Test
+	public void testClientSpanIsInjectedIntoHeadersAndRecordsStatus() {
+		final var tracing = newTracing(false);
+		final var channel = new FakeChannel();
+		final var tracedChannel = ClientInterceptors.intercept(
+				channel, grpcModule.clientInterceptor, tracing.clientInterceptor);
+		tracedChannel.newCall(METHOD, CallOptions.DEFAULT)
+			.start(new ClientCall.Listener<>() {}, new Metadata());
+		channel.lastCall.listener.onClose(Status.UNAVAILABLE, new Metadata());
+
+		final var rpcSpan = getFinishedSpan(METHOD.getFullMethodName(), SpanKind.CLIENT);
+		final var propagated = W3CTraceContextPropagator.getInstance()
+			.extract(Context.root(), channel.lastCall.headers, MetadataTextMap.INSTANCE);
+		assertEquals("client span should be injected into request headers",
+				rpcSpan.getSpanId(), Span.fromContext(propagated).getSpanContext().getSpanId());
+		assertFalse("client span started outside of any span should be a root span",
+				rpcSpan.getParentSpanContext().isValid());
+		assertEquals("status code should be recorded",
+				Long.valueOf(Status.Code.UNAVAILABLE.value()),
+				rpcSpan.getAttributes().get(GrpcTracing.RPC_GRPC_STATUS_CODE));
+		assertEquals("non-OK status should mark the span as failed",
+				StatusCode.ERROR, rpcSpan.getStatus().getStatusCode());
+	}
+
+
+
+	@Test
+	public void testNestedClientSpanIsChildOfServerSpan() {
+		final var tracing = newTracing(false);
+		final var channel = new FakeChannel();
+		final var tracedChannel = ClientInterceptors.intercept(
+				channel, grpcModule.nestingClientInterceptor, tracing.clientInterceptor);
+		final var listener = startServerRpc(tracing, new FakeServerCall(), new Metadata(),
+				(rpc) -> tracedChannel.newCall(METHOD, CallOptions.DEFAULT)
+					.start(new ClientCall.Listener<>() {}, new Metadata()));
+		listener.onHalfClose();
+		channel.lastCall.listener.onClose(Status.OK, new Metadata());
+		listener.onComplete();
+
+		final var serverSpan = getFinishedSpan(METHOD.getFullMethodName(), SpanKind.SERVER);
+		final var clientSpan = getFinishedSpan(METHOD.getFullMethodName(), SpanKind.CLIENT);
+		assertEquals("client span should belong to the trace of the server span",
+				serverSpan.getTraceId(), clientSpan.getTraceId());
+		assertEquals("client span should be a child of the server span",
+				serverSpan.getSpanId(), clientSpan.getParentSpanId());
+		assertNotEquals("OK status should not mark the span as failed",
+				StatusCode.ERROR, clientSpan.getStatus().getStatusCode());
+	}
+
+
+
+	static class FakeServerCall extends ServerCall<Integer, Integer> {
+
+		Status status;
+
+		@Override public void close(Status status, Metadata trailers) { this.status = status; }
+		@Override public MethodDescriptor<Integer, Integer> getMethodDescriptor() { return METHOD; }
+		@Override public boolean isCancelled() { return false; }
+		@Override public void request(int numMessages) {}
+		@Override public void sendHeaders(Metadata headers) {}
+		@Override public void sendMessage(Integer message) {}
+	}
+
+
+
+	static class FakeClientCall<RequestT, ResponseT> extends ClientCall<RequestT, ResponseT> {
+
+		Listener<ResponseT> listener;
+		Metadata headers;
+
+		@Override public void start(Listener<ResponseT> listener, Metadata headers) {
+			this.listener = listener;
+			this.headers = headers;
+		}
+
+		@Override public void request(int numMessages) {}
+		@Override public void cancel(String message, Throwable cause) {}
+		@Override public void halfClose() {}
+		@Override public void sendMessage(RequestT message) {}
+	}
+
+
+
+	static class FakeChannel extends Channel {
+
+		FakeClientCall<?, ?> lastCall;
+
+		@Override
+		public <RequestT, ResponseT> ClientCall<RequestT, ResponseT> newCall(
+			MethodDescriptor<RequestT, ResponseT> method,
+			CallOptions callOptions
+		) {
+			final var call = new FakeClientCall<RequestT, ResponseT>();
+			lastCall = call;
+			return call;
+		}
+
+		@Override public String authority() { return "test"; }
+	}
+
+
+
+	static class StubMarshaller implements MethodDescriptor.Marshaller<Integer> {
+
+		@Override public InputStream stream(Integer value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override public Integer parse(InputStream stream) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -2,12 +2,14 @@
 package pl.morgwai.samples.grpc.scopes.data_access;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import org.hibernate.annotations.QueryHints;
 import pl.morgwai.samples.grpc.scopes.domain.RecordEntity;
 import pl.morgwai.samples.grpc.scopes.domain.RecordDao;
 
@@ -17,7 +19,9 @@ public class JpaRecordDao implements RecordDao {
 
 
 
+	final EntityManagerFactory persistenceUnit;
 	final Provider<EntityManager> entityManagerProvider;
+	final Provider<RecordCache> cacheProvider;
 
 
 
@@ -38,6 +42,59 @@ public class JpaRecordDao implements RecordDao {
 
 
 
+	/**
+	 * Uses {@link javax.persistence.TypedQuery#getResultStream() a forward-only cursor} fetching
+	 * {@value #STREAM_FETCH_SIZE} rows at a time. Records are loaded read-only (without dirty
+	 * checking snapshots) and the persistence context is cleared every {@value #STREAM_FETCH_SIZE}
+	 * records, so that memory usage stays constant regardless of the table size.
+	 */
+	@Override
+	public Stream<RecordEntity> streamAll() throws DaoException {
+		try {
+			final var entityManager = entityManagerProvider.get();
+			final var streamedCount = new int[1];  // accessed only by the consuming Thread
+			return entityManager.createNamedQuery(FIND_ALL_QUERY_NAME, RecordEntity.class)
+				.setHint(QueryHints.FETCH_SIZE, STREAM_FETCH_SIZE)
+				.setHint(QueryHints.READ_ONLY, true)
+				.getResultStream()
+				.peek((record) -> {
+					if (++streamedCount[0] % STREAM_FETCH_SIZE == 0) entityManager.clear();
+				});
+		} catch (Exception e) {
+			throw new DaoException(e);
+		}
+	}
+
+	static final int STREAM_FETCH_SIZE = 100;
+
+
+
+	/**
+	 * Looks up the record in the {@link RecordCache} of the current RPC first, so that repeated
+	 * lookups within long streaming RPCs do not round-trip to the DB. Records loaded from the DB
+	 * are detached before being cached, so that they do not pin the {@code EntityManager} of the
+	 * current event.
+	 * @throws com.google.inject.OutOfScopeException if called outside of any RPC.
+	 */
+	@Override
+	public RecordEntity findById(long id) throws DaoException {
+		final var cache = cacheProvider.get();
+		final var cached = cache.get(id);
+		if (cached != null) return cached;
+		try {
+			final var entityManager = entityManagerProvider.get();
+			final var record = entityManager.find(RecordEntity.class, id);
+			if (record == null) return null;
+			entityManager.detach(record);
+			cache.put(record);
+			return record;
+		} catch (Exception e) {
+			throw new DaoException(e);
+		}
+	}
+
+
+
 	@Override
 	public void persist(RecordEntity record) throws DaoException {
 		try {
@@ -49,12 +106,37 @@ public class JpaRecordDao implements RecordDao {
 
 
 
+	@Override
+	public void persistBatch(List<RecordEntity> records) throws DaoException {
+		final var entityManager = persistenceUnit.createEntityManager();
+		try {
+			final var tx = entityManager.getTransaction();
+			tx.begin();
+			try {
+				for (var record: records) entityManager.persist(record);
+				tx.commit();  // inserts are sent in JDBC batches of hibernate.jdbc.batch_size
+			} catch (Throwable t) {
+				if (tx.isActive()) tx.rollback();
+				throw t;
+			}
+		} catch (Exception e) {
+			throw new DaoException(e);
+		} finally {
+			entityManager.close();
+		}
+	}
+
+
+
 	@Inject
 	public JpaRecordDao(
 		EntityManagerFactory persistenceUnit,
-		Provider<EntityManager> entityManagerProvider
+		Provider<EntityManager> entityManagerProvider,
+		Provider<RecordCache> cacheProvider
 	) {
+		this.persistenceUnit = persistenceUnit;
 		this.entityManagerProvider = entityManagerProvider;
+		this.cacheProvider = cacheProvider;
 
 		// create named queries
 		final var initialEntityManager = persistenceUnit.createEntityManager();
@@ -0,0 +1,140 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.samples.grpc.scopes.data_access;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+import pl.morgwai.samples.grpc.scopes.domain.RecordDao;
+import pl.morgwai.samples.grpc.scopes.domain.RecordEntity;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+
+
+/**
+ * Collects {@link RecordEntity records} persisted concurrently (for example by separate
+ * {@link pl.morgwai.base.grpc.scopes.ListenerEventContext Listener events} of the same streaming
+ * RPC) into batches and {@link RecordDao#persistBatch(List) persists} each batch in a single
+ * transaction using JDBC batching. A batch is written when it reaches {@code maxBatchSize} records
+ * or when {@code maxDelayMillis} passes since its first record was added, whichever happens first.
+ * <p>
+ * Usually bound in {@link pl.morgwai.base.grpc.scopes.GrpcModule#rpcScope rpcScope}, so that
+ * records of different RPCs are not mixed in the same transaction and a failure of one batch
+ * affects only a single RPC.</p>
+ */
+public class RecordBatcher {
+
+
+
+	final RecordDao dao;
+	final Executor writingExecutor;
+	final ScheduledExecutorService timer;
+	final int maxBatchSize;
+	final long maxDelayMillis;
+
+	List<PendingRecord> batch;  // guarded by this, null if no records are pending
+
+
+
+	/**
+	 * @param writingExecutor executor of batch writes: as they are performed using a separate
+	 *     {@code EntityManager}, it does not need to transfer any {@code Contexts}.
+	 * @param timer schedules writes of batches that did not reach {@code maxBatchSize} in time.
+	 */
+	public RecordBatcher(
+		RecordDao dao,
+		Executor writingExecutor,
+		ScheduledExecutorService timer,
+		int maxBatchSize,
+		long maxDelayMillis
+	) {
+		this.dao = dao;
+		this.writingExecutor = writingExecutor;
+		this.timer = timer;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+
+
+	/**
+	 * Adds {@code record} to the current batch.
+	 * @return a future completed with {@code record} (with its id assigned) by a
+	 *     {@code writingExecutor}'s {@code Thread} after the transaction of its batch is committed,
+	 *     or completed exceptionally if the batch failed.
+	 */
+	public CompletableFuture<RecordEntity> persist(RecordEntity record) {
+		final var pendingRecord = new PendingRecord(record);
+		final List<PendingRecord> fullBatch;
+		synchronized (this) {
+			if (batch == null) {
+				final var newBatch = new ArrayList<PendingRecord>(maxBatchSize);
+				batch = newBatch;
+				timer.schedule(() -> writeIfStillPending(newBatch), maxDelayMillis, MILLISECONDS);
+			}
+			batch.add(pendingRecord);
+			if (batch.size() < maxBatchSize) return pendingRecord;
+			fullBatch = batch;
+			batch = null;
+		}
+		submit(fullBatch);
+		return pendingRecord;
+	}
+
+
+
+	/**
+	 * Called by {@link #timer} {@code maxDelayMillis} after the first record of
+	 * {@code timedBatch} was added.
+	 */
+	void writeIfStillPending(List<PendingRecord> timedBatch) {
+		synchronized (this) {
+			if (batch != timedBatch) return;  // already written as a full batch
+			batch = null;
+		}
+		submit(timedBatch);
+	}
+
+
+
+	void submit(List<PendingRecord> batchToWrite) {
+		try {
+			writingExecutor.execute(() -> write(batchToWrite));
+		} catch (RejectedExecutionException e) {
+			for (var pendingRecord: batchToWrite) pendingRecord.completeExceptionally(e);
+		}
+	}
+
+
+
+	void write(List<PendingRecord> batchToWrite) {
+		final var records = new ArrayList<RecordEntity>(batchToWrite.size());
+		for (var pendingRecord: batchToWrite) records.add(pendingRecord.record);
+		try {
+			dao.persistBatch(records);
+		} catch (Throwable t) {
+			log.fine("batch of " + records.size() + " records failed: " + t);
+			for (var pendingRecord: batchToWrite) pendingRecord.completeExceptionally(t);
+			if (t instanceof Error) throw (Error) t;
+			return;
+		}
+		for (var pendingRecord: batchToWrite) pendingRecord.complete(pendingRecord.record);
+	}
+
+
+
+	static class PendingRecord extends CompletableFuture<RecordEntity> {
+
+		final RecordEntity record;
+
+		PendingRecord(RecordEntity record) {
+			this.record = record;
+		}
+	}
+
+
+
+	static final Logger log = Logger.getLogger(RecordBatcher.class.getName());
+}
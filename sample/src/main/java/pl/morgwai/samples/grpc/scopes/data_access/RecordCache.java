@@ -0,0 +1,57 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.samples.grpc.scopes.data_access;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pl.morgwai.samples.grpc.scopes.domain.RecordEntity;
+
+
+
+/**
+ * Bounded read cache of {@link RecordEntity records} keyed by their ids, used by
+ * {@link JpaRecordDao#findById(long)}. When the cache is full, the least recently used record is
+ * evicted.
+ * <p>
+ * Bound in {@link pl.morgwai.base.grpc.scopes.GrpcModule#rpcScope rpcScope}, so that it is shared
+ * by all {@code Listener} events and tasks bound to the {@code Context} of a given RPC, while
+ * different RPCs never observe each other's stale records. As events and bound tasks of the same
+ * RPC may run concurrently, all access is synchronized. Cached records are detached, so they should
+ * be treated as read-only.</p>
+ */
+public class RecordCache {
+
+
+
+	final Map<Long, RecordEntity> records;  // guarded by this
+
+
+
+	public RecordCache(int maxSize) {
+		records = new LinkedHashMap<>(Math.min(maxSize, 64), 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, RecordEntity> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+
+
+	/** Returns the record with {@code id} or {@code null} if it is not cached. */
+	public synchronized RecordEntity get(long id) {
+		return records.get(id);
+	}
+
+
+
+	public synchronized void put(RecordEntity record) {
+		records.put(record.getId(), record);
+	}
+
+
+
+	public synchronized int size() {
+		return records.size();
+	}
+}
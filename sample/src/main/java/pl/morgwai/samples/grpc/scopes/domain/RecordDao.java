@@ -2,14 +2,33 @@
 package pl.morgwai.samples.grpc.scopes.domain;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 
 
 public interface RecordDao {
 
 	List<RecordEntity> findAll() throws DaoException;
+
+	/**
+	 * Streams all records using a DB cursor, so that memory usage does not depend on the number of
+	 * records. Returned records may be detached. The returned {@code Stream} must be closed.
+	 */
+	Stream<RecordEntity> streamAll() throws DaoException;
+
+	/**
+	 * Returns the record with {@code id} or {@code null} if it does not exist. Repeated lookups
+	 * within the same RPC may be served from a cache.
+	 */
+	RecordEntity findById(long id) throws DaoException;
 	void persist( RecordEntity record) throws DaoException;
 
+	/**
+	 * Persists all {@code records} in a single new transaction using a separate
+	 * {@code EntityManager}, so it may be called outside of any {@code Scope}.
+	 */
+	void persistBatch(List<RecordEntity> records) throws DaoException;
+
 
 
 	class DaoException extends Exception {
@@ -7,6 +7,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
 
 
 
@@ -16,8 +17,12 @@ public class RecordEntity implements Serializable {
 
 
 	public Long getId() { return id; }
-	@Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = ID_GENERATOR)
+	@SequenceGenerator(name = ID_GENERATOR, allocationSize = 50)
+		// unlike IDENTITY, SEQUENCE ids are known before insertion, so inserts can be batched
 	Long id;
+	static final String ID_GENERATOR = "recordIdGenerator";
 	public static final String ID = "id";
 
 	public String getContent() { return content; }
@@ -1,8 +1,10 @@
 // Copyright 2021 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
 package pl.morgwai.samples.grpc.scopes.grpc;
 
+import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 import com.google.inject.*;
 import com.google.inject.Module;
@@ -10,6 +12,7 @@ import com.google.inject.name.Names;
 import io.grpc.*;
 
 import pl.morgwai.base.grpc.scopes.GrpcModule;
+import pl.morgwai.base.grpc.scopes.StreamingRequestSender;
 import pl.morgwai.base.grpc.utils.BlockingResponseObserver;
 import pl.morgwai.base.utils.concurrent.Awaitable;
 import pl.morgwai.samples.grpc.scopes.grpc.RecordStorageGrpc.RecordStorageBlockingStub;
@@ -93,7 +96,8 @@ public class RecordStorageClient {
 
 	/**
 	 * Calls {@code storeMultiple} 2 times concurrently and processes results with a
-	 * {@link ClientResponseProcessor}.
+	 * {@link ClientResponseProcessor}. Request messages are streamed by
+	 * {@link StreamingRequestSender}s according to each call's flow-control.
 	 * @param injector used to obtain an instance of {@link ClientResponseProcessor}.
 	 */
 	static void storeMultiple(RecordStorageStub asyncConnector, Injector injector)
@@ -102,22 +106,10 @@ public class RecordStorageClient {
 		final var responseProcessor = injector.getInstance(ClientResponseProcessor.class);
 		final var storeRecordResponseObserver1 = new BlockingResponseObserver<>(responseProcessor);
 		final var storeRecordResponseObserver2 = new BlockingResponseObserver<>(responseProcessor);
-		final var requestObserver1 = asyncConnector.storeMultiple(storeRecordResponseObserver1);
-		final var requestObserver2 = asyncConnector.storeMultiple(storeRecordResponseObserver2);
-		for (int i = 1; i <= 9; i++) {
-			requestObserver1.onNext(
-					StoreRecordRequest.newBuilder()
-						.setRequestId(i)
-						.setContent(String.format("{ RPC: 1, requestId: %4d }", i))
-						.build());
-			requestObserver2.onNext(
-					StoreRecordRequest.newBuilder()
-						.setRequestId(i)
-						.setContent(String.format("{ RPC: 2, requestId: %4d }", i))
-						.build());
-		}
-		requestObserver1.onCompleted();
-		requestObserver2.onCompleted();
+		asyncConnector.storeMultiple(new StreamingRequestSender<>(
+				storeRecordResponseObserver1, newRequestProducer(1, 9)));
+		asyncConnector.storeMultiple(new StreamingRequestSender<>(
+				storeRecordResponseObserver2, newRequestProducer(2, 9)));
 		Awaitable.awaitMultiple(
 			5000L,
 			storeRecordResponseObserver1.toAwaitable(),
@@ -131,6 +123,15 @@ public class RecordStorageClient {
 		}
 	}
 
+	static Iterator<StoreRecordRequest> newRequestProducer(int rpcNumber, int requestCount) {
+		return IntStream.rangeClosed(1, requestCount)
+			.mapToObj((i) -> StoreRecordRequest.newBuilder()
+				.setRequestId(i)
+				.setContent(String.format("{ RPC: %d, requestId: %4d }", rpcNumber, i))
+				.build())
+			.iterator();
+	}
+
 
 
 	/**
@@ -0,0 +1,109 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.samples.grpc.scopes.grpc;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.google.inject.Module;
+import com.google.inject.*;
+import com.google.inject.name.Names;
+import pl.morgwai.base.grpc.scopes.GrpcModule;
+import pl.morgwai.base.guice.scopes.ContextTrackingExecutor;
+import pl.morgwai.samples.grpc.scopes.data_access.JpaRecordDao;
+import pl.morgwai.samples.grpc.scopes.data_access.RecordBatcher;
+import pl.morgwai.samples.grpc.scopes.data_access.RecordCache;
+import pl.morgwai.samples.grpc.scopes.domain.RecordDao;
+
+import static pl.morgwai.samples.grpc.scopes.grpc.RecordStorageService.CONCURRENCY_LEVEL;
+import static pl.morgwai.samples.grpc.scopes.grpc.RecordStorageService.JPA_EXECUTOR_NAME;
+
+
+
+/**
+ * Binds all dependencies of {@link RecordStorageService}. Shared by {@link RecordStorageServer}
+ * and the load test, so that both always run the service with the same bindings.
+ */
+public class RecordStorageModule implements Module {
+
+
+
+	/** Max time records of {@code storeMultiple(...)} wait for their batch to fill up. */
+	public static final long MAX_BATCH_DELAY_MILLIS = 5L;
+
+	/** Max number of records cached by {@link RecordCache} of each RPC. */
+	public static final int RECORD_CACHE_SIZE = 1000;
+
+
+
+	final GrpcModule grpcModule;
+	final EntityManagerFactory entityManagerFactory;
+	final Executor jpaExecutor;
+	final ScheduledExecutorService batchTimer;
+	final int jpaExecutorThreadpoolSize;
+
+	/**
+	 * {@link #jpaExecutor} wrapped with {@link GrpcModule#ctxBinder}, bound as the
+	 * {@value RecordStorageService#JPA_EXECUTOR_NAME} {@code Executor}.
+	 */
+	public Executor getCtxTrackingJpaExecutor() { return ctxTrackingJpaExecutor; }
+	final Executor ctxTrackingJpaExecutor;
+
+
+
+	/**
+	 * @param jpaExecutor executes JPA operations. Its thread-pool size should be
+	 *     {@code jpaExecutorThreadpoolSize}.
+	 * @param batchTimer schedules writes of batches of {@link RecordBatcher}s that did not fill up
+	 *     in time.
+	 */
+	public RecordStorageModule(
+		GrpcModule grpcModule,
+		EntityManagerFactory entityManagerFactory,
+		Executor jpaExecutor,
+		ScheduledExecutorService batchTimer,
+		int jpaExecutorThreadpoolSize
+	) {
+		this.grpcModule = grpcModule;
+		this.entityManagerFactory = entityManagerFactory;
+		this.jpaExecutor = jpaExecutor;
+		this.batchTimer = batchTimer;
+		this.jpaExecutorThreadpoolSize = jpaExecutorThreadpoolSize;
+		ctxTrackingJpaExecutor = ContextTrackingExecutor.of(jpaExecutor, grpcModule.ctxBinder);
+	}
+
+
+
+	@Override
+	public void configure(Binder binder) {
+		binder.bind(EntityManager.class)
+			.toProvider(entityManagerFactory::createEntityManager)
+			.in(grpcModule.listenerEventScope);
+		binder.bind(EntityManagerFactory.class)
+			.toInstance(entityManagerFactory);
+		binder.bind(Executor.class)
+			.annotatedWith(Names.named(JPA_EXECUTOR_NAME))
+			.toInstance(ctxTrackingJpaExecutor);
+		binder.bind(RecordDao.class)
+			.to(JpaRecordDao.class)
+			.in(Scopes.SINGLETON);
+		binder.bind(Integer.class)
+			.annotatedWith(Names.named(CONCURRENCY_LEVEL))
+			.toInstance(jpaExecutorThreadpoolSize + 1);
+			// +1 is to account for request message delivery delay
+		final var daoProvider = binder.getProvider(RecordDao.class);
+		binder.bind(RecordBatcher.class)
+			.toProvider(() -> new RecordBatcher(
+				daoProvider.get(),
+				jpaExecutor,  // batches use their own EntityManagers: no need to track ctxs
+				batchTimer,
+				jpaExecutorThreadpoolSize + 1,  // at most concurrencyLevel pending requests
+				MAX_BATCH_DELAY_MILLIS
+			))
+			.in(grpcModule.rpcScope);
+		binder.bind(RecordCache.class)
+			.toProvider(() -> new RecordCache(RECORD_CACHE_SIZE))
+			.in(grpcModule.rpcScope);
+	}
+}
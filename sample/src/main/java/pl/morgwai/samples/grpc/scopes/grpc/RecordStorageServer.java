@@ -7,21 +7,18 @@ import java.util.logging.ConsoleHandler;
 import java.util.logging.Logger;
 import javax.persistence.*;
 
-import com.google.inject.Module;
 import com.google.inject.*;
-import com.google.inject.name.Names;
 import io.grpc.*;
 import pl.morgwai.base.grpc.scopes.*;
 import pl.morgwai.base.grpc.utils.GrpcAwaitable;
-import pl.morgwai.base.guice.scopes.ContextTrackingExecutor;
 import pl.morgwai.base.jul.JulManualResetLogManager;
 import pl.morgwai.base.utils.concurrent.*;
-import pl.morgwai.samples.grpc.scopes.data_access.JpaRecordDao;
-import pl.morgwai.samples.grpc.scopes.domain.RecordDao;
+import pl.morgwai.samples.grpc.scopes.data_access.RecordBatcher;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static pl.morgwai.base.jul.JulConfigurator.*;
-import static pl.morgwai.samples.grpc.scopes.grpc.RecordStorageService.CONCURRENCY_LEVEL;
+import static pl.morgwai.samples.grpc.scopes.grpc.RecordStorageModule.MAX_BATCH_DELAY_MILLIS;
 import static pl.morgwai.samples.grpc.scopes.grpc.RecordStorageService.JPA_EXECUTOR_NAME;
 
 
@@ -55,7 +52,7 @@ public class RecordStorageServer {
 	final Server recordStorageServer;
 
 	/** Name of the persistence unit defined in {@code persistence.xml} file. */
-	static final String PERSISTENCE_UNIT_NAME = "RecordDb";
+	public static final String PERSISTENCE_UNIT_NAME = "RecordDb";
 	final EntityManagerFactory entityManagerFactory;
 
 	/**
@@ -70,6 +67,9 @@ public class RecordStorageServer {
 	 */
 	final Executor ctxTrackingJpaExecutor;
 
+	/** Schedules writes of batches of {@link RecordBatcher}s that did not fill up in time. */
+	final ScheduledExecutorService batchTimer;
+
 
 
 	RecordStorageServer(
@@ -86,28 +86,20 @@ public class RecordStorageServer {
 			jpaExecutorThreadpoolSize,
 			new NamingThreadFactory(PERSISTENCE_UNIT_NAME + JPA_EXECUTOR_NAME)
 		);
-		ctxTrackingJpaExecutor = ContextTrackingExecutor.of(jpaExecutor, grpcModule.ctxBinder);
 		log.info("entity manager factory " + PERSISTENCE_UNIT_NAME + " and its associated Executor "
 				+ " created successfully");
-
-		final Module jpaModule = (binder) -> {
-			binder.bind(EntityManager.class)
-				.toProvider(entityManagerFactory::createEntityManager)
-				.in(grpcModule.listenerEventScope);
-			binder.bind(EntityManagerFactory.class)
-				.toInstance(entityManagerFactory);
-			binder.bind(Executor.class)
-				.annotatedWith(Names.named(JPA_EXECUTOR_NAME))
-				.toInstance(ctxTrackingJpaExecutor);
-			binder.bind(RecordDao.class)
-				.to(JpaRecordDao.class)
-				.in(Scopes.SINGLETON);
-			binder.bind(Integer.class)
-				.annotatedWith(Names.named(CONCURRENCY_LEVEL))
-				.toInstance(jpaExecutorThreadpoolSize + 1);
-				// +1 is to account for request message delivery delay
-		};
-		final var injector = Guice.createInjector(grpcModule, jpaModule);
+		batchTimer = Executors.newSingleThreadScheduledExecutor(
+				new NamingThreadFactory(PERSISTENCE_UNIT_NAME + "BatchTimer"));
+
+		final var recordStorageModule = new RecordStorageModule(
+			grpcModule,
+			entityManagerFactory,
+			jpaExecutor,
+			batchTimer,
+			jpaExecutorThreadpoolSize
+		);
+		ctxTrackingJpaExecutor = recordStorageModule.getCtxTrackingJpaExecutor();
+		final var injector = Guice.createInjector(grpcModule, recordStorageModule);
 
 		final var service = injector.getInstance(RecordStorageService.class);
 		recordStorageServer = ServerBuilder.forPort(port)
@@ -127,6 +119,8 @@ public class RecordStorageServer {
 				try {
 					log.info("shutting down...");
 					recordStorageServer.shutdown();
+					batchTimer.shutdown();  // already scheduled batch writes are still executed
+					batchTimer.awaitTermination(MAX_BATCH_DELAY_MILLIS * 2L, MILLISECONDS);
 					jpaExecutor.shutdown();
 					if ( !Awaitable.awaitMultiple(
 						2000L,
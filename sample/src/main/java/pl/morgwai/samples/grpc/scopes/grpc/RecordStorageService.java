@@ -13,6 +13,7 @@ import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import pl.morgwai.samples.grpc.scopes.data_access.RecordBatcher;
 import pl.morgwai.samples.grpc.scopes.domain.RecordDao;
 import pl.morgwai.samples.grpc.scopes.domain.RecordEntity;
 import pl.morgwai.samples.grpc.scopes.grpc.RecordStorageGrpc.RecordStorageImplBase;
@@ -27,15 +28,18 @@ public class RecordStorageService extends RecordStorageImplBase {
 
 
 	@Inject @Named(JPA_EXECUTOR_NAME) Executor jpaExecutor;
-	static final String JPA_EXECUTOR_NAME = "JpaExecutor";
+	public static final String JPA_EXECUTOR_NAME = "JpaExecutor";
 
 	@Inject @Named(CONCURRENCY_LEVEL) int concurrencyLevel;
-	static final String CONCURRENCY_LEVEL = "concurrencyLevel";
+	public static final String CONCURRENCY_LEVEL = "concurrencyLevel";
 
 	@Inject RecordDao dao;
 
 	@Inject Provider<EntityManager> entityManagerProvider;
 
+	/** RPC-scoped: collects records from concurrent requests of the same RPC into batches. */
+	@Inject Provider<RecordBatcher> recordBatcherProvider;
+
 
 
 	@Override
@@ -87,16 +91,23 @@ public class RecordStorageService extends RecordStorageImplBase {
 	public StreamObserver<StoreRecordRequest> storeMultiple(
 		StreamObserver<StoreRecordResponse> responseObserver
 	) {
-		// we assume that requests are independent from each other so they are processed in parallel
-		// by jpaExecutor
+		// we assume that requests are independent from each other, so records from concurrently
+		// processed requests of this RPC are persisted in batches: each batch in a single TX with
+		// JDBC batching, which is much faster than a separate TX per record.
+		final var recordBatcher = recordBatcherProvider.get();
 		return newSimpleConcurrentServerRequestObserver(
 			(ServerCallStreamObserver<StoreRecordResponse>) responseObserver,
 			concurrencyLevel,
-			(request, responseSubstreamObserver) -> jpaExecutor.execute(() -> {
-				try {
-					executeWithinTx(() -> {
-						final RecordEntity entity = process(request);
-						dao.persist(entity);
+			(request, responseSubstreamObserver) -> recordBatcher.persist(process(request))
+				.whenComplete((entity, error) -> {
+					// executed by a jpaExecutor Thread after the TX of the batch is committed
+					try {
+						if (error != null) {
+							log.log(Level.SEVERE, "server error", error);
+							responseSubstreamObserver.onError(
+									Status.INTERNAL.withCause(error).asException());
+							return;
+						}
 						responseSubstreamObserver.onNext(
 							StoreRecordResponse.newBuilder()
 								.setRequestId(request.getRequestId())
@@ -104,17 +115,10 @@ public class RecordStorageService extends RecordStorageImplBase {
 								.build()
 						);
 						responseSubstreamObserver.onCompleted();
-					});
-				} catch (StatusRuntimeException e) {
-					log.fine("client cancelled");
-				} catch (Throwable t) {
-					log.log(Level.SEVERE, "server error", t);
-					responseSubstreamObserver.onError(Status.INTERNAL.withCause(t).asException());
-					if (t instanceof Error) throw (Error) t;
-				} finally {
-					entityManagerProvider.get().close();
-				}
-			}),
+					} catch (StatusRuntimeException e) {
+						log.fine("client cancelled");
+					}
+				}),
 			(error, thisObserver) -> log.fine("client cancelled")
 		);
 	}
@@ -132,9 +136,10 @@ public class RecordStorageService extends RecordStorageImplBase {
 		});
 
 		jpaExecutor.execute(() -> {
-			try {
-				// read-only operation: no need for a TX
-				final var recordCursor = dao.findAll().iterator();
+			// read-only operation: no need for a TX. Records are streamed from a DB cursor only as
+			// fast as the client receives them, so memory usage does not depend on the table size.
+			try (final var records = dao.streamAll()) {
+				final var recordCursor = records.iterator();
 				while (recordCursor.hasNext()) {
 					synchronized (responseObserver) {
 						while ( !responseObserver.isReady()) responseObserver.wait();
@@ -156,6 +161,43 @@ public class RecordStorageService extends RecordStorageImplBase {
 
 
 
+	/**
+	 * Looks up records by their ids. Records already looked up within the same RPC are served from
+	 * its {@link pl.morgwai.samples.grpc.scopes.data_access.RecordCache RecordCache} without a DB
+	 * round-trip. If a record does not exist, {@code record} field of its response is unset.
+	 */
+	@Override
+	public StreamObserver<GetRecordRequest> getMultiple(
+		StreamObserver<GetRecordResponse> responseObserver
+	) {
+		return newSimpleConcurrentServerRequestObserver(
+			(ServerCallStreamObserver<GetRecordResponse>) responseObserver,
+			concurrencyLevel,
+			(request, responseSubstreamObserver) -> jpaExecutor.execute(() -> {
+				// read-only operation: no need for a TX
+				try {
+					final var response = GetRecordResponse.newBuilder()
+						.setRequestId(request.getRequestId());
+					final var entity = dao.findById(request.getRecordId());
+					if (entity != null) response.setRecord(toProto(entity));
+					responseSubstreamObserver.onNext(response.build());
+					responseSubstreamObserver.onCompleted();
+				} catch (StatusRuntimeException e) {
+					log.fine("client cancelled");
+				} catch (Throwable t) {
+					log.log(Level.SEVERE, "server error", t);
+					responseSubstreamObserver.onError(Status.INTERNAL.withCause(t).asException());
+					if (t instanceof Error) throw (Error) t;
+				} finally {
+					entityManagerProvider.get().close();
+				}
+			}),
+			(error, thisObserver) -> log.fine("client cancelled")
+		);
+	}
+
+
+
 	/**
 	 * Executes {@code task} in a new {@link EntityTransaction} created by the {@link EntityManager}
 	 * of the current {@link pl.morgwai.base.grpc.scopes.ListenerEventContext}.
@@ -213,7 +255,9 @@ public class RecordStorageService extends RecordStorageImplBase {
 
 	/**
 	 * Creates a new {@link Record} proto from entity data.
-	 * If the {@code entity} is already cached, this is a fast in-memory only operation.
+	 * If the {@code entity} is already loaded (for example obtained from
+	 * {@link RecordDao#findById(long)}, which caches records per RPC), this is a fast in-memory
+	 * only operation.
 	 */
 	public static Record toProto(RecordEntity entity) {
 		return Record.newBuilder().setId(entity.getId()).setContent(entity.getContent()).build();
@@ -17,25 +17,60 @@ public class ClientContextInterceptor implements ClientInterceptor {
 
 
 
+	/**
+	 * {@link CallOptions} key of a {@link ClientRetryContext} shared by attempts of the same
+	 * logical call. If set, the {@link ClientRpcContext} of a new RPC is joined with the given
+	 * {@code ClientRetryContext} instead of the enclosing RPC's {@code Context}. To share
+	 * {@code Objects} with the enclosing RPC also, the {@code ClientRetryContext} should be
+	 * obtained from {@link #newClientRetryContext()} of a
+	 * {@link GrpcModule#nestingClientInterceptor nesting Interceptor}.
+	 */
+	public static final CallOptions.Key<ClientRetryContext> RETRY_CONTEXT =
+			CallOptions.Key.create("pl.morgwai.base.grpc.scopes.ClientRetryContext");
+
+
+
 	final ContextTracker<ListenerEventContext> ctxTracker;
+	final ContextLeakDetector leakDetector;
 	final boolean nesting;
 
 
 
-	ClientContextInterceptor(ContextTracker<ListenerEventContext> ctxTracker, boolean nesting) {
+	ClientContextInterceptor(
+		ContextTracker<ListenerEventContext> ctxTracker,
+		ContextLeakDetector leakDetector,
+		boolean nesting
+	) {
 		this.ctxTracker = ctxTracker;
+		this.leakDetector = leakDetector;
 		this.nesting = nesting;
 	}
 
 
 
+	/**
+	 * Creates a new {@link ClientRetryContext} for attempts of a single logical client call made
+	 * via this {@code Interceptor}. If this is {@link GrpcModule#nestingClientInterceptor} and
+	 * this method is called within a {@link ListenerEventContext}, the returned
+	 * {@code ClientRetryContext} is nested within the {@link RpcContext} of that event.
+	 * @see GrpcModule#newClientRetryContext()
+	 */
+	public ClientRetryContext newClientRetryContext() {
+		final var enclosingEventCtx = nesting ? ctxTracker.getCurrentContext() : null;
+		return new ClientRetryContext(
+				enclosingEventCtx != null ? enclosingEventCtx.rpcContext : null);
+	}
+
+
+
 	@Override
 	public <RequestT, ResponseT> ClientCall<RequestT, ResponseT> interceptCall(
 		MethodDescriptor<RequestT, ResponseT> method,
 		CallOptions callOptions,
 		Channel channel
 	) {
-		return new RpcProxy<>(channel.newCall(method, callOptions));
+		return new RpcProxy<>(
+				channel.newCall(method, callOptions), method, callOptions.getOption(RETRY_CONTEXT));
 	}
 
 
@@ -47,21 +82,42 @@ public class ClientContextInterceptor implements ClientInterceptor {
 	class RpcProxy<RequestT, ResponseT> extends ClientCall<RequestT, ResponseT> {
 
 		final ClientCall<RequestT, ResponseT> wrappedRpc;
+		final MethodDescriptor<RequestT, ResponseT> method;
+		final ClientRetryContext retryCtx;  // null if not a retryable call
 
 
 
-		RpcProxy(ClientCall<RequestT, ResponseT> rpcToWrap) {
+		RpcProxy(
+			ClientCall<RequestT, ResponseT> rpcToWrap,
+			MethodDescriptor<RequestT, ResponseT> method,
+			ClientRetryContext retryCtx
+		) {
 			this.wrappedRpc = rpcToWrap;
+			this.method = method;
+			this.retryCtx = retryCtx;
 		}
 
 
 
 		@Override
 		public void start(Listener<ResponseT> listener, Metadata requestHeaders) {
-			final var enclosingEventCtx = ctxTracker.getCurrentContext();
-			final var rpcCtx  = (nesting && enclosingEventCtx != null)
-				? new ClientRpcContext(wrappedRpc, requestHeaders, enclosingEventCtx.rpcContext)
-				: new ClientRpcContext(wrappedRpc, requestHeaders);
+			final var fullMethodName = method.getFullMethodName();
+			final ClientRpcContext rpcCtx;
+			if (retryCtx != null) {
+				rpcCtx = new ClientRpcContext(wrappedRpc, fullMethodName, requestHeaders, retryCtx);
+				retryCtx.attemptStarted(rpcCtx);
+			} else {
+				final var enclosingEventCtx = ctxTracker.getCurrentContext();
+				rpcCtx  = (nesting && enclosingEventCtx != null)
+					? new ClientRpcContext(
+						wrappedRpc,
+						fullMethodName,
+						requestHeaders,
+						enclosingEventCtx.rpcContext
+					)
+					: new ClientRpcContext(wrappedRpc, fullMethodName, requestHeaders);
+			}
+			if (leakDetector.shouldTrack()) leakDetector.track(rpcCtx);
 			wrappedRpc.start(new ListenerProxy<>(listener, rpcCtx), requestHeaders);
 		}
 
@@ -97,6 +153,18 @@ public class ClientContextInterceptor implements ClientInterceptor {
 		final Listener<ResponseT> wrappedListener;
 		final ClientRpcContext rpcContext;
 
+		/**
+		 * Calls of {@link #wrappedListener} for the events that may happen many times per RPC,
+		 * created upon the first such event and reused, so that no capturing lambda is allocated
+		 * per message, while RPCs that never receive any message do not allocate them at all. As
+		 * gRPC never calls methods of the same {@code Listener} concurrently,
+		 * {@link #onMessage(Object) onMessage(...)} can pass its argument to
+		 * {@link #deliverMessage()} via {@link #pendingMessage}.
+		 */
+		Runnable messageDelivery;
+		Runnable onReadyDelivery;
+		ResponseT pendingMessage;
+
 
 
 		ListenerProxy(Listener<ResponseT> listenerToWrap, ClientRpcContext rpcContext) {
@@ -106,34 +174,52 @@ public class ClientContextInterceptor implements ClientInterceptor {
 
 
 
-		private void executeWithinCtxs(Runnable wrappedListenerCall) {
-			new ListenerEventContext(rpcContext, ctxTracker).executeWithinSelf(wrappedListenerCall);
+		private void executeWithinCtxs(String eventType, Runnable wrappedListenerCall) {
+			new ListenerEventContext(rpcContext, ctxTracker)
+				.executeEvent(eventType, wrappedListenerCall);
 		}
 
 
 
 		@Override public void onHeaders(Metadata responseHeaders) {
 			rpcContext.setResponseHeaders(responseHeaders);
-			executeWithinCtxs(() -> wrappedListener.onHeaders(responseHeaders));
+			executeWithinCtxs("onHeaders", () -> wrappedListener.onHeaders(responseHeaders));
 		}
 
 
 
 		@Override public void onMessage(ResponseT message) {
-			executeWithinCtxs(() -> wrappedListener.onMessage(message));
+			if (messageDelivery == null) messageDelivery = this::deliverMessage;
+			pendingMessage = message;
+			try {
+				executeWithinCtxs("onMessage", messageDelivery);
+			} finally {
+				pendingMessage = null;
+			}
+		}
+
+		private void deliverMessage() {
+			wrappedListener.onMessage(pendingMessage);
 		}
 
 
 
 		@Override public void onReady() {
-			executeWithinCtxs(wrappedListener::onReady);
+			if (onReadyDelivery == null) onReadyDelivery = wrappedListener::onReady;
+			executeWithinCtxs("onReady", onReadyDelivery);
 		}
 
 
 
 		@Override public void onClose(Status status, Metadata trailers) {
 			rpcContext.setStatusAndTrailers(status, trailers);
-			executeWithinCtxs(() -> wrappedListener.onClose(status, trailers));
+			executeWithinCtxs("onClose", () -> {
+				try {
+					wrappedListener.onClose(status, trailers);
+				} finally {
+					rpcContext.markFinished();
+				}
+			});
 		}
 	}
 }
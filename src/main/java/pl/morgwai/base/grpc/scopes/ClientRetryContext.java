@@ -0,0 +1,91 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+
+
+/**
+ * Context of a logical client call that may be retried: all attempts started with
+ * {@link ClientContextInterceptor#RETRY_CONTEXT} option set to the same
+ * {@code ClientRetryContext} share its {@link GrpcModule#rpcScope RPC-scoped} {@code Objects}
+ * (serializers, signed auth tokens, compression dictionaries and such), so that they are not
+ * recreated for each attempt. Each attempt still gets its own {@link ClientRpcContext} recording
+ * its own status, headers and trailers.
+ * <p>
+ * Instances can be obtained with {@link ClientContextInterceptor#newClientRetryContext()} of the
+ * {@code Interceptor} that will start the attempts (or {@link GrpcModule#newClientRetryContext()}
+ * for {@link GrpcModule#clientInterceptor}). If obtained from
+ * {@link GrpcModule#nestingClientInterceptor} within a {@link ListenerEventContext}, a
+ * {@code ClientRetryContext} is nested within the enclosing {@link RpcContext}, so that its
+ * attempts share {@code Objects} with it (as non-retried nested calls do). The same
+ * {@code ClientRetryContext} should be used for attempts of the same logical call only.</p>
+ * <pre>{@code
+ * try (final var retryCtx = grpcModule.newClientRetryContext()) {
+ *     final var retryingStub = stub.withOption(ClientContextInterceptor.RETRY_CONTEXT, retryCtx);
+ *     for (int attempt = 1; ; attempt++) {
+ *         try {
+ *             return retryingStub.myMethod(request);
+ *         } catch (StatusRuntimeException e) {
+ *             if (attempt == MAX_ATTEMPTS || !isRetryable(e.getStatus())) throw e;
+ *         }
+ *     }
+ * }}</pre>
+ */
+public class ClientRetryContext extends RpcContext implements AutoCloseable {
+
+
+
+	/** Full name of the method of the first attempt or {@code null} if none was started yet. */
+	@Override public String getFullMethodName() { return fullMethodName; }
+	private volatile String fullMethodName;
+
+	/** Returns the number of attempts started so far. */
+	public synchronized int getAttemptCount() { return attemptCount; }
+	private int attemptCount = 0;  // guarded by this
+
+	/**
+	 * Returns the {@code Context} of the most recently started attempt or {@code null} if none
+	 * was started yet.
+	 */
+	public synchronized ClientRpcContext getLastAttempt() { return lastAttempt; }
+	private ClientRpcContext lastAttempt;  // guarded by this
+
+
+
+	/** Called by {@link ClientContextInterceptor.RpcProxy} when an attempt is started. */
+	synchronized void attemptStarted(ClientRpcContext attemptCtx) {
+		if (fullMethodName == null) fullMethodName = attemptCtx.getFullMethodName();
+		attemptCount++;
+		lastAttempt = attemptCtx;
+	}
+
+
+
+	/**
+	 * Marks the logical call as finished: calls {@link #addOnFinishHandler(Runnable) finish
+	 * handlers} and releases the reference to the {@link #getLastAttempt() last attempt}.
+	 * {@link GrpcModule#rpcScope RPC-scoped} {@code Objects} of the logical call are released
+	 * together with this {@code Context}.
+	 */
+	@Override
+	public void close() {
+		markFinished();
+	}
+
+
+
+	@Override
+	synchronized void releaseRpcResources() {
+		super.releaseRpcResources();
+		lastAttempt = null;
+	}
+
+
+
+	/**
+	 * @param enclosingCtx ctx within which to nest this one or {@code null}
+	 *     (see {@link GrpcModule#nestingClientInterceptor}).
+	 */
+	ClientRetryContext(RpcContext enclosingCtx) {
+		super(null, enclosingCtx);
+	}
+}
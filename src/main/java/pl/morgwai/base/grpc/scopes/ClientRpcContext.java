@@ -29,11 +29,21 @@ public class ClientRpcContext extends RpcContext {
 
 
 
+	/**
+	 * Returns the RPC object or {@code null} if the RPC has already {@link #isFinished() finished}.
+	 */
 	public ClientCall<?, ?> getRpc() { return rpc; }
-	public final ClientCall<?, ?> rpc;
+	private volatile ClientCall<?, ?> rpc;
+
+	@Override public String getFullMethodName() { return fullMethodName; }
+	private final String fullMethodName;
 
+	/**
+	 * Returns response headers or {@code null} if not received yet or the RPC has already
+	 * {@link #isFinished() finished}.
+	 */
 	public Metadata getResponseHeaders() { return responseHeaders; }
-	private Metadata responseHeaders;
+	private volatile Metadata responseHeaders;
 
 	/**
 	 * Trailing metadata sent by the server upon the RPC completion. This will be {@code empty()}
@@ -43,17 +53,21 @@ public class ClientRpcContext extends RpcContext {
 	 *     <li>In {@link io.grpc.stub.StreamObserver#onNext(Object)} it will always be
 	 *             {@code empty()}.</li>
 	 *     <li>In {@link io.grpc.stub.StreamObserver#onError(Throwable)} it may be either.</li>
+	 *     <li>After the RPC {@link #isFinished() finishes} it will be {@code empty()} again (the
+	 *             trailers are released).</li>
 	 * </ul>
 	 */
 	public Optional<Metadata> getTrailers() { return Optional.ofNullable(trailers); }
-	private Metadata trailers;
+	private volatile Metadata trailers;
 
 	/**
 	 * Final status sent by the server upon the RPC completion. This will be {@code empty()} for
-	 * most of the RPC lifetime similarly to {@link #getTrailers()}.
+	 * most of the RPC lifetime similarly to {@link #getTrailers()}. After the RPC
+	 * {@link #isFinished() finishes}, the {@link Status#getCause() cause} of the status is
+	 * released.
 	 */
 	public Optional<Status> getStatus() { return Optional.ofNullable(status); }
-	private Status status;
+	private volatile Status status;
 
 
 
@@ -74,14 +88,31 @@ public class ClientRpcContext extends RpcContext {
 
 
 
+	@Override
+	void releaseRpcResources() {
+		super.releaseRpcResources();
+		rpc = null;
+		responseHeaders = null;
+		trailers = null;
+		if (status != null) status = status.withCause(null);
+	}
+
+
+
 	/** Constructor for nested ctxs (see {@link GrpcModule#nestingClientInterceptor}). */
-	ClientRpcContext(ClientCall<?, ?> rpc, Metadata requestHeaders, RpcContext enclosingCtx) {
+	ClientRpcContext(
+		ClientCall<?, ?> rpc,
+		String fullMethodName,
+		Metadata requestHeaders,
+		RpcContext enclosingCtx
+	) {
 		super(requestHeaders, enclosingCtx);
 		this.rpc = rpc;
+		this.fullMethodName = fullMethodName;
 	}
 
 	/** Constructor for non-nested ctxs (see {@link GrpcModule#clientInterceptor}). */
-	ClientRpcContext(ClientCall<?, ?> rpc, Metadata requestHeaders) {
-		this(rpc, requestHeaders, null);
+	ClientRpcContext(ClientCall<?, ?> rpc, String fullMethodName, Metadata requestHeaders) {
+		this(rpc, fullMethodName, requestHeaders, null);
 	}
 }
@@ -0,0 +1,236 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.*;
+import io.grpc.ForwardingServerCallListener.SimpleForwardingServerCallListener;
+import io.grpc.ServerCall.Listener;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+
+
+/**
+ * Adaptively limits the number of concurrent RPCs of each gRPC method, closing excess RPCs with
+ * {@link Status#RESOURCE_EXHAUSTED} before the method implementation is invoked, so that no
+ * {@link GrpcModule#rpcScope RPC-scoped} objects are created for them.
+ * <p>
+ * The limit of each method is adjusted using a gradient algorithm: the lifetimes of its RPCs
+ * (measured by their {@link ServerRpcContext}s from the start of the RPC until
+ * {@link ServerCall.Listener#onComplete() onComplete()}) are averaged over a short and a long
+ * window. When the short-term average grows above the long-term one, the RPCs are queueing
+ * somewhere, so the limit is decreased proportionally, otherwise it is slowly increased. RPCs
+ * {@link ServerRpcContext#isCancelled() cancelled} due to their {@link Deadline deadlines}
+ * contribute their lifetimes as samples as well, so that an overload that makes RPCs time out
+ * decreases the limit. Only RPCs cancelled by clients before the method implementation started
+ * processing them (for unary-request methods before
+ * {@link ServerCall.Listener#onHalfClose() onHalfClose()}) release their permits without
+ * contributing samples.</p>
+ * <p>
+ * Instances can be obtained with
+ * {@link GrpcModule#newConcurrencyLimitingInterceptor(int, int, int)} and must be applied
+ * <b>after</b> (closer to the service than) {@link GrpcModule#serverInterceptor}:</p>
+ * <pre>{@code
+ * ServerInterceptors.intercept(
+ *     service,
+ *     grpcModule.newConcurrencyLimitingInterceptor(20, 1, 500),
+ *     grpcModule.serverInterceptor  // the last one is called first
+ * )}</pre>
+ */
+public class ConcurrencyLimitingInterceptor implements ServerInterceptor {
+
+
+
+	final ContextTracker<ListenerEventContext> ctxTracker;
+	final int initialLimit;
+	final int minLimit;
+	final int maxLimit;
+
+	final ConcurrentMap<String, MethodLimiter> methodLimiters = new ConcurrentHashMap<>();
+
+
+
+	ConcurrencyLimitingInterceptor(
+		ContextTracker<ListenerEventContext> ctxTracker,
+		int initialLimit,
+		int minLimit,
+		int maxLimit
+	) {
+		if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+			throw new IllegalArgumentException(
+					"limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit");
+		}
+		this.ctxTracker = ctxTracker;
+		this.initialLimit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+	}
+
+
+
+	@Override
+	public <RequestT, ResponseT> Listener<RequestT> interceptCall(
+		ServerCall<RequestT, ResponseT> rpc,
+		Metadata headers,
+		ServerCallHandler<RequestT, ResponseT> handler
+	) {
+		final var eventCtx = ctxTracker.getCurrentContext();
+		if (eventCtx == null) {
+			throw new IllegalStateException(
+					"ConcurrencyLimitingInterceptor must be applied after serverInterceptor");
+		}
+		final var rpcCtx = (ServerRpcContext) eventCtx.getRpcContext();
+		final var methodLimiter = methodLimiters.computeIfAbsent(
+			rpc.getMethodDescriptor().getFullMethodName(),
+			(methodName) -> new MethodLimiter(initialLimit, minLimit, maxLimit)
+		);
+		if ( !methodLimiter.tryAcquire()) {
+			rpc.close(LIMIT_EXCEEDED_STATUS, new Metadata());
+			return new Listener<>() {};
+		}
+		final var permit = new Permit(methodLimiter, rpcCtx, Context.current().getDeadline());
+		rpcCtx.addOnFinishHandler(permit::release);
+		final var listener = handler.startCall(rpc, headers);
+		if ( !rpc.getMethodDescriptor().getType().clientSendsOneMessage()) {
+			// streaming-request method implementations are invoked by startCall(...) above
+			permit.processingStarted = true;
+			return listener;
+		}
+		return new SimpleForwardingServerCallListener<>(listener) {
+			@Override public void onHalfClose() {
+				permit.processingStarted = true;  // unary-request method is invoked now
+				super.onHalfClose();
+			}
+		};
+	}
+
+	static final Status LIMIT_EXCEEDED_STATUS =
+			Status.RESOURCE_EXHAUSTED.withDescription("concurrency limit exceeded");
+
+
+
+	/**
+	 * Returns the current concurrency limit for {@code fullMethodName} or the initial limit if no
+	 * RPC of this method has been intercepted yet.
+	 */
+	public int getLimit(String fullMethodName) {
+		final var methodLimiter = methodLimiters.get(fullMethodName);
+		return methodLimiter != null ? methodLimiter.limit : initialLimit;
+	}
+
+
+
+	/** Returns the number of currently running RPCs of {@code fullMethodName}. */
+	public int getInFlight(String fullMethodName) {
+		final var methodLimiter = methodLimiters.get(fullMethodName);
+		return methodLimiter != null ? methodLimiter.inFlight.get() : 0;
+	}
+
+
+
+	/** Permit of a single admitted RPC, released when the RPC finishes. */
+	static class Permit {
+
+		final MethodLimiter methodLimiter;
+		final ServerRpcContext rpcCtx;
+		/** {@link Deadline} of the RPC or {@code null}. */
+		final Deadline deadline;
+
+		/** Whether the method implementation has started processing the RPC. */
+		volatile boolean processingStarted = false;
+
+
+
+		Permit(MethodLimiter methodLimiter, ServerRpcContext rpcCtx, Deadline deadline) {
+			this.methodLimiter = methodLimiter;
+			this.rpcCtx = rpcCtx;
+			this.deadline = deadline;
+		}
+
+
+
+		void release() {
+			final var isSample = !rpcCtx.isCancelled()
+					|| processingStarted
+					|| (deadline != null && deadline.isExpired());
+			methodLimiter.release(rpcCtx.getDurationNanos(), isSample);
+		}
+	}
+
+
+
+	/** Concurrency limit of a single method. */
+	static class MethodLimiter {
+
+		final int minLimit;
+		final int maxLimit;
+
+		final AtomicInteger inFlight = new AtomicInteger(0);
+		volatile int limit;
+
+		// all below guarded by this
+		double estimatedLimit;
+		double shortRttNanos = 0.0;
+		double longRttNanos = 0.0;
+
+
+
+		MethodLimiter(int initialLimit, int minLimit, int maxLimit) {
+			this.minLimit = minLimit;
+			this.maxLimit = maxLimit;
+			this.limit = initialLimit;
+			this.estimatedLimit = initialLimit;
+		}
+
+
+
+		boolean tryAcquire() {
+			while (true) {
+				final var current = inFlight.get();
+				if (current >= limit) return false;
+				if (inFlight.compareAndSet(current, current + 1)) return true;
+			}
+		}
+
+
+
+		void release(long rttNanos, boolean isSample) {
+			final var inFlightBeforeRelease = inFlight.getAndDecrement();
+			if (isSample) update(rttNanos, inFlightBeforeRelease);
+		}
+
+
+
+		synchronized void update(long rttNanos, int currentInFlight) {
+			rttNanos = Math.max(1L, rttNanos);
+			if (longRttNanos == 0.0) {
+				shortRttNanos = rttNanos;
+				longRttNanos = rttNanos;
+			} else {
+				shortRttNanos += (rttNanos - shortRttNanos) / SHORT_WINDOW;
+				longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+			}
+
+			// after a sustained latency drop, let the long average catch up faster
+			if (longRttNanos / shortRttNanos > 2.0) longRttNanos *= 0.95;
+
+			// don't grow the limit if it is not utilized
+			if (currentInFlight < estimatedLimit / 2.0) return;
+
+			final var gradient =
+					Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRttNanos / shortRttNanos));
+			final var queueSize = Math.sqrt(estimatedLimit);
+			final var newLimit = estimatedLimit * gradient + queueSize;
+			estimatedLimit = Math.max(minLimit, Math.min(maxLimit,
+					estimatedLimit * (1.0 - SMOOTHING) + newLimit * SMOOTHING));
+			limit = (int) estimatedLimit;
+		}
+
+		static final double SHORT_WINDOW = 10.0;
+		static final double LONG_WINDOW = 600.0;
+		static final double RTT_TOLERANCE = 1.5;
+		static final double SMOOTHING = 0.2;
+	}
+}
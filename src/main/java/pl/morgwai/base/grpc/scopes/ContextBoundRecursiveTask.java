@@ -0,0 +1,116 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import pl.morgwai.base.guice.scopes.TrackableContext;
+
+
+
+/**
+ * {@link RecursiveTask} that is {@link #computeWithinContexts() computed} within {@code Contexts}
+ * (for example a {@link ListenerEventContext} and thus its {@link RpcContext}) captured when the
+ * top-level task was created, so that CPU-heavy processing of a request can be decomposed with a
+ * {@link java.util.concurrent.ForkJoinPool} while still injecting
+ * {@link GrpcModule#rpcScope RPC-scoped} {@code Objects} in all subtasks.
+ * <p>
+ * {@code Contexts} are captured only once by the top-level task (see
+ * {@link #ContextBoundRecursiveTask(GrpcModule)}) using {@link GrpcModule#ctxBinder}, so
+ * {@link io.grpc.Context gRPC Context} is also carried if the module
+ * {@link GrpcModule#GrpcModule(boolean) bridges} it. Subtasks share them with their parent (see
+ * {@link #ContextBoundRecursiveTask(ContextBoundRecursiveTask)}) and are not wrapped: if a subtask
+ * is executed by a {@code Thread} that is already within the same {@code Contexts} (for example
+ * when it is {@link #fork() forked} and then {@link #join() joined} by the same worker, or
+ * {@link #invoke() invoked} directly), it is computed right away, otherwise the {@code Contexts}
+ * are set up for the duration of its computation (for example when it was stolen by another
+ * worker).</p>
+ * <p>
+ * Usage:</p>
+ * <pre>{@code
+ * class Transform extends ContextBoundRecursiveTask<Result> {
+ *
+ *     @Inject Provider<TransformConfig> configProvider;  // RPC-scoped
+ *     final Chunk chunk;
+ *
+ *     Transform(GrpcModule grpcModule, Chunk chunk) {  // top-level task
+ *         super(grpcModule);
+ *         this.chunk = chunk;
+ *     }
+ *
+ *     Transform(Transform parent, Chunk chunk) {  // subtask
+ *         super(parent);
+ *         this.configProvider = parent.configProvider;
+ *         this.chunk = chunk;
+ *     }
+ *
+ *     @Override protected Result computeWithinContexts() {
+ *         if (chunk.size() <= THRESHOLD) return transform(chunk, configProvider.get());
+ *         final var left = new Transform(this, chunk.leftHalf());
+ *         left.fork();
+ *         final var right = new Transform(this, chunk.rightHalf()).compute();
+ *         return merge(left.join(), right);
+ *     }
+ * }
+ *
+ * // in a Listener event:
+ * final var transform = new Transform(grpcModule, chunk);
+ * injector.injectMembers(transform);
+ * final var result = forkJoinPool.invoke(transform);}</pre>
+ */
+public abstract class ContextBoundRecursiveTask<V> extends RecursiveTask<V> {
+
+
+
+	public List<TrackableContext<?>> getContexts() { return ctxs; }
+	final List<TrackableContext<?>> ctxs;
+
+
+
+	/**
+	 * Constructor for top-level tasks: captures the {@code Contexts} of all {@code Scopes} of
+	 * {@code grpcModule} that are active in the calling {@code Thread} by binding a no-op with
+	 * {@code grpcModule}'s {@link GrpcModule#ctxBinder}.
+	 */
+	protected ContextBoundRecursiveTask(GrpcModule grpcModule) {
+		ctxs = grpcModule.ctxBinder.bindToContext(NOOP).contexts;
+	}
+
+	static final Runnable NOOP = () -> {};
+
+
+
+	/** Constructor for subtasks: shares the {@code Contexts} of {@code parentTask}. */
+	protected ContextBoundRecursiveTask(ContextBoundRecursiveTask<?> parentTask) {
+		ctxs = parentTask.ctxs;
+	}
+
+
+
+	/** Performs the main computation of this task within its {@link #getContexts() Contexts}. */
+	protected abstract V computeWithinContexts();
+
+
+
+	/**
+	 * Calls {@link #computeWithinContexts()} within {@link #getContexts() Contexts} of this task,
+	 * setting them up only if the current {@code Thread} is not already within them.
+	 */
+	@Override
+	protected final V compute() {
+		final var enclosingTaskCtxs = currentTaskCtxs.get();
+		if (enclosingTaskCtxs == ctxs) return computeWithinContexts();
+		currentTaskCtxs.set(ctxs);
+		try {
+			return TrackableContext.executeWithinAll(ctxs, this::computeWithinContexts);
+		} finally {
+			currentTaskCtxs.set(enclosingTaskCtxs);
+		}
+	}
+
+	/**
+	 * {@link #ctxs} of the {@code ContextBoundRecursiveTask} being computed by the current
+	 * {@code Thread} or {@code null}.
+	 */
+	static final ThreadLocal<List<TrackableContext<?>>> currentTaskCtxs = new ThreadLocal<>();
+}
@@ -0,0 +1,185 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import pl.morgwai.base.guice.scopes.ContextTracker;
+import pl.morgwai.base.guice.scopes.TrackableContext;
+
+
+
+/**
+ * {@link Spliterator} that traverses elements of a backing {@code Spliterator} within
+ * {@code Contexts} (for example a {@link ListenerEventContext} and thus its {@link RpcContext})
+ * captured when it was created, so that lambdas of parallel {@link Stream}s executed by
+ * {@link java.util.concurrent.ForkJoinPool#commonPool() common pool} workers can use
+ * {@link GrpcModule#rpcScope RPC-scoped} {@code Objects}.
+ * <p>
+ * {@code Contexts} are captured once and shared by all {@link #trySplit() splits}. Each chunk
+ * traversed with {@link #forEachRemaining(Consumer) forEachRemaining(...)} (used by most terminal
+ * operations) enters the {@code Contexts} only once for all its elements. Short-circuiting
+ * operations (like {@link Stream#findFirst()} or
+ * {@link Stream#anyMatch(java.util.function.Predicate) anyMatch(...)}) traverse elements with
+ * {@link #tryAdvance(Consumer) tryAdvance(...)}, which enters the {@code Contexts} for each
+ * element. Combiners of terminal operations that merge results of chunks (like the one of
+ * {@link Stream#reduce(Object, java.util.function.BiFunction, java.util.function.BinaryOperator)
+ * reduce(...)}) are executed outside of the {@code Contexts}.</p>
+ * <p>
+ * Usage in a gRPC method:</p>
+ * <pre>{@code
+ * final var results = ContextBoundSpliterator.parallelStream(grpcModule, request.getItemsList())
+ *     .map(item -> transformerProvider.get().transform(item))  // RPC-scoped transformer
+ *     .collect(Collectors.toList());}</pre>
+ * <p>
+ * A stateful intermediate operation of a parallel {@code Stream} (like {@link Stream#sorted()},
+ * {@link Stream#distinct()}, {@link Stream#limit(long)} or {@link Stream#skip(long)}) may buffer
+ * elements and the subsequent operations may then be executed on the buffer outside of the
+ * {@code Contexts}. In such case the {@code Stream} should be re-bound to the same
+ * {@code Contexts} with {@link #bind(Stream, List)} after the stateful operation:</p>
+ * <pre>{@code
+ * final var ctxs = ContextTracker.getActiveContexts(grpcModule.getAllTrackers());
+ * final var sorted = ContextBoundSpliterator.bind(request.getItemsList().parallelStream(), ctxs)
+ *     .map(item -> transformerProvider.get().transform(item))
+ *     .sorted();
+ * final var results = ContextBoundSpliterator.bind(sorted, ctxs)
+ *     .map(item -> formatterProvider.get().format(item))  // RPC-scoped formatter
+ *     .collect(Collectors.toList());}</pre>
+ */
+public class ContextBoundSpliterator<T> implements Spliterator<T> {
+
+
+
+	public Spliterator<T> getBackingSpliterator() { return backingSpliterator; }
+	final Spliterator<T> backingSpliterator;
+
+	public List<TrackableContext<?>> getContexts() { return ctxs; }
+	final List<TrackableContext<?>> ctxs;
+
+
+
+	/**
+	 * Returns a parallel {@link Stream} of elements of {@code collection}, whose operations are
+	 * executed within the {@code Contexts} of all {@code Scopes} of {@code grpcModule} that are
+	 * active in the calling {@code Thread}.
+	 */
+	public static <T> Stream<T> parallelStream(GrpcModule grpcModule, Collection<T> collection) {
+		return StreamSupport.stream(ofCurrentContexts(grpcModule, collection.spliterator()), true);
+	}
+
+
+
+	/**
+	 * Returns a {@link Stream} of elements of {@code stream}, whose subsequent operations are
+	 * executed within the {@code Contexts} of all {@code Scopes} of {@code grpcModule} that are
+	 * active in the calling {@code Thread}. The returned {@code Stream} is parallel if
+	 * {@code stream} is and {@link Stream#close() closing} it closes {@code stream}.
+	 */
+	public static <T> Stream<T> bindToCurrentContexts(GrpcModule grpcModule, Stream<T> stream) {
+		return bind(stream, ContextTracker.getActiveContexts(grpcModule.getAllTrackers()));
+	}
+
+
+
+	/**
+	 * Returns a {@link Stream} of elements of {@code stream}, whose subsequent operations are
+	 * executed within {@code ctxs}. The returned {@code Stream} is parallel if {@code stream} is
+	 * and {@link Stream#close() closing} it closes {@code stream}. Useful for re-binding a
+	 * {@code Stream} after a stateful intermediate operation.
+	 */
+	public static <T> Stream<T> bind(Stream<T> stream, List<TrackableContext<?>> ctxs) {
+		return StreamSupport.stream(
+				new ContextBoundSpliterator<>(stream.spliterator(), ctxs), stream.isParallel())
+			.onClose(stream::close);
+	}
+
+
+
+	/**
+	 * Returns a {@code Spliterator} that will traverse elements of {@code backingSpliterator}
+	 * within the {@code Contexts} of all {@code Scopes} of {@code grpcModule} that are active in
+	 * the calling {@code Thread}.
+	 */
+	public static <T> ContextBoundSpliterator<T> ofCurrentContexts(
+		GrpcModule grpcModule,
+		Spliterator<T> backingSpliterator
+	) {
+		return new ContextBoundSpliterator<>(
+			backingSpliterator,
+			ContextTracker.getActiveContexts(grpcModule.getAllTrackers())
+		);
+	}
+
+
+
+	public ContextBoundSpliterator(
+		Spliterator<T> backingSpliterator,
+		List<TrackableContext<?>> ctxs
+	) {
+		this.backingSpliterator = backingSpliterator;
+		this.ctxs = ctxs;
+	}
+
+
+
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+		return TrackableContext.executeWithinAll(
+				ctxs, () -> backingSpliterator.tryAdvance(action));
+	}
+
+
+
+	@Override
+	public void forEachRemaining(Consumer<? super T> action) {
+		TrackableContext.executeWithinAll(
+				ctxs, () -> backingSpliterator.forEachRemaining(action));
+	}
+
+
+
+	/** Splits {@link #backingSpliterator}, sharing {@link #ctxs} with the split. */
+	@Override
+	public Spliterator<T> trySplit() {
+		final var split = backingSpliterator.trySplit();
+		return split != null ? new ContextBoundSpliterator<>(split, ctxs) : null;
+	}
+
+
+
+	@Override
+	public long estimateSize() {
+		return backingSpliterator.estimateSize();
+	}
+
+
+
+	@Override
+	public long getExactSizeIfKnown() {
+		return backingSpliterator.getExactSizeIfKnown();
+	}
+
+
+
+	@Override
+	public int characteristics() {
+		return backingSpliterator.characteristics();
+	}
+
+
+
+	@Override
+	public Comparator<? super T> getComparator() {
+		return backingSpliterator.getComparator();
+	}
+
+
+
+	@Override
+	public String toString() {
+		return "ContextBoundSpliterator { backingSpliterator=" + backingSpliterator + ", ctxs="
+				+ ctxs + " }";
+	}
+}
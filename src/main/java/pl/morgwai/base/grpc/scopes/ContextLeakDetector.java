@@ -0,0 +1,327 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.*;
+import java.util.logging.Logger;
+
+import pl.morgwai.base.function.*;
+import pl.morgwai.base.guice.scopes.*;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.logging.Level.WARNING;
+
+
+
+/**
+ * Reports {@link RpcContext}s that are still reachable a given grace period after their RPC
+ * {@link RpcContext#isFinished() finished}. As each {@link ListenerEventContext} references its
+ * {@link RpcContext} (which in turn references its {@link io.grpc.ServerCall} or
+ * {@link io.grpc.ClientCall} and request {@link io.grpc.Metadata}), a task, cache or a
+ * {@link RpcSubtaskScope} that retains any {@code Context} of an RPC pins the whole RPC graph in
+ * memory.
+ * <p>
+ * Disabled by default. Once {@link #enable(long, TimeUnit, double) enabled}, a
+ * {@code samplingRatio} of new RPCs is tracked via {@link WeakReference}s, so even in production it
+ * adds noticeable overhead only to the sampled RPCs. For each sampled RPC, the stack trace of the
+ * most recent {@link GrpcModule#ctxBinder binding} of its {@code Contexts} to some closure (for
+ * example {@link ContextTrackingExecutor#execute(Runnable) passing a task to an Executor}) is
+ * recorded and included in the report as the cause of the leak.</p>
+ * <p>
+ * Leaks are reported as {@link java.util.logging.Level#WARNING WARNING}s to the {@link Logger}
+ * named after this class. Note that "still reachable" means "not yet cleared by the garbage
+ * collector", so the grace period should be longer than the typical interval between collections
+ * of the heap region where {@code Contexts} end up: otherwise some reports may be false positives.
+ * </p>
+ * An instance can be obtained from {@link GrpcModule#leakDetector}.
+ */
+public class ContextLeakDetector {
+
+
+
+	/** {@code null} when disabled. */
+	volatile Config config;
+
+	final Set<TrackedRpc> finishedRpcs = ConcurrentHashMap.newKeySet();
+	final ReferenceQueue<RpcContext> collectedRpcs = new ReferenceQueue<>();
+	ScheduledExecutorService checker;  // guarded by this
+
+	public long getReportedLeakCount() { return reportedLeakCount.get(); }
+	final AtomicLong reportedLeakCount = new AtomicLong(0L);
+
+
+
+	static class Config {
+
+		final long gracePeriodNanos;
+		final double samplingRatio;
+
+		Config(long gracePeriodNanos, double samplingRatio) {
+			this.gracePeriodNanos = gracePeriodNanos;
+			this.samplingRatio = samplingRatio;
+		}
+	}
+
+
+
+	ContextLeakDetector() {}
+
+
+
+	/**
+	 * Starts tracking {@code samplingRatio} (from {@code 0.0} exclusive to {@code 1.0} inclusive)
+	 * of subsequently started RPCs and reporting their {@link RpcContext}s that are still
+	 * reachable {@code gracePeriod} after the RPC finished. If already enabled, the new parameters
+	 * replace the old ones.
+	 */
+	public synchronized void enable(long gracePeriod, TimeUnit unit, double samplingRatio) {
+		if (gracePeriod <= 0L) throw new IllegalArgumentException("gracePeriod must be positive");
+		if ( !(samplingRatio > 0.0 && samplingRatio <= 1.0)) {
+			throw new IllegalArgumentException("samplingRatio must be within (0.0, 1.0]");
+		}
+		final var gracePeriodNanos = unit.toNanos(gracePeriod);
+		config = new Config(gracePeriodNanos, samplingRatio);
+		if (checker != null) checker.shutdownNow();
+		checker = Executors.newSingleThreadScheduledExecutor((checkTask) -> {
+			final var checkerThread = new Thread(checkTask, "grpc-scopes-leak-detector");
+			checkerThread.setDaemon(true);
+			return checkerThread;
+		});
+		final var checkPeriodNanos =
+				Math.max(gracePeriodNanos / 4L, MILLISECONDS.toNanos(MIN_CHECK_PERIOD_MILLIS));
+		checker.scheduleWithFixedDelay(
+				this::checkFinishedRpcs, checkPeriodNanos, checkPeriodNanos, NANOSECONDS);
+	}
+
+	static final long MIN_CHECK_PERIOD_MILLIS = 10L;
+
+
+
+	/** Stops tracking RPCs and forgets all the currently tracked ones. */
+	public synchronized void disable() {
+		config = null;
+		if (checker != null) {
+			checker.shutdownNow();
+			checker = null;
+		}
+		finishedRpcs.clear();
+	}
+
+
+
+	public boolean isEnabled() {
+		return config != null;
+	}
+
+
+
+	/**
+	 * Decides whether a new RPC should be {@link #track(RpcContext) tracked}. Called by
+	 * the interceptors right after creating an {@link RpcContext}.
+	 */
+	boolean shouldTrack() {
+		final var currentConfig = config;
+		return currentConfig != null
+				&& ThreadLocalRandom.current().nextDouble() < currentConfig.samplingRatio;
+	}
+
+
+
+	/**
+	 * Starts tracking {@code rpcCtx}. Must be called before {@code rpcCtx} is published to other
+	 * {@code Threads}.
+	 */
+	void track(RpcContext rpcCtx) {
+		final var trackedRpc =
+				new TrackedRpc(rpcCtx, rpcCtx.getFullMethodName(), collectedRpcs);
+		rpcCtx.leakTracking = trackedRpc;
+		rpcCtx.addOnFinishHandler(() -> rpcFinished(trackedRpc));  // must not capture rpcCtx
+	}
+
+
+
+	void rpcFinished(TrackedRpc trackedRpc) {
+		final var currentConfig = config;
+		if (currentConfig == null) return;
+		trackedRpc.finishedAtNanos = System.nanoTime();
+		trackedRpc.deadlineNanos = trackedRpc.finishedAtNanos + currentConfig.gracePeriodNanos;
+		finishedRpcs.add(trackedRpc);
+	}
+
+
+
+	/**
+	 * Records the current stack trace in all tracked {@link RpcContext}s among {@code bound}'s
+	 * {@link ContextBoundClosure#getContexts() Contexts}. Called by {@link GrpcModule#ctxBinder}.
+	 */
+	<BoundT extends ContextBoundClosure<?>> BoundT recordCapture(BoundT bound) {
+		if (config == null) return bound;
+		for (var ctx: bound.contexts) {
+			if ( !(ctx instanceof ListenerEventContext)) continue;
+			final var trackedRpc = ((ListenerEventContext) ctx).rpcContext.leakTracking;
+			if (trackedRpc != null) {
+				trackedRpc.lastCapture = new ContextCapture(Thread.currentThread().getName());
+			}
+		}
+		return bound;
+	}
+
+
+
+	/** Executed periodically by {@link #checker}. */
+	void checkFinishedRpcs() {
+		checkFinishedRpcs(System.nanoTime());
+	}
+
+
+
+	/**
+	 * Performs a single check as if the current {@link System#nanoTime() time} was {@code now}.
+	 * Allows tests to check deterministically instead of waiting for {@link #checker}.
+	 */
+	void checkFinishedRpcs(long now) {
+		Reference<?> collected;
+		while ((collected = collectedRpcs.poll()) != null) finishedRpcs.remove(collected);
+		for (var trackedRpc: finishedRpcs) {
+			if (now - trackedRpc.deadlineNanos < 0L || !finishedRpcs.remove(trackedRpc)) continue;
+			if (trackedRpc.get() == null) continue;  // collected, but not enqueued yet
+			log.log(
+				WARNING,
+				String.format(
+					LEAK_MESSAGE,
+					trackedRpc.rpcDescription,
+					NANOSECONDS.toMillis(now - trackedRpc.finishedAtNanos)
+				),
+				trackedRpc.lastCapture
+			);
+			reportedLeakCount.incrementAndGet();
+		}
+	}
+
+	static final String LEAK_MESSAGE = "Context of RPC %s is still reachable %dms after the RPC "
+			+ "finished: if a stack trace is attached, it shows the most recent binding of this "
+			+ "RPC's Contexts to a closure";
+
+
+
+	/**
+	 * Tracking record of a sampled RPC. References its {@link RpcContext} only weakly and is
+	 * referenced strongly only by the {@link RpcContext} itself until the RPC finishes, so that it
+	 * does not affect reachability of the {@link RpcContext}.
+	 */
+	static class TrackedRpc extends WeakReference<RpcContext> {
+
+		final String rpcDescription;
+		volatile ContextCapture lastCapture;
+		volatile long finishedAtNanos;
+		volatile long deadlineNanos;
+
+		TrackedRpc(RpcContext rpcCtx, String rpcDescription, ReferenceQueue<RpcContext> queue) {
+			super(rpcCtx, queue);
+			this.rpcDescription = rpcDescription;
+		}
+	}
+
+
+
+	/** Stack trace of a binding of some {@code Context}s of a tracked RPC to a closure. */
+	public static class ContextCapture extends Exception {
+
+		ContextCapture(String threadName) {
+			super("RPC Contexts bound to a closure in Thread \"" + threadName + '"');
+		}
+
+		private static final long serialVersionUID = 5041693893040373934L;
+	}
+
+
+
+	/**
+	 * {@link ContextBinder} that additionally {@link #recordCapture(ContextBoundClosure) records}
+	 * bindings of tracked RPCs' {@code Contexts}.
+	 */
+	static class RecordingContextBinder extends ContextBinder {
+
+		final ContextLeakDetector leakDetector;
+
+
+
+		RecordingContextBinder(
+			List<ContextTracker<?>> trackers,
+			ContextLeakDetector leakDetector
+		) {
+			super(trackers);
+			this.leakDetector = leakDetector;
+		}
+
+
+
+		@Override
+		public ContextBoundRunnable bindToContext(Runnable task) {
+			return leakDetector.recordCapture(super.bindToContext(task));
+		}
+
+		@Override
+		public <E1 extends Throwable, E2 extends Throwable, E3 extends Throwable,
+				E4 extends Throwable>
+		ContextBoundThrowingTask<E1, E2, E3, E4> bindToContext(
+			Throwing4Task<E1, E2, E3, E4> task
+		) {
+			return leakDetector.recordCapture(super.bindToContext(task));
+		}
+
+		@Override
+		public <R, E1 extends Throwable, E2 extends Throwable, E3 extends Throwable,
+				E4 extends Throwable>
+		ContextBoundThrowingComputation<R, E1, E2, E3, E4> bindToContext(
+			Throwing4Computation<R, E1, E2, E3, E4> computation
+		) {
+			return leakDetector.recordCapture(super.bindToContext(computation));
+		}
+
+		@Override
+		public <R> ContextBoundThrowingComputation<
+				R, Exception, RuntimeException, RuntimeException, RuntimeException>
+		bindToContext(Callable<R> callable) {
+			return leakDetector.recordCapture(super.bindToContext(callable));
+		}
+
+		@Override
+		public <T> ContextBoundConsumer<T> bindToContext(Consumer<T> consumer) {
+			return leakDetector.recordCapture(super.bindToContext(consumer));
+		}
+
+		@Override
+		public <T, U> ContextBoundBiConsumer<T, U> bindToContext(BiConsumer<T, U> consumer) {
+			return leakDetector.recordCapture(super.bindToContext(consumer));
+		}
+
+		@Override
+		public <T, R> ContextBoundFunction<T, R> bindToContext(Function<T, R> function) {
+			return leakDetector.recordCapture(super.bindToContext(function));
+		}
+
+		@Override
+		public <T, U, R> ContextBoundBiFunction<T, U, R> bindToContext(
+			BiFunction<T, U, R> function
+		) {
+			return leakDetector.recordCapture(super.bindToContext(function));
+		}
+
+		@Override
+		public <T> ContextBoundSupplier<T> bindSupplierToContext(Supplier<T> supplier) {
+			return leakDetector.recordCapture(super.bindSupplierToContext(supplier));
+		}
+	}
+
+
+
+	static final Logger log = Logger.getLogger(ContextLeakDetector.class.getName());
+}
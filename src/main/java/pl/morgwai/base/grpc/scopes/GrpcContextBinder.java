@@ -0,0 +1,188 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.*;
+
+import io.grpc.Context;
+import pl.morgwai.base.function.*;
+import pl.morgwai.base.guice.scopes.*;
+
+
+
+/**
+ * {@link ContextBinder} of {@link GrpcModule#GrpcModule(boolean) GrpcModules bridging gRPC
+ * Context}: closures bound by it (by any of its {@code bindToContext(...)} methods) additionally
+ * carry the {@link Context#current() current gRPC Context}, with the {@link ListenerEventContext}
+ * they were bound to stored under {@link ListenerEventContext#GRPC_CONTEXT_KEY}, and
+ * {@link Context#attach() attach} it while running.
+ * <p>
+ * This is a convenience bridge: a single {@link ContextTrackingExecutor} propagates both
+ * mechanisms. The derived gRPC {@code Context} is created once per {@link ListenerEventContext}
+ * (upon the first binding within it) and is attached by the
+ * {@link ListenerEventContext#executeWithinSelf(Runnable) ListenerEventContext itself}, so
+ * closures returned by this binder are the same as those of a plain {@link ContextBinder}. Each
+ * bound closure still swaps both the gRPC {@code Context} and the {@code Context} tracked by
+ * {@link GrpcModule#listenerEventScope}'s {@link ContextTracker} while running.</p>
+ * <p>
+ * If a different gRPC {@code Context} is current than upon the first binding within the given
+ * {@link ListenerEventContext} (for example one with a shorter deadline attached by user code),
+ * a {@link GrpcContextAttacher} for a separately derived gRPC {@code Context} is prepended to the
+ * bound {@code Contexts}.</p>
+ */
+class GrpcContextBinder extends ContextLeakDetector.RecordingContextBinder {
+
+
+
+	GrpcContextBinder(List<ContextTracker<?>> trackers, ContextLeakDetector leakDetector) {
+		super(trackers, leakDetector);
+	}
+
+
+
+	@Override
+	public ContextBoundRunnable bindToContext(Runnable task) {
+		return leakDetector.recordCapture(new ContextBoundRunnable(bridgedCtxs(), task));
+	}
+
+	@Override
+	public <E1 extends Throwable, E2 extends Throwable, E3 extends Throwable, E4 extends Throwable>
+	ContextBoundThrowingTask<E1, E2, E3, E4> bindToContext(Throwing4Task<E1, E2, E3, E4> task) {
+		return leakDetector.recordCapture(new ContextBoundThrowingTask<>(bridgedCtxs(), task));
+	}
+
+	@Override
+	public <R, E1 extends Throwable, E2 extends Throwable, E3 extends Throwable,
+			E4 extends Throwable>
+	ContextBoundThrowingComputation<R, E1, E2, E3, E4> bindToContext(
+		Throwing4Computation<R, E1, E2, E3, E4> computation
+	) {
+		return leakDetector.recordCapture(
+				new ContextBoundThrowingComputation<>(bridgedCtxs(), computation));
+	}
+
+	@Override
+	public <R> ContextBoundThrowingComputation<
+			R, Exception, RuntimeException, RuntimeException, RuntimeException>
+	bindToContext(Callable<R> callable) {
+		return bindToContext(
+			(Throwing4Computation<
+					R, Exception, RuntimeException, RuntimeException, RuntimeException>)
+				callable::call
+		);
+	}
+
+	@Override
+	public <T> ContextBoundConsumer<T> bindToContext(Consumer<T> consumer) {
+		return leakDetector.recordCapture(new ContextBoundConsumer<>(bridgedCtxs(), consumer));
+	}
+
+	@Override
+	public <T, U> ContextBoundBiConsumer<T, U> bindToContext(BiConsumer<T, U> consumer) {
+		return leakDetector.recordCapture(new ContextBoundBiConsumer<>(bridgedCtxs(), consumer));
+	}
+
+	@Override
+	public <T, R> ContextBoundFunction<T, R> bindToContext(Function<T, R> function) {
+		return leakDetector.recordCapture(new ContextBoundFunction<>(bridgedCtxs(), function));
+	}
+
+	@Override
+	public <T, U, R> ContextBoundBiFunction<T, U, R> bindToContext(BiFunction<T, U, R> function) {
+		return leakDetector.recordCapture(
+				new ContextBoundBiFunction<>(bridgedCtxs(), function) {});
+	}
+
+	@Override
+	public <T> ContextBoundSupplier<T> bindSupplierToContext(Supplier<T> supplier) {
+		return leakDetector.recordCapture(new ContextBoundSupplier<>(bridgedCtxs(), supplier));
+	}
+
+
+
+	/**
+	 * Returns the active {@code Contexts} ensuring that the current gRPC {@code Context} will be
+	 * attached when executing within them: usually by the {@link ListenerEventContext} among them
+	 * that {@link ListenerEventContext#bridgeGrpcContext(Context) caches} it, otherwise by a
+	 * {@link GrpcContextAttacher} prepended to them.
+	 */
+	List<TrackableContext<?>> bridgedCtxs() {
+		final var ctxs = ContextTracker.getActiveContexts(trackers);
+		final var grpcCtx = Context.current();
+		ListenerEventContext eventCtx = null;
+		for (var ctx: ctxs) {
+			if (ctx instanceof ListenerEventContext) {
+				eventCtx = (ListenerEventContext) ctx;
+				break;
+			}
+		}
+		final Context grpcCtxToAttach;
+		if (eventCtx != null) {
+			if (eventCtx.bridgeGrpcContext(grpcCtx)) return ctxs;
+			grpcCtxToAttach = grpcCtx.withValue(ListenerEventContext.GRPC_CONTEXT_KEY, eventCtx);
+		} else {
+			if (grpcCtx == Context.ROOT) return ctxs;
+			grpcCtxToAttach = grpcCtx;
+		}
+		final var bridgedCtxs = new ArrayList<TrackableContext<?>>(ctxs.size() + 1);
+		bridgedCtxs.add(new GrpcContextAttacher(grpcCtxToAttach));  // first is entered innermost
+		bridgedCtxs.addAll(ctxs);
+		return bridgedCtxs;
+	}
+
+
+
+	/**
+	 * Pseudo-{@code Context} that only {@link Context#attach() attaches} its {@link #grpcCtx}
+	 * while executing within it. Not tracked by any {@link ContextTracker}.
+	 */
+	static class GrpcContextAttacher extends TrackableContext<GrpcContextAttacher> {
+
+		final Context grpcCtx;
+
+		GrpcContextAttacher(Context grpcCtx) {
+			super(UNUSED_TRACKER);
+			this.grpcCtx = grpcCtx;
+		}
+
+		@Override
+		public <R, E1 extends Throwable, E2 extends Throwable, E3 extends Throwable,
+				E4 extends Throwable>
+		R executeWithinSelf(Throwing4Computation<R, E1, E2, E3, E4> task) throws E1, E2, E3, E4 {
+			final var previous = grpcCtx.attach();
+			try {
+				return task.perform();
+			} finally {
+				grpcCtx.detach(previous);
+			}
+		}
+
+		@Override
+		public <E1 extends Throwable, E2 extends Throwable, E3 extends Throwable,
+				E4 extends Throwable>
+		void executeWithinSelf(Throwing4Task<E1, E2, E3, E4> task) throws E1, E2, E3, E4 {
+			final var previous = grpcCtx.attach();
+			try {
+				task.execute();
+			} finally {
+				grpcCtx.detach(previous);
+			}
+		}
+
+		@Override
+		public void executeWithinSelf(Runnable task) {
+			final var previous = grpcCtx.attach();
+			try {
+				task.run();
+			} finally {
+				grpcCtx.detach(previous);
+			}
+		}
+
+		static final ContextTracker<GrpcContextAttacher> UNUSED_TRACKER = new ContextTracker<>();
+
+		private static final long serialVersionUID = 2381604624935717358L;
+	}
+}
@@ -1,6 +1,10 @@
 // Copyright 2021 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
 package pl.morgwai.base.grpc.scopes;
 
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
 import com.google.inject.*;
 import io.grpc.*;
 import pl.morgwai.base.guice.scopes.*;
@@ -37,15 +41,35 @@ public class GrpcModule extends ScopeModule {
 	/**
 	 * Scopes {@code Object}s to the {@code Context}s of RPCs (either a {@link ServerRpcContext} or
 	 * a {@link ClientRpcContext}).
+	 * RPC-scoped {@code Object}s are often accessed concurrently by multiple {@code Threads}, so
+	 * retrieving already created ones is lock-free and creating a new one locks only its
+	 * {@code Key}.
 	 */
-	public final Scope rpcScope = newInducedContextScope(
+	public final Scope rpcScope = new RpcScope(newInducedContextScope(
 		"GrpcModule.rpcScope",
 		RpcContext.class,
 		listenerEventScope,
 		ListenerEventContext::getRpcContext
-	);
+	));
+
+	/**
+	 * Reports {@code Contexts} of finished RPCs that are still reachable. Disabled by default:
+	 * see {@link ContextLeakDetector#enable(long, java.util.concurrent.TimeUnit, double)}.
+	 */
+	public final ContextLeakDetector leakDetector = new ContextLeakDetector();
 
-	public final ContextBinder ctxBinder = newContextBinder();
+	/**
+	 * Whether this module bridges {@link io.grpc.Context gRPC Context}.
+	 * @see #GrpcModule(boolean)
+	 */
+	public final boolean bridgesGrpcContext;
+
+	/**
+	 * Binds tasks to the current {@code Contexts} of all gRPC {@code Scopes} (and to the current
+	 * {@link io.grpc.Context gRPC Context} if this module
+	 * {@link #GrpcModule(boolean) bridges it}).
+	 */
+	public final ContextBinder ctxBinder;
 
 
 
@@ -54,8 +78,8 @@ public class GrpcModule extends ScopeModule {
 	 * {@link ServerInterceptors#intercept(BindableService, ServerInterceptor...) intercepted} by
 	 * this {@code Interceptor}.
 	 */
-	public final ServerInterceptor serverInterceptor =
-			new ServerContextInterceptor(listenerEventScope.tracker);
+	public final ServerContextInterceptor serverInterceptor =
+			new ServerContextInterceptor(listenerEventScope.tracker, leakDetector);
 
 	/**
 	 * All {@link Channel client Channels} must be
@@ -66,8 +90,8 @@ public class GrpcModule extends ScopeModule {
 	 * {@link ClientRpcContext the Context of such call} with its parent {@link RpcContext}, so that
 	 * they will share all {@link #rpcScope RPC-scoped} {@code Object}s.
 	 */
-	public final ClientInterceptor nestingClientInterceptor =
-			new ClientContextInterceptor(listenerEventScope.tracker, true);
+	public final ClientContextInterceptor nestingClientInterceptor =
+			new ClientContextInterceptor(listenerEventScope.tracker, leakDetector, true);
 
 	/**
 	 * All {@link Channel client Channels} must be
@@ -76,6 +100,211 @@ public class GrpcModule extends ScopeModule {
 	 * This {@code Interceptor} will keep {@link ClientRpcContext}s separate even if they were made
 	 * within some enclosing {@link RpcContext}s.
 	 */
-	public final ClientInterceptor clientInterceptor =
-			new ClientContextInterceptor(listenerEventScope.tracker, false);
+	public final ClientContextInterceptor clientInterceptor =
+			new ClientContextInterceptor(listenerEventScope.tracker, leakDetector, false);
+
+
+
+	/** Creates a module that does not {@link #GrpcModule(boolean) bridge gRPC Context}. */
+	public GrpcModule() {
+		this(false);
+	}
+
+	/**
+	 * Creates a module that optionally bridges {@link io.grpc.Context gRPC Context}: if
+	 * {@code bridgeGrpcContext} is {@code true}, {@code Runnables} bound by {@link #ctxBinder}
+	 * (and thus tasks passed to {@link ContextTrackingExecutor}s using it) additionally carry the
+	 * current gRPC {@code Context} with the current {@link ListenerEventContext} stored under
+	 * {@link ListenerEventContext#GRPC_CONTEXT_KEY}. This way a single
+	 * {@code ContextTrackingExecutor} propagates both gRPC {@code Context} (deadlines,
+	 * cancellation, values of other libraries) and gRPC {@code Scopes}, without additionally
+	 * wrapping it with {@link io.grpc.Context#currentContextExecutor(Executor)
+	 * Context.currentContextExecutor(...)}. This is a convenience: the derived gRPC
+	 * {@code Context} is created once per {@link ListenerEventContext} and attached by it, so
+	 * bound tasks are not wrapped additionally, but each of them still swaps both gRPC
+	 * {@code Context} and {@code ListenerEventContext} while running.
+	 * <p>
+	 * {@code Listener} events are still tracked by {@link #listenerEventScope}'s
+	 * {@link ContextTracker}, as gRPC attaches its {@code Context} for each event anyway.</p>
+	 */
+	public GrpcModule(boolean bridgeGrpcContext) {
+		bridgesGrpcContext = bridgeGrpcContext;
+		ctxBinder = newContextBinder();
+	}
+
+
+
+	/**
+	 * Intercepts {@code service} with {@code ctxFreeInterceptors}, {@link #serverInterceptor} and
+	 * {@code ctxDependentInterceptors}, that will be executed <b>in the order given</b> (unlike
+	 * {@link ServerInterceptors#intercept(ServerServiceDefinition, ServerInterceptor...)
+	 * ServerInterceptors.intercept(...)} that executes the last one first).
+	 * <p>
+	 * Interceptors that may cheaply reject RPCs without using any gRPC {@code Scope}s (for example
+	 * authentication or rate-limiting) should be passed as {@code ctxFreeInterceptors}, so that no
+	 * {@code Context}s are created for the RPCs they reject. Interceptors that need
+	 * {@code Context}s (like {@link ConcurrencyLimitingInterceptor}) should be passed as
+	 * {@code ctxDependentInterceptors}.</p>
+	 */
+	public ServerServiceDefinition interceptInOrder(
+		ServerServiceDefinition service,
+		List<? extends ServerInterceptor> ctxFreeInterceptors,
+		ServerInterceptor... ctxDependentInterceptors
+	) {
+		return ServerContextInterceptor.interceptInOrder(
+				service, ctxFreeInterceptors, serverInterceptor, ctxDependentInterceptors);
+	}
+
+
+
+	/**
+	 * Creates a new {@link ConcurrencyLimitingInterceptor} that adapts concurrency limit of each
+	 * gRPC method within {@code [minLimit, maxLimit]} range starting from {@code initialLimit}.
+	 * The returned {@code Interceptor} must be applied after {@link #serverInterceptor}.
+	 */
+	public ConcurrencyLimitingInterceptor newConcurrencyLimitingInterceptor(
+		int initialLimit,
+		int minLimit,
+		int maxLimit
+	) {
+		return new ConcurrencyLimitingInterceptor(
+				listenerEventScope.tracker, initialLimit, minLimit, maxLimit);
+	}
+
+
+
+	/**
+	 * Creates a new {@link PriorityDispatcher} with {@code poolSize} {@code Threads} named after
+	 * {@code name}, that reads priorities of RPCs from {@code priorityHeader}. Services dispatched by
+	 * the returned {@code PriorityDispatcher} must be intercepted with its
+	 * {@link PriorityDispatcher#serverInterceptor} instead of {@link #serverInterceptor}.
+	 */
+	public PriorityDispatcher newPriorityDispatcher(
+		String name,
+		int poolSize,
+		Metadata.Key<String> priorityHeader,
+		int defaultPriority,
+		int maxPriority
+	) {
+		return new PriorityDispatcher(
+			name,
+			poolSize,
+			priorityHeader,
+			defaultPriority,
+			maxPriority,
+			listenerEventScope.tracker,
+			ctxBinder,
+			leakDetector
+		);
+	}
+
+
+
+	/**
+	 * Creates a new {@link RpcScheduler} named after {@code name}, whose timer {@code Thread} ticks
+	 * every {@code tickDuration} and passes expired tasks to {@code taskExecutor}.
+	 */
+	public RpcScheduler newRpcScheduler(
+		String name,
+		long tickDuration,
+		TimeUnit tickUnit,
+		Executor taskExecutor
+	) {
+		return new RpcScheduler(
+			name,
+			tickDuration,
+			tickUnit,
+			RPC_SCHEDULER_WHEEL_SIZE,
+			taskExecutor,
+			listenerEventScope.tracker,
+			ctxBinder
+		);
+	}
+
+	/** Number of buckets of timer wheels of {@link RpcScheduler}s. */
+	static final int RPC_SCHEDULER_WHEEL_SIZE = 512;
+
+
+
+	/**
+	 * Creates a new {@link StreamHeartbeats} ticking every {@code interval} on {@code timer}.
+	 * Should be called at startup rather than within an RPC, so that the periodic tick is not
+	 * bound to any RPC (for example if {@code timer} is an {@link RpcScheduler}).
+	 */
+	public StreamHeartbeats newStreamHeartbeats(
+		ScheduledExecutorService timer,
+		long interval,
+		TimeUnit unit
+	) {
+		return new StreamHeartbeats(timer, interval, unit, listenerEventScope.tracker, ctxBinder);
+	}
+
+
+
+	/**
+	 * Creates a new process-wide {@link RpcPinningCache} of at most {@code maxSize} (unpinned)
+	 * entries, that loads missing values with {@code loader} and pins them for the duration of
+	 * RPCs that obtained them.
+	 */
+	public <K, V> RpcPinningCache<K, V> newRpcPinningCache(
+		int maxSize,
+		Function<? super K, ? extends V> loader
+	) {
+		return new RpcPinningCache<>(listenerEventScope.tracker, maxSize, loader);
+	}
+
+
+
+	/**
+	 * Creates a new {@link ClientRetryContext} for attempts of a single logical client call, that
+	 * will share {@link #rpcScope RPC-scoped} {@code Objects}. Attempts must be started with
+	 * {@link ClientContextInterceptor#RETRY_CONTEXT} option set to the returned
+	 * {@code ClientRetryContext}, which should be {@link ClientRetryContext#close() closed} once
+	 * the logical call is completed.
+	 * <p>
+	 * The returned {@code ClientRetryContext} is not nested within any enclosing
+	 * {@link RpcContext}. Attempts made via {@link #nestingClientInterceptor} should use
+	 * {@link ClientContextInterceptor#newClientRetryContext()
+	 * nestingClientInterceptor.newClientRetryContext()} instead.</p>
+	 */
+	public ClientRetryContext newClientRetryContext() {
+		return clientInterceptor.newClientRetryContext();
+	}
+
+
+
+	/**
+	 * Returns a {@link ContextBinder} that additionally records bindings of {@code Contexts} of RPCs
+	 * tracked by {@link #leakDetector} and, if this module
+	 * {@link #GrpcModule(boolean) bridges gRPC Context}, binds {@code Runnables} also to the
+	 * current {@link io.grpc.Context gRPC Context}.
+	 */
+	@Override
+	public ContextBinder newContextBinder() {
+		if (bridgesGrpcContext) return new GrpcContextBinder(getAllTrackers(), leakDetector);
+		return new ContextLeakDetector.RecordingContextBinder(getAllTrackers(), leakDetector);
+	}
+
+
+
+	/**
+	 * Creates a new {@link RpcSubtaskScope} for the RPC of the current
+	 * {@link ListenerEventContext}. Subtasks will be executed on virtual {@code Threads} if the JVM
+	 * supports them, on new platform {@code Threads} otherwise.
+	 * @throws IllegalStateException if called outside of any {@link ListenerEventContext}.
+	 */
+	public RpcSubtaskScope newRpcSubtaskScope() {
+		return newRpcSubtaskScope(RpcSubtaskScope.DEFAULT_EXECUTOR);
+	}
+
+	/**
+	 * Creates a new {@link RpcSubtaskScope} for the RPC of the current
+	 * {@link ListenerEventContext}, that will execute subtasks on {@code executor}.
+	 * @throws IllegalStateException if called outside of any {@link ListenerEventContext}.
+	 */
+	public RpcSubtaskScope newRpcSubtaskScope(Executor executor) {
+		final var eventCtx = listenerEventScope.tracker.getCurrentContext();
+		if (eventCtx == null) throw new IllegalStateException("not within a ListenerEventContext");
+		return new RpcSubtaskScope(eventCtx.rpcContext, ctxBinder, executor);
+	}
 }
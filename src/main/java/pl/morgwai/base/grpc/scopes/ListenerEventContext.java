@@ -1,6 +1,10 @@
 // Copyright 2021 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
 package pl.morgwai.base.grpc.scopes;
 
+import java.util.function.Supplier;
+
+import pl.morgwai.base.function.Throwing4Computation;
+import pl.morgwai.base.function.Throwing4Task;
 import pl.morgwai.base.guice.scopes.ContextTracker;
 import pl.morgwai.base.guice.scopes.TrackableContext;
 
@@ -58,10 +62,147 @@ public class ListenerEventContext extends TrackableContext<ListenerEventContext>
 	public RpcContext getRpcContext() { return  rpcContext; }
 	public final RpcContext rpcContext;
 
+	/**
+	 * Key under which {@link GrpcModule#GrpcModule(boolean) GrpcModules bridging gRPC Context}
+	 * store the {@code ListenerEventContext} in {@link io.grpc.Context gRPC Contexts} propagated
+	 * together with tasks bound by their {@link GrpcModule#ctxBinder}. Code that receives only a
+	 * gRPC {@code Context} (for example from a library propagating it with
+	 * {@link io.grpc.Context#currentContextExecutor(java.util.concurrent.Executor)}) may restore
+	 * gRPC {@code Scopes} with
+	 * {@code ListenerEventContext.GRPC_CONTEXT_KEY.get().executeWithinSelf(task)}.
+	 */
+	public static final io.grpc.Context.Key<ListenerEventContext> GRPC_CONTEXT_KEY =
+			io.grpc.Context.key("pl.morgwai.base.grpc.scopes.ListenerEventContext");
+
+	/**
+	 * gRPC {@code Context} derived from {@link #bridgedGrpcCtxBase} with this ctx stored under
+	 * {@link #GRPC_CONTEXT_KEY}, {@link io.grpc.Context#attach() attached} whenever executing
+	 * within this ctx. Set by {@link #bridgeGrpcContext(io.grpc.Context)}.
+	 */
+	volatile io.grpc.Context bridgedGrpcCtx;
+	io.grpc.Context bridgedGrpcCtxBase;  // written before bridgedGrpcCtx, never changed after
+
 
 
 	ListenerEventContext(RpcContext rpcContext, ContextTracker<ListenerEventContext> tracker) {
 		super(tracker);
 		this.rpcContext = rpcContext;
 	}
+
+
+
+	/**
+	 * Executes {@code listenerCall} within this ctx, recording a {@link ListenerJfrEvent} of
+	 * {@code eventType} if JFR is currently recording it. Used by the interceptors for each
+	 * {@code Listener} event.
+	 */
+	void executeEvent(String eventType, Runnable listenerCall) {
+		if ( !JFR_AVAILABLE) {
+			executeWithinSelf(listenerCall);
+			return;
+		}
+		final var jfrEvent = ListenerJfrEvent.beginIfEnabled(rpcContext, eventType);
+		try {
+			executeWithinSelf(listenerCall);
+		} finally {
+			if (jfrEvent != null) jfrEvent.commit();
+		}
+	}
+
+
+
+	/** Variant of {@link #executeEvent(String, Runnable)} for {@code Listener} creation. */
+	<T> T executeEvent(String eventType, Supplier<T> listenerCreation) {
+		if ( !JFR_AVAILABLE) return executeWithinSelf(listenerCreation::get);
+		final var jfrEvent = ListenerJfrEvent.beginIfEnabled(rpcContext, eventType);
+		try {
+			return executeWithinSelf(listenerCreation::get);
+		} finally {
+			if (jfrEvent != null) jfrEvent.commit();
+		}
+	}
+
+
+
+	/**
+	 * Ensures {@code grpcCtx} will be carried by closures bound to this ctx by a
+	 * {@link GrpcContextBinder}. Upon the first call, derives {@link #bridgedGrpcCtx} from
+	 * {@code grpcCtx}, so that it is created at most once per event regardless of the number of
+	 * bound closures.
+	 * @return {@code true} if {@link #bridgedGrpcCtx} is either {@code grpcCtx} or derived from it,
+	 *     {@code false} if the caller must attach a separately derived gRPC {@code Context}.
+	 */
+	boolean bridgeGrpcContext(io.grpc.Context grpcCtx) {
+		if (bridgedGrpcCtx == null) {
+			synchronized (this) {
+				if (bridgedGrpcCtx == null) {
+					bridgedGrpcCtxBase = grpcCtx;
+					bridgedGrpcCtx = GRPC_CONTEXT_KEY.get(grpcCtx) == this
+							? grpcCtx
+							: grpcCtx.withValue(GRPC_CONTEXT_KEY, this);
+				}
+			}
+		}
+		return grpcCtx == bridgedGrpcCtxBase || grpcCtx == bridgedGrpcCtx;
+	}
+
+
+
+	@Override
+	public <R, E1 extends Throwable, E2 extends Throwable, E3 extends Throwable,
+			E4 extends Throwable>
+	R executeWithinSelf(Throwing4Computation<R, E1, E2, E3, E4> task) throws E1, E2, E3, E4 {
+		final var grpcCtx = bridgedGrpcCtx;
+		if (grpcCtx == null) return super.executeWithinSelf(task);
+		final var previous = grpcCtx.attach();
+		try {
+			return super.executeWithinSelf(task);
+		} finally {
+			grpcCtx.detach(previous);
+		}
+	}
+
+
+
+	@Override
+	public <E1 extends Throwable, E2 extends Throwable, E3 extends Throwable,
+			E4 extends Throwable>
+	void executeWithinSelf(Throwing4Task<E1, E2, E3, E4> task) throws E1, E2, E3, E4 {
+		final var grpcCtx = bridgedGrpcCtx;
+		if (grpcCtx == null) {
+			super.executeWithinSelf(task);
+			return;
+		}
+		final var previous = grpcCtx.attach();
+		try {
+			super.executeWithinSelf(task);
+		} finally {
+			grpcCtx.detach(previous);
+		}
+	}
+
+
+
+	@Override
+	public void executeWithinSelf(Runnable task) {
+		final var grpcCtx = bridgedGrpcCtx;
+		if (grpcCtx == null) {
+			super.executeWithinSelf(task);
+			return;
+		}
+		final var previous = grpcCtx.attach();
+		try {
+			super.executeWithinSelf(task);
+		} finally {
+			grpcCtx.detach(previous);
+		}
+	}
+
+
+
+	/**
+	 * Whether {@link ListenerJfrEvent} may be used: {@code jdk.jfr} module may be absent from
+	 * custom runtime images.
+	 */
+	static final boolean JFR_AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
 }
@@ -0,0 +1,59 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import jdk.jfr.*;
+
+
+
+/**
+ * JFR event spanning handling of a single {@code Listener} event within its
+ * {@link ListenerEventContext}, so that CPU samples and other events recorded in the same
+ * {@code Thread} during this time can be attributed to a gRPC method and a specific RPC.
+ * Recorded by {@link ListenerEventContext#executeEvent(String, Runnable)} only if the JVM contains
+ * the {@code jdk.jfr} module: this class must not be referenced otherwise.
+ * <p>
+ * Enabled by default in recordings. To reduce recording size in production, a threshold may be
+ * configured, for example
+ * {@code jfr configure pl.morgwai.grpc.scopes.ListenerEvent#threshold=1ms}.</p>
+ */
+@Name(ListenerJfrEvent.NAME)
+@Label("gRPC Listener Event")
+@Description("Handling of a single gRPC Listener event within its ListenerEventContext")
+@Category({"gRPC", "Scopes"})
+@StackTrace(false)
+class ListenerJfrEvent extends Event {
+
+
+
+	static final String NAME = "pl.morgwai.grpc.scopes.ListenerEvent";
+
+	@Label("Method")
+	String fullMethodName;
+
+	@Label("Event Type")
+	String eventType;
+
+	@Label("RPC Id")
+	@Description("Identifies events of the same RPC within a single JVM run")
+	long rpcId;
+
+	@Label("Server Side")
+	boolean serverSide;
+
+
+
+	/**
+	 * Returns a new already {@link #begin() begun} event or {@code null} if this event type is not
+	 * enabled in any currently running recording.
+	 */
+	static ListenerJfrEvent beginIfEnabled(RpcContext rpcCtx, String eventType) {
+		final var event = new ListenerJfrEvent();  // eliminated by escape analysis when disabled
+		if ( !event.isEnabled()) return null;
+		event.fullMethodName = rpcCtx.getFullMethodName();
+		event.eventType = eventType;
+		event.rpcId = rpcCtx.getRecordingId();
+		event.serverSide = rpcCtx instanceof ServerRpcContext;
+		event.begin();
+		return event;
+	}
+}
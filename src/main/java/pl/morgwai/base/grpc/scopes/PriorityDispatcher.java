@@ -0,0 +1,297 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import io.grpc.*;
+import pl.morgwai.base.guice.scopes.ContextBinder;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static java.util.logging.Level.WARNING;
+
+
+
+/**
+ * Executes {@link ServerCall.Listener} events of server RPCs and tasks bound to their
+ * {@code Context}s on a pool of {@code Threads} in the order of priorities of their RPCs, so that
+ * for example interactive RPCs are not starved by batch ones under load.
+ * <p>
+ * The priority of each RPC is read from the {@link #priorityHeader request header} by the
+ * {@link #serverInterceptor} of a given {@code PriorityDispatcher} and is available via
+ * {@link ServerRpcContext#getPriority()}. Higher values mean higher priorities. RPCs without the
+ * header or with a malformed one get the default priority, values outside of
+ * {@code [0, maxPriority]} are clamped. Events and tasks of the same priority are executed in FIFO
+ * order. Priorities are strict: as long as there are any pending higher priority events or tasks,
+ * lower priority ones wait.</p>
+ * <p>
+ * Events of each RPC are still delivered one at a time and in order, but by
+ * {@code PriorityDispatcher}'s {@code Threads} instead of the gRPC {@code Executor}, which only
+ * enqueues them. The only exception is
+ * {@link ServerCallHandler#startCall(ServerCall, Metadata) startCall(...)} that must return
+ * synchronously. Exceptions thrown by the {@code Listener} close the RPC with
+ * {@link Status#UNKNOWN} similarly as gRPC does.</p>
+ * <p>
+ * Instances can be obtained with
+ * {@link GrpcModule#newPriorityDispatcher(String, int, Metadata.Key, int, int)} and their
+ * {@link #serverInterceptor} must be used <b>instead</b> of {@link GrpcModule#serverInterceptor}:
+ * </p>
+ * <pre>{@code
+ * final var dispatcher = grpcModule.newPriorityDispatcher(
+ *         "prioritizedService", 8, Metadata.Key.of("x-priority", ASCII_STRING_MARSHALLER), 5, 9);
+ * serverBuilder.addService(ServerInterceptors.intercept(service, dispatcher.serverInterceptor));
+ * // tasks passed to execute(...) get the priority of the RPC within which they were submitted
+ * dispatcher.execute(() -> doSomeAsyncWork(request));
+ * // ...
+ * dispatcher.shutdown();}</pre>
+ */
+public class PriorityDispatcher implements Executor {
+
+
+
+	public String getName() { return name; }
+	final String name;
+
+	/** Request header containing priority of RPCs as an integer. */
+	public final Metadata.Key<String> priorityHeader;
+
+	public int getDefaultPriority() { return defaultPriority; }
+	final int defaultPriority;
+
+	public int getMaxPriority() { return maxPriority; }
+	final int maxPriority;
+
+	final ContextTracker<ListenerEventContext> ctxTracker;
+	final ContextBinder ctxBinder;
+	final ThreadPoolExecutor pool;
+	final AtomicLong sequence = new AtomicLong(0L);
+
+	/**
+	 * Services whose events should be dispatched by this {@code PriorityDispatcher} must be
+	 * {@link ServerInterceptors#intercept(BindableService, ServerInterceptor...) intercepted} by
+	 * this {@code Interceptor} instead of {@link GrpcModule#serverInterceptor}.
+	 */
+	public final ServerContextInterceptor serverInterceptor;
+
+
+
+	PriorityDispatcher(
+		String name,
+		int poolSize,
+		Metadata.Key<String> priorityHeader,
+		int defaultPriority,
+		int maxPriority,
+		ContextTracker<ListenerEventContext> ctxTracker,
+		ContextBinder ctxBinder,
+		ContextLeakDetector leakDetector
+	) {
+		if (maxPriority < 0 || defaultPriority < 0 || defaultPriority > maxPriority) {
+			throw new IllegalArgumentException(
+					"priorities must satisfy 0 <= defaultPriority <= maxPriority");
+		}
+		this.name = name;
+		this.priorityHeader = priorityHeader;
+		this.defaultPriority = defaultPriority;
+		this.maxPriority = maxPriority;
+		this.ctxTracker = ctxTracker;
+		this.ctxBinder = ctxBinder;
+		final var threadNumber = new AtomicInteger(0);
+		pool = new ThreadPoolExecutor(
+			poolSize,
+			poolSize,
+			0L,
+			TimeUnit.SECONDS,
+			new PriorityBlockingQueue<>(),
+			(task) -> new Thread(task, name + '-' + threadNumber.incrementAndGet())
+		);
+		serverInterceptor = new ServerContextInterceptor(ctxTracker, leakDetector, this);
+	}
+
+
+
+	/**
+	 * Same as {@link GrpcModule#interceptInOrder(ServerServiceDefinition, List,
+	 * ServerInterceptor...)}, but uses {@link #serverInterceptor} of this dispatcher.
+	 */
+	public ServerServiceDefinition interceptInOrder(
+		ServerServiceDefinition service,
+		List<? extends ServerInterceptor> ctxFreeInterceptors,
+		ServerInterceptor... ctxDependentInterceptors
+	) {
+		return ServerContextInterceptor.interceptInOrder(
+				service, ctxFreeInterceptors, serverInterceptor, ctxDependentInterceptors);
+	}
+
+
+
+	/**
+	 * Executes {@code task} within the {@code Context}s of the calling {@code Thread} with the
+	 * priority of the current server RPC (or its nearest enclosing server RPC in case of nested
+	 * client RPCs). Outside of any server RPC {@link #getDefaultPriority() the default priority} is
+	 * used.
+	 * @throws RejectedExecutionException if this dispatcher has been {@link #shutdown() shutdown}.
+	 */
+	@Override
+	public void execute(Runnable task) {
+		final var boundTask = ctxBinder.bindToContext(task);
+		pool.execute(new PrioritizedTask(getCurrentPriority()) {
+			@Override public void run() { boundTask.run(); }
+		});
+	}
+
+
+
+	int getCurrentPriority() {
+		final var eventCtx = ctxTracker.getCurrentContext();
+		if (eventCtx == null) return defaultPriority;
+		final var rootCtx = eventCtx.getRpcContext().rootCtx;
+		return (rootCtx instanceof ServerRpcContext)
+				? ((ServerRpcContext) rootCtx).getPriority()
+				: defaultPriority;
+	}
+
+
+
+	/** Reads the priority of a new RPC from its {@code headers}. */
+	int readPriority(Metadata headers) {
+		final var priorityString = headers.get(priorityHeader);
+		if (priorityString == null) return defaultPriority;
+		try {
+			return Math.max(0, Math.min(maxPriority, Integer.parseInt(priorityString.trim())));
+		} catch (NumberFormatException e) {
+			return defaultPriority;
+		}
+	}
+
+
+
+	/** Initiates an orderly shutdown: already enqueued events and tasks will still be executed. */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	public boolean isShutdown() {
+		return pool.isShutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return pool.awaitTermination(timeout, unit);
+	}
+
+
+
+	/**
+	 * Element of {@link #pool}'s queue: ordered by priority descending and then by the
+	 * {@link #sequence} number assigned upon enqueueing.
+	 */
+	abstract class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+
+		final int priority;
+		long sequenceNumber;
+
+		PrioritizedTask(int priority) {
+			this.priority = priority;
+			sequenceNumber = sequence.getAndIncrement();
+		}
+
+		@Override
+		public int compareTo(PrioritizedTask other) {
+			if (priority != other.priority) return Integer.compare(other.priority, priority);
+			return Long.compare(sequenceNumber, other.sequenceNumber);
+		}
+	}
+
+
+
+	/**
+	 * Serializes {@code Listener} events of a single RPC: at most 1 event of a given RPC is
+	 * enqueued in {@link #pool} at a time (as this {@code RpcEventQueue} itself, so no additional
+	 * allocation happens per event), the rest waits in {@link #events}.
+	 */
+	class RpcEventQueue extends PrioritizedTask implements Executor {
+
+		final ServerRpcContext rpcContext;
+		final Queue<Runnable> events = new ConcurrentLinkedQueue<>();
+		final AtomicBoolean enqueued = new AtomicBoolean(false);
+
+
+
+		RpcEventQueue(ServerRpcContext rpcContext) {
+			super(rpcContext.getPriority());
+			this.rpcContext = rpcContext;
+		}
+
+
+
+		/** Called by {@link ServerContextInterceptor.ListenerProxy} for each {@code Listener} event. */
+		@Override
+		public void execute(Runnable event) {
+			events.add(event);
+			enqueueIfPending();
+		}
+
+
+
+		void enqueueIfPending() {
+			if (events.isEmpty() || !enqueued.compareAndSet(false, true)) return;
+			sequenceNumber = sequence.getAndIncrement();
+			try {
+				pool.execute(this);
+			} catch (RejectedExecutionException e) {
+				enqueued.set(false);
+				throw e;
+			}
+		}
+
+
+
+		@Override
+		public void run() {
+			try {
+				final var event = events.poll();
+				if (event != null) event.run();
+			} catch (RuntimeException e) {
+				closeRpc(e);
+			} catch (Error e) {
+				closeRpc(e);
+				throw e;
+			} finally {
+				enqueued.set(false);
+				enqueueIfPending();
+			}
+		}
+
+
+
+		void closeRpc(Throwable listenerException) {
+			final var rpc = rpcContext.getRpc();
+			log.log(WARNING, "exception while handling a Listener event of RPC "
+					+ rpcContext.getFullMethodName(), listenerException);
+			if (rpc == null) return;
+			try {
+				rpc.close(
+					Status.UNKNOWN
+						.withDescription("Application error processing RPC")
+						.withCause(listenerException),
+					new Metadata()
+				);
+			} catch (RuntimeException ignored) {}  // already closed
+		}
+	}
+
+
+
+	@Override
+	public String toString() {
+		return "PriorityDispatcher { name=\"" + name + "\" }";
+	}
+
+
+
+	static final Logger log = Logger.getLogger(PriorityDispatcher.class.getName());
+}
@@ -1,14 +1,36 @@
 // Copyright 2021 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
 package pl.morgwai.base.grpc.scopes;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.logging.Logger;
+
+import com.google.inject.Key;
+import com.google.inject.Provider;
 import io.grpc.Metadata;
 import pl.morgwai.base.guice.scopes.InjectionContext;
 
+import static java.util.logging.Level.WARNING;
+
 
 
 /**
  * Context of either a {@link io.grpc.ClientCall client} or a {@link io.grpc.ServerCall server} RPC.
  * {@link GrpcModule#rpcScope Induced} by {@link ListenerEventContext}.
+ * <p>
+ * Once the RPC {@link #isFinished() finishes} and all
+ * {@link #addOnFinishHandler(Runnable) finish handlers} have been called, references to heavy
+ * RPC-related objects (the RPC object itself and {@link Metadata headers}) are released, so that
+ * a {@code Context} that escaped the RPC (for example captured by some async task that outlived
+ * it) retains only a compact summary of the RPC: {@link #getFullMethodName() method name},
+ * {@link #getDurationNanos() timing} and its final state (see subclasses).
+ * Getters of the released objects return {@code null} afterwards: as the release may happen
+ * concurrently with other {@code Threads} accessing this {@code Context}, their results should be
+ * stored in a local variable and checked for {@code null} before use.</p>
  * @see ClientRpcContext
  * @see ServerRpcContext
  */
@@ -16,8 +38,277 @@ public abstract class RpcContext extends InjectionContext {
 
 
 
+	/**
+	 * Returns request headers of this RPC or {@code null} if it has already
+	 * {@link #isFinished() finished}.
+	 */
 	public Metadata getRequestHeaders() { return requestHeaders; }
-	public final Metadata requestHeaders;
+	private volatile Metadata requestHeaders;
+
+	/** Full name of the gRPC method of this RPC, retained also after the RPC finishes. */
+	public abstract String getFullMethodName();
+
+	/** {@link System#nanoTime()} when this RPC started. */
+	public long getStartNanos() { return startNanos; }
+	private final long startNanos = System.nanoTime();
+
+	/**
+	 * Returns the time elapsed since this RPC started or its total duration if it has already
+	 * {@link #isFinished() finished}.
+	 */
+	public synchronized long getDurationNanos() {
+		return (finished ? finishNanos : System.nanoTime()) - startNanos;
+	}
+	private long finishNanos;  // guarded by this
+
+	/**
+	 * Whether this RPC has already finished. For server RPCs this means that either
+	 * {@link io.grpc.ServerCall.Listener#onComplete() onComplete()} or
+	 * {@link io.grpc.ServerCall.Listener#onCancel() onCancel()} was called, for client RPCs that
+	 * {@link io.grpc.ClientCall.Listener#onClose(io.grpc.Status, Metadata) onClose(...)} was.
+	 */
+	public synchronized boolean isFinished() { return finished; }
+	private boolean finished = false;
+
+	private List<Runnable> finishHandlers;  // guarded by this, created lazily
+
+	/**
+	 * Approximate number of bytes held by {@link GrpcModule#rpcScope RPC-scoped} {@code Object}s of
+	 * this RPC, as reported by them via {@link #accountMemory(long)}.
+	 */
+	public long getMemoryUsage() {
+		return rootCtx != this ? rootCtx.memoryUsage : memoryUsage;
+	}
+	private volatile long memoryUsage = 0L;
+	private static final AtomicLongFieldUpdater<RpcContext> MEMORY_USAGE =
+			AtomicLongFieldUpdater.newUpdater(RpcContext.class, "memoryUsage");
+
+	/**
+	 * Identifies this RPC in {@link ListenerJfrEvent}s. Assigned upon the first recorded event,
+	 * so that RPCs that are not recorded do not contend on {@link #nextRecordingId}.
+	 */
+	long getRecordingId() {
+		var id = recordingId;
+		if (id == 0L) {
+			synchronized (this) {
+				id = recordingId;
+				if (id == 0L) {
+					id = nextRecordingId.incrementAndGet();
+					recordingId = id;
+				}
+			}
+		}
+		return id;
+	}
+	volatile long recordingId = 0L;
+	static final AtomicLong nextRecordingId = new AtomicLong(0L);
+
+	/** Set by {@link ContextLeakDetector#track(RpcContext)} if this RPC was sampled. */
+	ContextLeakDetector.TrackedRpc leakTracking;
+
+	/** {@code null} unless this ctx was joined with its parent by a nesting client interceptor. */
+	final RpcContext enclosingCtx;
+
+	/**
+	 * The outermost ctx of the chain of {@link #enclosingCtx}s ({@code this} if this ctx is not
+	 * nested), that stores {@link GrpcModule#rpcScope RPC-scoped} {@code Objects} and accounts
+	 * memory of the whole chain. Resolved once upon construction, so that scoped lookups from
+	 * deeply nested client RPCs take constant time instead of walking the chain.
+	 */
+	final RpcContext rootCtx;
+
+	/**
+	 * Storage of {@link GrpcModule#rpcScope RPC-scoped} {@code Object}s. Each {@code Key} is
+	 * mapped to its own {@link ScopedObjectSlot} that is inserted once and never replaced, so that
+	 * subsequent retrievals are lock-free and creation of an {@code Object} locks only its own slot.
+	 * Created upon the first scoped lookup, so that RPCs rejected before using
+	 * {@link GrpcModule#rpcScope} do not allocate it.
+	 */
+	private volatile ConcurrentMap<Key<?>, ScopedObjectSlot> scopedObjects;
+
+
+
+	/**
+	 * Registers {@code handler} to be called when this RPC finishes (see {@link #isFinished()}).
+	 * Handlers are called within the {@link ListenerEventContext} of the {@code Listener} event
+	 * that finished the RPC, after the event has been handled by the wrapped {@code Listener}. If
+	 * this RPC has already finished, {@code handler} is called immediately by the calling
+	 * {@code Thread}.
+	 */
+	public void addOnFinishHandler(Runnable handler) {
+		synchronized (this) {
+			if ( !finished) {
+				if (finishHandlers == null) finishHandlers = new ArrayList<>(2);
+				finishHandlers.add(handler);
+				return;
+			}
+		}
+		handler.run();
+	}
+
+
+
+	/**
+	 * Unregisters {@code handler} previously registered with {@link #addOnFinishHandler(Runnable)}.
+	 * @return {@code true} if {@code handler} was registered and has not been called yet.
+	 */
+	public synchronized boolean removeOnFinishHandler(Runnable handler) {
+		return finishHandlers != null && finishHandlers.remove(handler);
+	}
+
+
+
+	/**
+	 * Adds {@code deltaBytes} (negative when memory is freed) to the {@link #getMemoryUsage()
+	 * memory usage} of this RPC. {@link GrpcModule#rpcScope RPC-scoped} {@code Object}s that may
+	 * accumulate significant amounts of data (caches, buffers of long streams) should
+	 * {@link com.google.inject.Inject inject} their {@code RpcContext} and report their growth and
+	 * shrinkage via this method.
+	 * <p>
+	 * In case of {@link ServerRpcContext}s, exceeding the limit set with
+	 * {@link ServerContextInterceptor#setRpcMemoryLimit(long)} causes the RPC to be closed with
+	 * {@link io.grpc.Status#RESOURCE_EXHAUSTED} (see
+	 * {@link ServerRpcContext#isMemoryLimitExceeded()}). Client RPCs joined with their parent by
+	 * {@link GrpcModule#nestingClientInterceptor} share the memory usage and limit of the parent.
+	 * </p>
+	 * @return {@code false} if this allocation exceeded the limit of this RPC, so the caller should
+	 *     stop accumulating data, {@code true} otherwise.
+	 */
+	public boolean accountMemory(long deltaBytes) {
+		if (rootCtx != this) return rootCtx.accountMemory(deltaBytes);
+		final var usage = MEMORY_USAGE.addAndGet(this, deltaBytes);
+		if (deltaBytes <= 0L || usage <= getMemoryLimit()) return true;
+		memoryLimitExceeded(usage);
+		return false;
+	}
+
+
+
+	/** Limit of {@link #getMemoryUsage()} of this RPC: no limit by default. */
+	long getMemoryLimit() {
+		return Long.MAX_VALUE;
+	}
+
+
+
+	/** Called by {@link #accountMemory(long)} when {@link #getMemoryLimit()} is exceeded. */
+	void memoryLimitExceeded(long usage) {}
+
+
+
+	/**
+	 * Marks this RPC as finished, calls all handlers registered with
+	 * {@link #addOnFinishHandler(Runnable)} and {@link #releaseRpcResources() releases} references
+	 * to heavy RPC-related objects. Called by {@code ListenerProxies} of
+	 * {@link ServerContextInterceptor} and {@link ClientContextInterceptor}.
+	 */
+	void markFinished() {
+		final List<Runnable> handlers;
+		synchronized (this) {
+			if (finished) return;
+			finished = true;
+			finishNanos = System.nanoTime();
+			handlers = finishHandlers;
+			finishHandlers = null;
+		}
+		if (handlers != null) {
+			for (var handler: handlers) {
+				try {
+					handler.run();
+				} catch (RuntimeException e) {
+					log.log(WARNING, "RPC finish handler has thrown", e);
+				}
+			}
+		}
+		releaseRpcResources();
+	}
+
+
+
+	/**
+	 * Releases references to heavy RPC-related objects, retaining only data needed for the
+	 * summary of this RPC. Subclasses must call {@code super}.
+	 */
+	void releaseRpcResources() {
+		requestHeaders = null;
+	}
+
+
+
+	/**
+	 * Returns the {@code Object} scoped to this RPC under {@code key}, first obtaining it from
+	 * {@code producer} if it has not been yet.
+	 * Retrieval of already produced {@code Object}s does not acquire any lock. Production
+	 * synchronizes only on the slot of {@code key}, so slow or nested productions of other
+	 * {@code Object}s are not blocked by it (unlike
+	 * {@link ConcurrentHashMap#computeIfAbsent(Object, java.util.function.Function)
+	 * computeIfAbsent(...)} that locks a whole hash-bin and throws if a nested production hits the
+	 * same bin).
+	 * Used by {@link RpcScope}.
+	 */
+	<T> T getOrProduce(Key<T> key, Provider<T> producer) {
+		if (rootCtx != this) return rootCtx.getOrProduce(key, producer);
+		var scopedObjects = this.scopedObjects;
+		if (scopedObjects == null) {
+			synchronized (this) {
+				scopedObjects = this.scopedObjects;
+				if (scopedObjects == null) {
+					scopedObjects = new ConcurrentHashMap<>();
+					this.scopedObjects = scopedObjects;
+				}
+			}
+		}
+		var slot = scopedObjects.get(key);
+		if (slot == null) {
+			final var newSlot = new ScopedObjectSlot();
+			slot = scopedObjects.putIfAbsent(key, newSlot);
+			if (slot == null) slot = newSlot;
+		}
+		@SuppressWarnings("unchecked")
+		final var scopedObject = (T) slot.getOrProduce(producer);
+		return scopedObject;
+	}
+
+
+
+	/**
+	 * Removes the {@code Object} scoped to this RPC under {@code key}, so that the next
+	 * {@link GrpcModule#rpcScope RPC-scoped} injection will obtain a new one.
+	 * @return {@code true} if there was an {@code Object} stored under {@code key}.
+	 */
+	@Override
+	public boolean removeScopedObject(Key<?> key) {
+		if (rootCtx != this) return rootCtx.removeScopedObject(key);
+		final var scopedObjects = this.scopedObjects;
+		if (scopedObjects == null) return false;
+		final var slot = scopedObjects.remove(key);
+		return slot != null && slot.scopedObject != null;
+	}
+
+
+
+	static class ScopedObjectSlot {
+
+		/** {@link #NULL} if the producer returned {@code null}. */
+		volatile Object scopedObject;
+
+		Object getOrProduce(Provider<?> producer) {
+			var result = scopedObject;
+			if (result == null) {
+				synchronized (this) {
+					result = scopedObject;
+					if (result == null) {
+						result = producer.get();
+						if (result == null) result = NULL;
+						scopedObject = result;
+					}
+				}
+			}
+			return result == NULL ? null : result;
+		}
+
+		static final Object NULL = new Object();
+	}
 
 
 
@@ -28,5 +319,11 @@ public abstract class RpcContext extends InjectionContext {
 	RpcContext(Metadata requestHeaders, RpcContext enclosingCtx) {
 		super(enclosingCtx);
 		this.requestHeaders = requestHeaders;
+		this.enclosingCtx = enclosingCtx;
+		rootCtx = enclosingCtx != null ? enclosingCtx.rootCtx : this;
 	}
+
+
+
+	static final Logger log = Logger.getLogger(RpcContext.class.getName());
 }
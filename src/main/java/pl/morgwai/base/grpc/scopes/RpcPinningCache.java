@@ -0,0 +1,383 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+
+
+/**
+ * Process-wide bounded cache with an RPC-scoped read-through view: within a given RPC, each key is
+ * looked up in the cache (and loaded on a miss) at most once and its entry is pinned until the RPC
+ * {@link RpcContext#isFinished() finishes}, so that all {@link ListenerEventContext}s and tasks of
+ * the RPC observe the same value even if the entry is {@link #invalidate(Object) invalidated}
+ * meanwhile, while pinned entries are never evicted. Across RPCs, entries are shared, so that
+ * frequently used values are loaded only once for many RPCs.
+ * <p>
+ * Entries are distributed among segments, each guarded by its own lock. Within a segment, eviction
+ * follows a simplified W-TinyLFU policy: new entries enter a small LRU window, from which they are
+ * admitted to the main LRU area only if they were accessed more frequently (according to a
+ * count-min sketch of recent accesses) than the main area's LRU victim, so that a scan of
+ * one-off keys does not flush frequently used entries. If all entries of a segment are pinned, it
+ * temporarily exceeds its capacity.</p>
+ * <p>
+ * Values are loaded outside of segment locks, synchronizing only on their own entry. Client RPCs
+ * joined by {@link GrpcModule#nestingClientInterceptor} with their parent share its pins.</p>
+ * <p>
+ * Instances can be obtained with {@link GrpcModule#newRpcPinningCache(int, Function)}.</p>
+ */
+public class RpcPinningCache<K, V> {
+
+
+
+	final ContextTracker<ListenerEventContext> ctxTracker;
+	final Function<? super K, ? extends V> loader;
+	final Segment<K, V>[] segments;
+	final int segmentMask;
+
+	/** Stores {@link RpcPins} of this cache in {@link RpcContext}s. */
+	final Key<RpcPins<K, V>> pinsKey;
+
+	/** Number of values obtained from {@link #loader} so far. */
+	public long getLoadCount() { return loadCount.get(); }
+	final AtomicLong loadCount = new AtomicLong(0L);
+
+
+
+	RpcPinningCache(
+		ContextTracker<ListenerEventContext> ctxTracker,
+		int maxSize,
+		Function<? super K, ? extends V> loader
+	) {
+		this(ctxTracker, maxSize, loader, Runtime.getRuntime().availableProcessors() * 4);
+	}
+
+	RpcPinningCache(
+		ContextTracker<ListenerEventContext> ctxTracker,
+		int maxSize,
+		Function<? super K, ? extends V> loader,
+		int maxSegmentCount
+	) {
+		if (maxSize < 2) throw new IllegalArgumentException("maxSize must be at least 2");
+		this.ctxTracker = ctxTracker;
+		this.loader = loader;
+		final var segmentCount =
+				Integer.highestOneBit(Math.max(1, Math.min(maxSegmentCount, maxSize / 2)));
+		segmentMask = segmentCount - 1;
+		@SuppressWarnings("unchecked")
+		final var segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+		final var segmentCapacity = (maxSize + segmentCount - 1) / segmentCount;
+		for (int i = 0; i < segmentCount; i++) segments[i] = new Segment<>(segmentCapacity);
+		this.segments = segments;
+		@SuppressWarnings("unchecked")
+		final var pinsKey = (Key<RpcPins<K, V>>) (Key<?>) Key.get(
+				RpcPins.class, Names.named("RpcPinningCache-" + nextId.incrementAndGet()));
+		this.pinsKey = pinsKey;
+	}
+
+	static final AtomicInteger nextId = new AtomicInteger(0);
+
+
+
+	/**
+	 * Returns the value for {@code key} pinned by the current RPC, loading it if this is the first
+	 * lookup of {@code key} within the current RPC and it is not cached.
+	 * @throws IllegalStateException if called outside of any {@link ListenerEventContext}.
+	 */
+	public V get(K key) {
+		final var eventCtx = ctxTracker.getCurrentContext();
+		if (eventCtx == null) throw new IllegalStateException("not within a ListenerEventContext");
+		final var rpcCtx = eventCtx.getRpcContext().rootCtx;
+		return rpcCtx.getOrProduce(pinsKey, () -> newRpcPins(rpcCtx)).get(key);
+	}
+
+
+
+	RpcPins<K, V> newRpcPins(RpcContext rpcCtx) {
+		final var pins = new RpcPins<>(this);
+		rpcCtx.addOnFinishHandler(pins::release);
+		return pins;
+	}
+
+
+
+	/**
+	 * Removes the entry for {@code key} from the cache, so that RPCs that have not pinned it yet
+	 * will load a new value. RPCs that have already pinned it keep observing the old value.
+	 */
+	public void invalidate(K key) {
+		final var hash = spread(key.hashCode());
+		segments[hash & segmentMask].invalidate(key);
+	}
+
+
+
+	/** Returns the number of entries currently cached. */
+	public int size() {
+		int size = 0;
+		for (var segment: segments) size += segment.size();
+		return size;
+	}
+
+
+
+	/** Pins and returns the entry for {@code key}, creating it if needed. */
+	Entry<K, V> pin(K key) {
+		final var hash = spread(key.hashCode());
+		return segments[hash & segmentMask].pin(key, hash);
+	}
+
+	void unpin(Entry<K, V> entry) {
+		segments[entry.hash & segmentMask].unpin(entry);
+	}
+
+
+
+	static int spread(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x45d9f3b;
+		return hash ^ (hash >>> 16);
+	}
+
+
+
+	/** Entries pinned by a single RPC. */
+	static class RpcPins<K, V> {
+
+		final RpcPinningCache<K, V> cache;
+		final Map<K, Entry<K, V>> entries = new HashMap<>();  // guarded by this
+		boolean released = false;  // guarded by this
+
+
+
+		RpcPins(RpcPinningCache<K, V> cache) {
+			this.cache = cache;
+		}
+
+
+
+		V get(K key) {
+			Entry<K, V> entry;
+			var retained = true;
+			synchronized (this) {
+				entry = entries.get(key);
+				if (entry == null) {
+					entry = cache.pin(key);
+					if (released) {
+						retained = false;
+					} else {
+						entries.put(key, entry);
+					}
+				}
+			}
+			if (retained) return entry.getOrLoad(cache);
+			try {  // the RPC has already finished: don't retain the pin
+				return entry.getOrLoad(cache);
+			} finally {
+				cache.unpin(entry);
+			}
+		}
+
+
+
+		/** Called when the RPC finishes. */
+		void release() {
+			final Collection<Entry<K, V>> toUnpin;
+			synchronized (this) {
+				released = true;
+				toUnpin = new ArrayList<>(entries.values());
+				entries.clear();
+			}
+			for (var entry: toUnpin) cache.unpin(entry);
+		}
+	}
+
+
+
+	static class Entry<K, V> {
+
+		final K key;
+		final int hash;
+		int pins = 0;  // guarded by the Segment
+		volatile Object value;  // NULL if the loader returned null
+
+
+
+		Entry(K key, int hash) {
+			this.key = key;
+			this.hash = hash;
+		}
+
+
+
+		V getOrLoad(RpcPinningCache<K, V> cache) {
+			var result = value;
+			if (result == null) {
+				synchronized (this) {
+					result = value;
+					if (result == null) {
+						result = cache.loader.apply(key);
+						cache.loadCount.incrementAndGet();
+						if (result == null) result = NULL;
+						value = result;
+					}
+				}
+			}
+			@SuppressWarnings("unchecked")
+			final var typedResult = (V) (result == NULL ? null : result);
+			return typedResult;
+		}
+
+		static final Object NULL = new Object();
+	}
+
+
+
+	/**
+	 * A stripe of the cache with a small LRU {@link #window} and a {@link #main} LRU area, with
+	 * admission from the former to the latter guarded by a {@link FrequencySketch}.
+	 */
+	static class Segment<K, V> {
+
+		final LinkedHashMap<K, Entry<K, V>> window = new LinkedHashMap<>(16, 0.75f, true);
+		final LinkedHashMap<K, Entry<K, V>> main = new LinkedHashMap<>(16, 0.75f, true);
+		final int windowCapacity;
+		final int mainCapacity;
+		final FrequencySketch sketch;
+
+
+
+		Segment(int capacity) {
+			windowCapacity = Math.max(1, capacity / 100);
+			mainCapacity = Math.max(1, capacity - windowCapacity);
+			sketch = new FrequencySketch(capacity);
+		}
+
+
+
+		synchronized Entry<K, V> pin(K key, int hash) {
+			sketch.increment(hash);
+			var entry = window.get(key);
+			if (entry == null) entry = main.get(key);
+			if (entry == null) {
+				entry = new Entry<>(key, hash);
+				entry.pins++;
+				window.put(key, entry);
+				evictIfNeeded();
+			} else {
+				entry.pins++;
+			}
+			return entry;
+		}
+
+
+
+		synchronized void unpin(Entry<K, V> entry) {
+			entry.pins--;
+			if (window.size() > windowCapacity) evictIfNeeded();
+		}
+
+
+
+		synchronized void invalidate(K key) {
+			if (window.remove(key) == null) main.remove(key);
+		}
+
+
+
+		synchronized int size() {
+			return window.size() + main.size();
+		}
+
+
+
+		/** Moves or evicts unpinned entries from {@link #window} until it fits its capacity. */
+		void evictIfNeeded() {
+			while (window.size() > windowCapacity) {
+				final var candidate = eldestUnpinned(window);
+				if (candidate == null) return;
+				window.remove(candidate.key);
+				if (main.size() < mainCapacity) {
+					main.put(candidate.key, candidate);
+					continue;
+				}
+				final var victim = eldestUnpinned(main);
+				if (victim == null) continue;  // main is full of pinned entries: drop candidate
+				if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+					main.remove(victim.key);
+					main.put(candidate.key, candidate);
+				}  // else candidate is dropped
+			}
+		}
+
+
+
+		static <K, V> Entry<K, V> eldestUnpinned(LinkedHashMap<K, Entry<K, V>> area) {
+			for (var entry: area.values()) {
+				if (entry.pins == 0) return entry;
+			}
+			return null;
+		}
+	}
+
+
+
+	/**
+	 * Count-min sketch of approximate access frequencies, periodically halved so that it reflects
+	 * recent accesses. Not thread-safe: guarded by its {@link Segment}.
+	 */
+	static class FrequencySketch {
+
+		static final int DEPTH = 4;
+		static final int MAX_COUNT = 15;
+		static final int[] SEEDS = {0x97cb3127, 0xb3d5f0a9, 0x5bd1e995, 0x1b873593};
+
+		final int[] counters;
+		final int widthMask;
+		final int resetThreshold;
+		int additions = 0;
+
+
+
+		FrequencySketch(int capacity) {
+			final var width = Math.max(16, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+			counters = new int[DEPTH * width];
+			widthMask = width - 1;
+			resetThreshold = 10 * Math.max(capacity, 16);
+		}
+
+
+
+		int index(int hash, int row) {
+			final var rowHash = spread(hash * SEEDS[row]);
+			return row * (widthMask + 1) + (rowHash & widthMask);
+		}
+
+
+
+		void increment(int hash) {
+			for (int row = 0; row < DEPTH; row++) {
+				final var i = index(hash, row);
+				if (counters[i] < MAX_COUNT) counters[i]++;
+			}
+			if (++additions >= resetThreshold) {
+				for (int i = 0; i < counters.length; i++) counters[i] >>>= 1;
+				additions /= 2;
+			}
+		}
+
+
+
+		int frequency(int hash) {
+			int min = MAX_COUNT;
+			for (int row = 0; row < DEPTH; row++) min = Math.min(min, counters[index(hash, row)]);
+			return min;
+		}
+	}
+}
@@ -0,0 +1,467 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import pl.morgwai.base.guice.scopes.ContextBinder;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.logging.Level.WARNING;
+
+
+
+/**
+ * {@link ScheduledExecutorService} for per-RPC timers (heartbeats of bidi streams, idle timeouts,
+ * delayed retries), that executes tasks within the {@code Context}s active when they were
+ * scheduled and automatically cancels them when the RPC within which they were scheduled
+ * {@link RpcContext#isFinished() finishes}, so that timers do not outlive cancelled RPCs and
+ * {@code ScheduledFutures} of finished RPCs are not retained.
+ * <p>
+ * Timing is performed by a single hashed wheel timer {@code Thread}, so that thousands of
+ * concurrent RPCs share 1 cheap {@code Thread} and scheduling or cancelling a task takes constant
+ * time regardless of the number of pending tasks. The price is precision: tasks are executed up
+ * to 1 {@link #getTickNanos() tick} after their delay passes (never before), including tasks
+ * passed to {@link #execute(Runnable)}. Expired tasks are executed by the {@code taskExecutor}
+ * passed to {@link GrpcModule#newRpcScheduler(String, long, TimeUnit, Executor)}: tasks that are
+ * short and non-blocking (like sending a heartbeat message) may be executed directly by the timer
+ * {@code Thread} by passing {@code Runnable::run} as the {@code taskExecutor}.</p>
+ * <p>
+ * Tasks scheduled outside of any {@link ListenerEventContext} are not cancelled automatically.
+ * After {@link #shutdown()}, already scheduled delayed tasks are still executed, while periodic
+ * ones are cancelled.</p>
+ * <p>
+ * Usage:</p>
+ * <pre>{@code
+ * final var scheduler =
+ *         grpcModule.newRpcScheduler("heartbeats", 10L, MILLISECONDS, Runnable::run);
+ * // within a Listener event of a bidi RPC:
+ * scheduler.scheduleAtFixedRate(() -> responseObserver.onNext(heartbeat), 5L, 5L, SECONDS);
+ * // ...the heartbeat is cancelled automatically when the RPC finishes
+ * // ...
+ * scheduler.shutdown();}</pre>
+ */
+public class RpcScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+
+
+	public String getName() { return name; }
+	final String name;
+
+	/** Resolution of this scheduler. */
+	public long getTickNanos() { return tickNanos; }
+	final long tickNanos;
+
+	final Executor taskExecutor;
+	final ContextTracker<ListenerEventContext> ctxTracker;
+	final ContextBinder ctxBinder;
+
+	/** Heads of the lists of tasks of each bucket, accessed only by {@link #timerThread}. */
+	final WheelTask<?>[] wheel;
+	final int wheelMask;
+	final long startNanos;
+	long currentTick = 0L;  // accessed only by timerThread
+
+	/** Tasks to be added to {@link #wheel} by {@link #timerThread} upon the next tick. */
+	final Queue<WheelTask<?>> additions = new ConcurrentLinkedQueue<>();
+	/** Tasks to be removed from {@link #wheel} by {@link #timerThread} upon the next tick. */
+	final Queue<WheelTask<?>> cancellations = new ConcurrentLinkedQueue<>();
+	/** Number of tasks scheduled and not {@link FutureTask#isDone() done} yet. */
+	final AtomicInteger unfinishedCount = new AtomicInteger(0);
+
+	volatile int state = RUNNING;
+	static final int RUNNING = 0;
+	static final int SHUTDOWN = 1;
+	static final int STOP = 2;
+	int processedState = RUNNING;  // accessed only by timerThread
+
+	final Thread timerThread;
+
+
+
+	RpcScheduler(
+		String name,
+		long tickDuration,
+		TimeUnit tickUnit,
+		int wheelSize,
+		Executor taskExecutor,
+		ContextTracker<ListenerEventContext> ctxTracker,
+		ContextBinder ctxBinder
+	) {
+		if (tickDuration <= 0L) throw new IllegalArgumentException("tickDuration must be positive");
+		if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+			throw new IllegalArgumentException("wheelSize must be within [1, 2^30]");
+		}
+		this.name = name;
+		this.tickNanos = tickUnit.toNanos(tickDuration);
+		this.taskExecutor = taskExecutor;
+		this.ctxTracker = ctxTracker;
+		this.ctxBinder = ctxBinder;
+		final var bucketCount =
+				wheelSize == 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+		wheel = new WheelTask<?>[bucketCount];
+		wheelMask = bucketCount - 1;
+		startNanos = System.nanoTime();
+		timerThread = new Thread(this::runTimer, name + "-timer");
+		timerThread.setDaemon(true);
+		timerThread.start();
+	}
+
+
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return enqueue(new WheelTask<Void>(command, null, triggerNanos(delay, unit), 0L));
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		return enqueue(new WheelTask<>(callable, triggerNanos(delay, unit)));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(
+		Runnable command,
+		long initialDelay,
+		long period,
+		TimeUnit unit
+	) {
+		if (period <= 0L) throw new IllegalArgumentException("period must be positive");
+		return enqueue(new WheelTask<Void>(
+				command, null, triggerNanos(initialDelay, unit), unit.toNanos(period)));
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(
+		Runnable command,
+		long initialDelay,
+		long delay,
+		TimeUnit unit
+	) {
+		if (delay <= 0L) throw new IllegalArgumentException("delay must be positive");
+		return enqueue(new WheelTask<Void>(
+				command, null, triggerNanos(initialDelay, unit), -unit.toNanos(delay)));
+	}
+
+
+
+	/** Executes {@code command} upon the next tick of this scheduler. */
+	@Override
+	public void execute(Runnable command) {
+		schedule(command, 0L, NANOSECONDS);
+	}
+
+	@Override
+	public Future<?> submit(Runnable task) {
+		return schedule(task, 0L, NANOSECONDS);
+	}
+
+	@Override
+	public <T> Future<T> submit(Runnable task, T result) {
+		return schedule(Executors.callable(task, result), 0L, NANOSECONDS);
+	}
+
+	@Override
+	public <T> Future<T> submit(Callable<T> task) {
+		return schedule(task, 0L, NANOSECONDS);
+	}
+
+
+
+	static long triggerNanos(long delay, TimeUnit unit) {
+		return System.nanoTime() + unit.toNanos(Math.max(0L, delay));
+	}
+
+
+
+	<V> WheelTask<V> enqueue(WheelTask<V> task) {
+		if (state != RUNNING) throw new RejectedExecutionException(this + " is shut down");
+		unfinishedCount.incrementAndGet();
+		if (task.rpcCtx != null) task.rpcCtx.addOnFinishHandler(task.rpcFinishHandler);
+		additions.add(task);
+		if (state == STOP) task.cancel(false);  // raced with shutdownNow()
+		return task;
+	}
+
+
+
+	/**
+	 * Disallows scheduling of new tasks. Already scheduled delayed tasks will still be executed,
+	 * periodic ones will be cancelled.
+	 */
+	@Override
+	public synchronized void shutdown() {
+		if (state == RUNNING) state = SHUTDOWN;
+	}
+
+
+
+	/**
+	 * Disallows scheduling of new tasks and cancels all scheduled ones. As tasks are cancelled
+	 * asynchronously by the timer {@code Thread}, this method always returns an empty list.
+	 */
+	@Override
+	public synchronized List<Runnable> shutdownNow() {
+		state = STOP;
+		return List.of();
+	}
+
+
+
+	@Override
+	public boolean isShutdown() {
+		return state != RUNNING;
+	}
+
+
+
+	@Override
+	public boolean isTerminated() {
+		return state != RUNNING && !timerThread.isAlive();
+	}
+
+
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		final var timeoutMillis = unit.toMillis(timeout);
+		if (timeoutMillis > 0L) timerThread.join(timeoutMillis);
+		return isTerminated();
+	}
+
+
+
+	void runTimer() {
+		while (true) {
+			waitForNextTick();
+			for (var task = additions.poll(); task != null; task = additions.poll()) add(task);
+			for (var task = cancellations.poll(); task != null; task = cancellations.poll()) {
+				if (task.bucket >= 0) unlink(task);
+			}
+			final var currentState = state;
+			if (currentState != processedState) {
+				cancelPending(currentState == STOP);
+				processedState = currentState;
+			}
+			expire((int) (currentTick & wheelMask));
+			currentTick++;
+			if (currentState != RUNNING && unfinishedCount.get() == 0) return;
+		}
+	}
+
+
+
+	void waitForNextTick() {
+		final var tickEndNanos = startNanos + (currentTick + 1L) * tickNanos;
+		var remainingNanos = tickEndNanos - System.nanoTime();
+		while (remainingNanos > 0L) {
+			LockSupport.parkNanos(this, remainingNanos);
+			remainingNanos = tickEndNanos - System.nanoTime();
+		}
+	}
+
+
+
+	/**
+	 * Adds {@code task} to {@link #wheel}, unless it should have been cancelled by
+	 * {@link #cancelPending(boolean)} already: a periodic task may be re-added by
+	 * {@link WheelTask#runOnce()} that raced with {@link #shutdown()}.
+	 */
+	void add(WheelTask<?> task) {
+		if (processedState == STOP || (processedState != RUNNING && task.isPeriodic())) {
+			task.cancel(false);
+			return;
+		}
+		if (task.isCancelled()) return;
+		final var triggerTick = Math.max(0L, task.triggerNanos - startNanos) / tickNanos;
+		final var tick = Math.max(triggerTick, currentTick);
+		task.remainingRounds = (tick - currentTick) / wheel.length;
+		final var bucket = (int) (tick & wheelMask);
+		task.bucket = bucket;
+		task.prev = null;
+		task.next = wheel[bucket];
+		if (task.next != null) task.next.prev = task;
+		wheel[bucket] = task;
+	}
+
+
+
+	void unlink(WheelTask<?> task) {
+		if (task.prev != null) {
+			task.prev.next = task.next;
+		} else {
+			wheel[task.bucket] = task.next;
+		}
+		if (task.next != null) task.next.prev = task.prev;
+		task.prev = null;
+		task.next = null;
+		task.bucket = -1;
+	}
+
+
+
+	void expire(int bucket) {
+		var task = wheel[bucket];
+		while (task != null) {
+			final var next = task.next;
+			if (task.isCancelled()) {
+				unlink(task);
+			} else if (task.remainingRounds <= 0L) {
+				unlink(task);
+				dispatch(task);
+			} else {
+				task.remainingRounds--;
+			}
+			task = next;
+		}
+	}
+
+
+
+	void dispatch(WheelTask<?> task) {
+		try {
+			taskExecutor.execute(task.boundRun);
+		} catch (RejectedExecutionException e) {
+			task.reject(e);
+		} catch (RuntimeException e) {
+			log.log(WARNING, "taskExecutor of " + this + " has thrown", e);
+			task.reject(e);
+		}
+	}
+
+
+
+	/** Cancels all tasks in {@link #wheel} if {@code all} or only periodic ones otherwise. */
+	void cancelPending(boolean all) {
+		for (var head: wheel) {
+			for (var task = head; task != null; task = task.next) {
+				if (all || task.isPeriodic()) task.cancel(false);
+			}
+		}
+	}
+
+
+
+	/** Task executed within {@code Context}s active when it was scheduled. */
+	class WheelTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+
+		/** Positive for fixed-rate, negative for fixed-delay and 0 for non-periodic tasks. */
+		final long period;
+		volatile long triggerNanos;
+
+		/** RPC within which this task was scheduled or {@code null}. */
+		final RpcContext rpcCtx;
+		final Runnable rpcFinishHandler = () -> cancel(false);
+		final Runnable boundRun;
+
+		// accessed only by timerThread
+		int bucket = -1;
+		long remainingRounds;
+		WheelTask<?> prev;
+		WheelTask<?> next;
+
+
+
+		WheelTask(Runnable command, V result, long triggerNanos, long period) {
+			super(command, result);
+			this.triggerNanos = triggerNanos;
+			this.period = period;
+			rpcCtx = getCurrentRpcCtx();
+			boundRun = ctxBinder.bindToContext((Runnable) this::runOnce);
+		}
+
+		WheelTask(Callable<V> callable, long triggerNanos) {
+			super(callable);
+			this.triggerNanos = triggerNanos;
+			this.period = 0L;
+			rpcCtx = getCurrentRpcCtx();
+			boundRun = ctxBinder.bindToContext((Runnable) this::runOnce);
+		}
+
+		RpcContext getCurrentRpcCtx() {
+			final var eventCtx = ctxTracker.getCurrentContext();
+			return eventCtx != null ? eventCtx.getRpcContext() : null;
+		}
+
+
+
+		void runOnce() {
+			if ( !isPeriodic()) {
+				run();
+				return;
+			}
+			if ( !runAndReset()) return;  // cancelled or has thrown
+			if (period > 0L) {
+				triggerNanos += period;
+			} else {
+				triggerNanos = System.nanoTime() - period;
+			}
+			if (state != RUNNING) {
+				cancel(false);
+				return;
+			}
+			additions.add(this);
+		}
+
+
+
+		void reject(Throwable cause) {
+			setException(cause);
+		}
+
+
+
+		@Override
+		public boolean isPeriodic() {
+			return period != 0L;
+		}
+
+
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(triggerNanos - System.nanoTime(), NANOSECONDS);
+		}
+
+
+
+		@Override
+		public int compareTo(Delayed other) {
+			if (other == this) return 0;
+			return Long.compare(getDelay(NANOSECONDS), other.getDelay(NANOSECONDS));
+		}
+
+
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			final var cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) cancellations.add(this);
+			return cancelled;
+		}
+
+
+
+		@Override
+		protected void done() {
+			if (rpcCtx != null) rpcCtx.removeOnFinishHandler(rpcFinishHandler);
+			unfinishedCount.decrementAndGet();
+		}
+	}
+
+
+
+	@Override
+	public String toString() {
+		return "RpcScheduler { name=\"" + name + "\" }";
+	}
+
+
+
+	static final Logger log = Logger.getLogger(RpcScheduler.class.getName());
+}
@@ -0,0 +1,76 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import com.google.inject.*;
+import pl.morgwai.base.guice.scopes.ContextScope;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+
+
+/**
+ * {@link GrpcModule#rpcScope}: scopes {@code Object}s to {@link RpcContext}s induced by the
+ * current {@link ListenerEventContext}. Instead of the generic storage of
+ * {@link pl.morgwai.base.guice.scopes.InjectionContext}, scoped {@code Object}s are stored using
+ * {@link RpcContext#getOrProduce(Key, Provider)}, which is optimized for concurrent access
+ * from multiple {@code Threads} (gRPC {@code Listener} events and tasks executed by
+ * {@link pl.morgwai.base.guice.scopes.ContextTrackingExecutor}s).
+ */
+class RpcScope implements Scope {
+
+
+
+	final String name;
+	final ContextTracker<ListenerEventContext> tracker;
+
+
+
+	/**
+	 * Uses {@link ContextScope#name name} and {@link ContextScope#tracker tracker} of
+	 * {@code inducedScope} obtained from
+	 * {@link pl.morgwai.base.guice.scopes.ScopeModule#newInducedContextScope(String, Class,
+	 * ContextScope, java.util.function.Function)}, so that {@link RpcContext} is still registered
+	 * for injection.
+	 */
+	RpcScope(ContextScope<ListenerEventContext> inducedScope) {
+		this.name = inducedScope.name;
+		this.tracker = inducedScope.tracker;
+	}
+
+
+
+	@Override
+	public <T> Provider<T> scope(Key<T> key, Provider<T> producer) {
+		return new Provider<>() {
+
+			@Override
+			public T get() {
+				final var eventCtx = tracker.getCurrentContext();
+				if (eventCtx == null) {
+					throw new OutOfScopeException(String.format(
+						NO_CONTEXT_MESSAGE,
+						name,
+						Thread.currentThread().getName()
+					));
+				}
+				return eventCtx.getRpcContext().getOrProduce(key, producer);
+			}
+
+			@Override
+			public String toString() {
+				return "RpcScope.Provider { scope=\"" + name + "\", key=" + key + ", producer="
+						+ producer + " }";
+			}
+		};
+	}
+
+
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+
+
+	static final String NO_CONTEXT_MESSAGE = "no Context of Scope \"%s\" in Thread \"%s\"";
+}
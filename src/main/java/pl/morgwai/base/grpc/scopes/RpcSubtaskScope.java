@@ -0,0 +1,197 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import pl.morgwai.base.guice.scopes.ContextBinder;
+
+
+
+/**
+ * Scope of subtasks forked within some {@link ListenerEventContext} to perform parallel sub-work of
+ * its RPC, modeled after {@code StructuredTaskScope}.
+ * Each {@link #fork(Callable) forked} subtask is executed within the {@link ListenerEventContext}
+ * (and thus also the {@link RpcContext}) that was active when its {@code RpcSubtaskScope} was
+ * created. When the RPC {@link RpcContext#isFinished() finishes} (including when it gets
+ * cancelled), all subtasks that are still running get cancelled.
+ * <p>
+ * Instances can be obtained with {@link GrpcModule#newRpcSubtaskScope()} and should be used in a
+ * try-with-resources block, so that all subtasks are {@link #join() joined} before the event
+ * handling method exits:</p>
+ * <pre>{@code
+ * try (final var subtaskScope = grpcModule.newRpcSubtaskScope()) {
+ *     final var part1 = subtaskScope.fork(() -> computePart1(request));
+ *     final var part2 = subtaskScope.fork(() -> computePart2(request));
+ *     subtaskScope.join();
+ *     responseObserver.onNext(combine(part1.get(), part2.get()));
+ * }}</pre>
+ * <p>
+ * {@link #close()} {@link #shutdown() cancels} all subtasks that are still running and waits for
+ * them to exit, so no subtask outlives its scope. Subtasks that were not started yet are not waited
+ * for, so {@code close()} returns even if the {@link Executor} discarded some of them.</p>
+ */
+public class RpcSubtaskScope implements AutoCloseable {
+
+
+
+	final RpcContext rpcContext;
+	final ContextBinder ctxBinder;
+	final Executor executor;
+
+	final Set<Subtask<?>> runningSubtasks = new HashSet<>();  // guarded by this
+	boolean shutdown = false;  // guarded by this
+	final Runnable shutdownHandler = this::shutdown;
+
+
+
+	RpcSubtaskScope(RpcContext rpcContext, ContextBinder ctxBinder, Executor executor) {
+		this.rpcContext = rpcContext;
+		this.ctxBinder = ctxBinder;
+		this.executor = executor;
+		rpcContext.addOnFinishHandler(shutdownHandler);
+	}
+
+
+
+	/**
+	 * Starts executing {@code subtask} within the {@code Context}s that were active when this
+	 * scope was created.
+	 * @throws IllegalStateException if this scope has already been {@link #shutdown() shutdown}.
+	 */
+	public <T> Future<T> fork(Callable<T> subtask) {
+		final var boundSubtask = new Subtask<>(ctxBinder.bindToContext(subtask));
+		synchronized (this) {
+			if (shutdown) throw new IllegalStateException("scope already shutdown");
+			runningSubtasks.add(boundSubtask);
+		}
+		try {
+			executor.execute(boundSubtask);
+		} catch (RejectedExecutionException e) {
+			subtaskExited(boundSubtask);
+			throw e;
+		}
+		return boundSubtask;
+	}
+
+
+
+	/**
+	 * Waits until all subtasks forked so far (including those forked by other subtasks while
+	 * waiting) complete. Failures of subtasks are not propagated: they should be examined using
+	 * {@code Future}s returned by {@link #fork(Callable)}.
+	 */
+	public synchronized void join() throws InterruptedException {
+		while ( !runningSubtasks.isEmpty()) wait();
+	}
+
+
+
+	/**
+	 * Prevents forking new subtasks and cancels all subtasks that are still running, interrupting
+	 * their {@code Threads}. Does not wait for them to exit.
+	 * This method is called automatically when the RPC finishes.
+	 */
+	public void shutdown() {
+		final Subtask<?>[] toCancel;
+		synchronized (this) {
+			if (shutdown) return;
+			shutdown = true;
+			toCancel = runningSubtasks.toArray(new Subtask<?>[0]);
+		}
+		for (var subtask: toCancel) subtask.cancel(true);
+	}
+
+
+
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+
+
+	/**
+	 * {@link #shutdown() Shuts down} this scope and waits for all its subtasks to exit.
+	 * If the calling {@code Thread} is interrupted while waiting, it continues to wait and the
+	 * interrupt status is restored afterwards.
+	 */
+	@Override
+	public void close() {
+		shutdown();
+		rpcContext.removeOnFinishHandler(shutdownHandler);
+		boolean interrupted = false;
+		synchronized (this) {
+			while ( !runningSubtasks.isEmpty()) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+
+
+	synchronized void subtaskExited(Subtask<?> subtask) {
+		runningSubtasks.remove(subtask);
+		if (runningSubtasks.isEmpty()) notifyAll();
+	}
+
+
+
+	class Subtask<T> extends FutureTask<T> {
+
+		volatile boolean started = false;
+
+		Subtask(Callable<T> boundSubtask) {
+			super(boundSubtask);
+		}
+
+		@Override
+		public void run() {
+			started = true;
+			try {
+				super.run();
+			} finally {
+				subtaskExited(this);
+			}
+		}
+
+		/**
+		 * If this subtask has not been started yet, removes it from {@link #runningSubtasks} right
+		 * away, as {@link #executor} may never run it (for example if it discards tasks or was
+		 * {@link ExecutorService#shutdownNow() shutdown}).
+		 */
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			final var cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled && !started) subtaskExited(this);
+			return cancelled;
+		}
+	}
+
+
+
+	/**
+	 * Default {@code Executor} for subtasks: starts a new virtual {@code Thread} for each subtask
+	 * if the JVM supports them, a new platform {@code Thread} otherwise.
+	 */
+	static final Executor DEFAULT_EXECUTOR;
+
+	static {
+		ThreadFactory threadFactory;
+		try {
+			final var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			threadFactory = (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+				.getMethod("factory")
+				.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException noVirtualThreads) {
+			threadFactory = Thread::new;
+		}
+		final var subtaskThreadFactory = threadFactory;
+		DEFAULT_EXECUTOR = (subtask) -> subtaskThreadFactory.newThread(subtask).start();
+	}
+}
@@ -1,6 +1,8 @@
 // Copyright 2021 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
 package pl.morgwai.base.grpc.scopes;
 
+import java.util.*;
+
 import io.grpc.*;
 import io.grpc.ServerCall.Listener;
 import pl.morgwai.base.guice.scopes.ContextTracker;
@@ -17,11 +19,40 @@ public class ServerContextInterceptor implements ServerInterceptor {
 
 
 	final ContextTracker<ListenerEventContext> ctxTracker;
+	final ContextLeakDetector leakDetector;
+	/** {@code null} unless this is {@link PriorityDispatcher#serverInterceptor}. */
+	final PriorityDispatcher dispatcher;
+
+	/**
+	 * Limit of {@link RpcContext#getMemoryUsage() memory usage} of each RPC started after this
+	 * call, {@link Long#MAX_VALUE} (no limit) by default. RPCs exceeding it are closed with
+	 * {@link Status#RESOURCE_EXHAUSTED}.
+	 * @see RpcContext#accountMemory(long)
+	 */
+	public void setRpcMemoryLimit(long maxBytes) {
+		if (maxBytes <= 0L) throw new IllegalArgumentException("maxBytes must be positive");
+		rpcMemoryLimit = maxBytes;
+	}
+	public long getRpcMemoryLimit() { return rpcMemoryLimit; }
+	volatile long rpcMemoryLimit = Long.MAX_VALUE;
+
 
 
+	ServerContextInterceptor(
+		ContextTracker<ListenerEventContext> ctxTracker,
+		ContextLeakDetector leakDetector
+	) {
+		this(ctxTracker, leakDetector, null);
+	}
 
-	ServerContextInterceptor(ContextTracker<ListenerEventContext> ctxTracker) {
+	ServerContextInterceptor(
+		ContextTracker<ListenerEventContext> ctxTracker,
+		ContextLeakDetector leakDetector,
+		PriorityDispatcher dispatcher
+	) {
 		this.ctxTracker = ctxTracker;
+		this.leakDetector = leakDetector;
+		this.dispatcher = dispatcher;
 	}
 
 
@@ -32,36 +63,184 @@ public class ServerContextInterceptor implements ServerInterceptor {
 		Metadata headers,
 		ServerCallHandler<RequestT, ResponseT> handler
 	) {
-		final var rpcContext = new ServerRpcContext(rpc, headers);
-		final var listener = new ListenerEventContext(rpcContext, ctxTracker).executeWithinSelf(
-			// in case of streaming requests this is where the user RPC method will be invoked:
-			() -> handler.startCall(rpc, headers)
+		final var rpcContext = dispatcher == null
+				? new ServerRpcContext(rpc, headers)
+				: new ServerRpcContext(rpc, headers, dispatcher.readPriority(headers));
+		rpcContext.memoryLimit = rpcMemoryLimit;
+		if (leakDetector.shouldTrack()) leakDetector.track(rpcContext);
+		final var memoryLimitSet = rpcContext.memoryLimit != Long.MAX_VALUE;
+		final ServerCall<RequestT, ResponseT> handlerRpc =
+				memoryLimitSet ? new MemoryLimitingServerCall<>(rpc, rpcContext) : rpc;
+		final Listener<RequestT> listener;
+		try {
+			listener = new ListenerEventContext(rpcContext, ctxTracker).executeEvent(
+				"startCall",
+				() -> {
+					try {
+						// for streaming requests this is where the user RPC method is invoked:
+						return handler.startCall(handlerRpc, headers);
+					} catch (Throwable t) {
+						// gRPC will not deliver any Listener events, so this is the end of the RPC
+						rpcContext.markFinished();
+						throw t;
+					}
+				}
+			);
+		} finally {
+			if (memoryLimitSet) rpcContext.closeIfMemoryLimitExceeded();
+		}
+		return new ListenerProxy<>(
+			listener,
+			rpcContext,
+			dispatcher == null ? null : dispatcher.new RpcEventQueue(rpcContext)
 		);
-		return new ListenerProxy<>(listener, rpcContext);
+	}
+
+
+
+	/**
+	 * Status of RPCs closed due to
+	 * {@link ServerRpcContext#isMemoryLimitExceeded() exceeding their memory limit}.
+	 */
+	static final Status MEMORY_LIMIT_EXCEEDED_STATUS =
+			Status.RESOURCE_EXHAUSTED.withDescription("RPC memory limit exceeded");
+
+
+
+	/**
+	 * Passed to handlers of RPCs with {@link #setRpcMemoryLimit(long) a memory limit} set.
+	 * Serializes outbound calls with closing of the RPC due to
+	 * {@link ServerRpcContext#isMemoryLimitExceeded() exceeding the limit}, so that the RPC is
+	 * closed by a {@code Thread} that handles it rather than by the one that exceeded the limit.
+	 * Once the RPC is closed, subsequent outbound calls are ignored.
+	 */
+	static class MemoryLimitingServerCall<RequestT, ResponseT>
+			extends ForwardingServerCall.SimpleForwardingServerCall<RequestT, ResponseT> {
+
+		final ServerRpcContext rpcContext;
+
+		MemoryLimitingServerCall(ServerCall<RequestT, ResponseT> rpc, ServerRpcContext rpcContext) {
+			super(rpc);
+			this.rpcContext = rpcContext;
+		}
+
+		@Override
+		public void request(int numMessages) {
+			synchronized (rpcContext) {
+				if (rpcContext.closeIfMemoryLimitExceeded()) return;
+				super.request(numMessages);
+			}
+		}
+
+		@Override
+		public void sendHeaders(Metadata headers) {
+			synchronized (rpcContext) {
+				if (rpcContext.closeIfMemoryLimitExceeded()) return;
+				super.sendHeaders(headers);
+			}
+		}
+
+		@Override
+		public void sendMessage(ResponseT message) {
+			synchronized (rpcContext) {
+				if (rpcContext.closeIfMemoryLimitExceeded()) return;
+				super.sendMessage(message);
+			}
+		}
+
+		@Override
+		public void close(Status status, Metadata trailers) {
+			synchronized (rpcContext) {
+				if (rpcContext.closeIfMemoryLimitExceeded()) return;
+				rpcContext.markRpcClosed();
+				super.close(status, trailers);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Intercepts {@code service} with {@code ctxFreeInterceptors}, {@code ctxInterceptor} and
+	 * {@code ctxDependentInterceptors} that will be executed in the order given.
+	 * Used by {@link GrpcModule#interceptInOrder(ServerServiceDefinition, List, ServerInterceptor...)}
+	 * and {@link PriorityDispatcher#interceptInOrder(ServerServiceDefinition, List,
+	 * ServerInterceptor...)}.
+	 */
+	static ServerServiceDefinition interceptInOrder(
+		ServerServiceDefinition service,
+		List<? extends ServerInterceptor> ctxFreeInterceptors,
+		ServerInterceptor ctxInterceptor,
+		ServerInterceptor... ctxDependentInterceptors
+	) {
+		final var chain = new ArrayList<ServerInterceptor>(
+				ctxFreeInterceptors.size() + 1 + ctxDependentInterceptors.length);
+		chain.addAll(ctxFreeInterceptors);
+		chain.add(ctxInterceptor);
+		chain.addAll(Arrays.asList(ctxDependentInterceptors));
+		return ServerInterceptors.interceptForward(service, chain);
 	}
 
 
 
 	/**
 	 * Executes each method of the wrapped {@link Listener} within a new
-	 * {@link ListenerEventContext}.
+	 * {@link ListenerEventContext}, either directly or via {@link #eventQueue} if present.
 	 */
 	class ListenerProxy<RequestT> extends Listener<RequestT> {
 
 		final Listener<RequestT> wrappedListener;
 		final ServerRpcContext rpcContext;
+		/** {@code null} unless events of this RPC are dispatched by a {@link PriorityDispatcher}. */
+		final PriorityDispatcher.RpcEventQueue eventQueue;
 
+		/**
+		 * Calls of {@link #wrappedListener} for the events that may happen many times per RPC,
+		 * created upon the first such event and reused, so that no capturing lambda is allocated
+		 * per message, while RPCs rejected before receiving any message do not allocate them at
+		 * all. As gRPC never calls methods of the same {@code Listener} concurrently,
+		 * {@link #onMessage(Object) onMessage(...)} can pass its argument to
+		 * {@link #deliverMessage()} via {@link #pendingMessage}.
+		 */
+		Runnable messageDelivery;
+		Runnable onReadyDelivery;
+		RequestT pendingMessage;
 
 
-		ListenerProxy(Listener<RequestT> listenerToWrap, ServerRpcContext rpcContext) {
+
+		ListenerProxy(
+			Listener<RequestT> listenerToWrap,
+			ServerRpcContext rpcContext,
+			PriorityDispatcher.RpcEventQueue eventQueue
+		) {
 			this.wrappedListener = listenerToWrap;
 			this.rpcContext = rpcContext;
+			this.eventQueue = eventQueue;
 		}
 
 
 
-		private void executeWithinCtxs(Runnable wrappedListenerCall) {
-			new ListenerEventContext(rpcContext, ctxTracker).executeWithinSelf(wrappedListenerCall);
+		private void executeWithinCtxs(String eventType, Runnable wrappedListenerCall) {
+			if (eventQueue != null) {
+				eventQueue.execute(() -> executeWithinNewCtx(eventType, wrappedListenerCall));
+			} else {
+				executeWithinNewCtx(eventType, wrappedListenerCall);
+			}
+		}
+
+		private void executeWithinNewCtx(String eventType, Runnable wrappedListenerCall) {
+			if (rpcContext.memoryLimit == Long.MAX_VALUE) {
+				new ListenerEventContext(rpcContext, ctxTracker)
+					.executeEvent(eventType, wrappedListenerCall);
+				return;
+			}
+			rpcContext.closeIfMemoryLimitExceeded();
+			try {
+				new ListenerEventContext(rpcContext, ctxTracker)
+					.executeEvent(eventType, wrappedListenerCall);
+			} finally {
+				rpcContext.closeIfMemoryLimitExceeded();
+			}
 		}
 
 
@@ -69,23 +248,51 @@ public class ServerContextInterceptor implements ServerInterceptor {
 		// below just delegate methods to wrappedListener methods called within ctxs
 
 		@Override public void onMessage(RequestT message) {
-			executeWithinCtxs(() -> wrappedListener.onMessage(message));
+			if (eventQueue != null) {  // delivered later by another Thread: capture message
+				executeWithinCtxs("onMessage", () -> wrappedListener.onMessage(message));
+				return;
+			}
+			if (messageDelivery == null) messageDelivery = this::deliverMessage;
+			pendingMessage = message;
+			try {
+				executeWithinNewCtx("onMessage", messageDelivery);
+			} finally {
+				pendingMessage = null;
+			}
+		}
+
+		private void deliverMessage() {
+			wrappedListener.onMessage(pendingMessage);
 		}
 
 		@Override public void onReady() {
-			executeWithinCtxs(wrappedListener::onReady);
+			if (onReadyDelivery == null) onReadyDelivery = wrappedListener::onReady;
+			executeWithinCtxs("onReady", onReadyDelivery);
 		}
 
 		@Override public void onHalfClose() {
-			executeWithinCtxs(wrappedListener::onHalfClose);
+			executeWithinCtxs("onHalfClose", wrappedListener::onHalfClose);
 		}
 
 		@Override public void onCancel() {
-			executeWithinCtxs(wrappedListener::onCancel);
+			rpcContext.markCancelled();
+			executeWithinCtxs("onCancel", () -> {
+				try {
+					wrappedListener.onCancel();
+				} finally {
+					rpcContext.markFinished();
+				}
+			});
 		}
 
 		@Override public void onComplete() {
-			executeWithinCtxs(wrappedListener::onComplete);
+			executeWithinCtxs("onComplete", () -> {
+				try {
+					wrappedListener.onComplete();
+				} finally {
+					rpcContext.markFinished();
+				}
+			});
 		}
 	}
 }
@@ -41,13 +41,137 @@ public class ServerRpcContext extends RpcContext {
 
 
 
+	/**
+	 * Returns the RPC object or {@code null} if the RPC has already {@link #isFinished() finished}.
+	 */
 	public ServerCall<?, ?> getRpc() { return rpc; }
-	public final ServerCall<?, ?> rpc;
+	private volatile ServerCall<?, ?> rpc;
+
+	@Override
+	public String getFullMethodName() {
+		final var rpc = this.rpc;
+		return rpc != null ? rpc.getMethodDescriptor().getFullMethodName() : fullMethodName;
+	}
+	private volatile String fullMethodName;  // set upon release of rpc, before clearing it
+
+	/**
+	 * Whether this RPC was {@link io.grpc.ServerCall.Listener#onCancel() cancelled}. This is
+	 * already {@code true} during the call to {@code onCancel()} of the wrapped {@code Listener}.
+	 */
+	public boolean isCancelled() { return cancelled; }
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Priority of this RPC read from its request headers by {@link PriorityDispatcher} or
+	 * {@code 0} if this RPC is not {@link PriorityDispatcher#serverInterceptor dispatched} by any.
+	 */
+	public int getPriority() { return priority; }
+	private final int priority;
+
+	/**
+	 * Whether {@link #getMemoryUsage() memory usage} of this RPC has exceeded
+	 * {@link ServerContextInterceptor#setRpcMemoryLimit(long) the limit}. In such case the RPC gets
+	 * closed with {@link io.grpc.Status#RESOURCE_EXHAUSTED} after the {@code Listener} event that
+	 * is currently being handled, before the next one or upon the next attempt of the handler to
+	 * send headers, a message or to close the RPC, whichever happens first. The RPC is never closed
+	 * by the {@code Thread} that exceeded the limit (unless it is the one handling the RPC), as
+	 * {@link ServerCall} is not thread-safe. Handlers should stop processing the RPC: messages sent
+	 * after the limit was exceeded are dropped.
+	 */
+	public boolean isMemoryLimitExceeded() { return memoryLimitExceeded; }
+	private volatile boolean memoryLimitExceeded = false;
+
+	/** Set by {@link ServerContextInterceptor} before this ctx is published. */
+	long memoryLimit = Long.MAX_VALUE;
+
+	/**
+	 * Whether {@link #rpc} was closed via {@link ServerContextInterceptor.MemoryLimitingServerCall}
+	 * or {@link #closeIfMemoryLimitExceeded()}. Maintained only if {@link #memoryLimit} is set.
+	 */
+	private boolean rpcClosed = false;  // guarded by this
+
+
+
+	/** Called by {@link ServerContextInterceptor.ListenerProxy#onCancel()}. */
+	void markCancelled() {
+		cancelled = true;
+	}
+
+
+
+	@Override
+	long getMemoryLimit() {
+		return memoryLimit;
+	}
+
+
+
+	/**
+	 * Marks this RPC as {@link #isMemoryLimitExceeded() exceeding its memory limit}. The RPC is
+	 * closed later by {@link #closeIfMemoryLimitExceeded()} called from a serialized path.
+	 */
+	@Override
+	void memoryLimitExceeded(long usage) {
+		synchronized (this) {
+			if (memoryLimitExceeded) return;
+			memoryLimitExceeded = true;
+		}
+		log.warning(String.format(
+				MEMORY_LIMIT_EXCEEDED_MESSAGE, getFullMethodName(), usage, memoryLimit));
+	}
+
+	static final String MEMORY_LIMIT_EXCEEDED_MESSAGE =
+			"RPC %s exceeded its memory limit: %d > %d bytes, closing";
+
+
+
+	/**
+	 * Closes the RPC with {@link ServerContextInterceptor#MEMORY_LIMIT_EXCEEDED_STATUS} if it has
+	 * exceeded its memory limit and has not been closed yet. Called by
+	 * {@link ServerContextInterceptor} before and after each {@code Listener} event and by
+	 * {@link ServerContextInterceptor.MemoryLimitingServerCall} before each outbound call while
+	 * holding the monitor of this ctx, which serializes all outbound calls of the RPC.
+	 * @return whether the RPC is closed.
+	 */
+	synchronized boolean closeIfMemoryLimitExceeded() {
+		if (rpcClosed) return true;
+		final var rpc = this.rpc;
+		if ( !memoryLimitExceeded || rpc == null) return false;
+		rpcClosed = true;
+		rpc.close(ServerContextInterceptor.MEMORY_LIMIT_EXCEEDED_STATUS, new Metadata());
+		return true;
+	}
+
+
+
+	/**
+	 * Marks the RPC as closed by its handler. Called by
+	 * {@link ServerContextInterceptor.MemoryLimitingServerCall} while holding the monitor of this
+	 * ctx.
+	 */
+	void markRpcClosed() {
+		rpcClosed = true;
+	}
+
+
+
+	@Override
+	void releaseRpcResources() {
+		super.releaseRpcResources();
+		if (rpc == null) return;
+		fullMethodName = rpc.getMethodDescriptor().getFullMethodName();
+		rpc = null;
+	}
 
 
 
 	ServerRpcContext(ServerCall<?, ?> rpc, Metadata headers) {
+		this(rpc, headers, 0);
+	}
+
+	ServerRpcContext(ServerCall<?, ?> rpc, Metadata headers, int priority) {
 		super(headers);
 		this.rpc = rpc;
+		this.priority = priority;
 	}
 }
@@ -0,0 +1,231 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import io.grpc.stub.CallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import pl.morgwai.base.guice.scopes.ContextBinder;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static java.util.logging.Level.FINE;
+
+
+
+/**
+ * Sends application-level heartbeat messages on idle long-lived streams (of either server or
+ * client RPCs), using a single periodic tick shared by all {@link #register(StreamObserver,
+ * Supplier) registered} streams instead of a separate timer per stream.
+ * <p>
+ * Upon each tick, a heartbeat is sent to each stream that has not sent any message since the
+ * previous tick, so idle streams send heartbeats every {@link #getIntervalNanos() interval},
+ * while the gap between the last message and the first heartbeat of a stream that became idle is
+ * between 1 and 2 intervals. Busy streams cost only a flag write per message. Heartbeats are not
+ * sent to streams of {@link CallStreamObserver}s that are not {@link CallStreamObserver#isReady()
+ * ready}, as they already have pending messages.</p>
+ * <p>
+ * Heartbeats are sent within the {@code Context}s active when a given stream was registered, and
+ * a stream is deregistered automatically when its RPC {@link RpcContext#isFinished() finishes}
+ * or when it is completed via the {@link StreamObserver} returned by
+ * {@link #register(StreamObserver, Supplier) register(...)}.</p>
+ * <p>
+ * Instances can be obtained with
+ * {@link GrpcModule#newStreamHeartbeats(ScheduledExecutorService, long, TimeUnit)}. Usage in a
+ * bidi method:</p>
+ * <pre>{@code
+ * // at startup:
+ * final var heartbeats = grpcModule.newStreamHeartbeats(timer, 30L, SECONDS);
+ * // in the method:
+ * public StreamObserver<Request> subscribe(StreamObserver<Notification> responseObserver) {
+ *     final var notificationObserver =
+ *             heartbeats.register(responseObserver, () -> Notification.HEARTBEAT);
+ *     // send all notifications via notificationObserver from now on...
+ * }}</pre>
+ */
+public class StreamHeartbeats implements AutoCloseable {
+
+
+
+	/** Period of ticks of this {@code StreamHeartbeats}. */
+	public long getIntervalNanos() { return intervalNanos; }
+	final long intervalNanos;
+
+	final ContextTracker<ListenerEventContext> ctxTracker;
+	final ContextBinder ctxBinder;
+	final Set<HeartbeatStream<?>> streams = ConcurrentHashMap.newKeySet();
+	final ScheduledFuture<?> ticks;
+
+
+
+	StreamHeartbeats(
+		ScheduledExecutorService timer,
+		long interval,
+		TimeUnit unit,
+		ContextTracker<ListenerEventContext> ctxTracker,
+		ContextBinder ctxBinder
+	) {
+		this.intervalNanos = unit.toNanos(interval);
+		this.ctxTracker = ctxTracker;
+		this.ctxBinder = ctxBinder;
+		ticks = timer.scheduleAtFixedRate(this::tick, interval, interval, unit);
+	}
+
+
+
+	/**
+	 * Registers the stream of {@code messageObserver} to receive heartbeats obtained from
+	 * {@code heartbeatSupplier} when idle. Must be called within a {@link ListenerEventContext} of
+	 * the stream's RPC (for example for client RPCs in the {@code onReady()} handler).
+	 * @return {@link StreamObserver} that must be used instead of {@code messageObserver} to send
+	 *     all subsequent messages: it records the activity of the stream and serializes messages
+	 *     with heartbeats, as {@code StreamObservers} are not thread-safe.
+	 * @throws IllegalStateException if called outside of any {@link ListenerEventContext}.
+	 */
+	public <MessageT> StreamObserver<MessageT> register(
+		StreamObserver<MessageT> messageObserver,
+		Supplier<? extends MessageT> heartbeatSupplier
+	) {
+		final var eventCtx = ctxTracker.getCurrentContext();
+		if (eventCtx == null) throw new IllegalStateException("not within a ListenerEventContext");
+		final var stream = new HeartbeatStream<MessageT>(
+				messageObserver, heartbeatSupplier, eventCtx.getRpcContext());
+		streams.add(stream);
+		stream.rpcCtx.addOnFinishHandler(stream.deregistration);
+		return stream;
+	}
+
+
+
+	/** Number of currently registered streams. */
+	public int getStreamCount() {
+		return streams.size();
+	}
+
+
+
+	/** Stops ticking and deregisters all streams. */
+	@Override
+	public void close() {
+		ticks.cancel(false);
+		for (var stream: streams) stream.deregister();
+	}
+
+
+
+	void tick() {
+		for (var stream: streams) {
+			try {
+				stream.tick();
+			} catch (RuntimeException e) {
+				log.log(FINE, "failed to send a heartbeat to RPC "
+						+ stream.rpcCtx.getFullMethodName(), e);
+				stream.deregister();
+			}
+		}
+	}
+
+
+
+	class HeartbeatStream<MessageT> implements StreamObserver<MessageT> {
+
+		final StreamObserver<MessageT> messageObserver;
+		final Supplier<? extends MessageT> heartbeatSupplier;
+		final RpcContext rpcCtx;
+		final Runnable deregistration = this::deregister;
+		final Runnable boundHeartbeat = ctxBinder.bindToContext((Runnable) this::sendHeartbeat);
+
+		/** Cleared upon each tick. Races with ticks may only cause a redundant heartbeat. */
+		volatile boolean sentSinceLastTick = false;
+		boolean closed = false;  // guarded by this
+
+
+
+		HeartbeatStream(
+			StreamObserver<MessageT> messageObserver,
+			Supplier<? extends MessageT> heartbeatSupplier,
+			RpcContext rpcCtx
+		) {
+			this.messageObserver = messageObserver;
+			this.heartbeatSupplier = heartbeatSupplier;
+			this.rpcCtx = rpcCtx;
+		}
+
+
+
+		@Override
+		public synchronized void onNext(MessageT message) {
+			sentSinceLastTick = true;
+			messageObserver.onNext(message);
+		}
+
+
+
+		@Override
+		public void onError(Throwable error) {
+			deregister();
+			synchronized (this) {
+				messageObserver.onError(error);
+			}
+		}
+
+
+
+		@Override
+		public void onCompleted() {
+			deregister();
+			synchronized (this) {
+				messageObserver.onCompleted();
+			}
+		}
+
+
+
+		void tick() {
+			if (sentSinceLastTick) {
+				sentSinceLastTick = false;
+				return;
+			}
+			if (
+				messageObserver instanceof CallStreamObserver
+				&& !((CallStreamObserver<?>) messageObserver).isReady()
+			) {
+				return;
+			}
+			boundHeartbeat.run();
+		}
+
+
+
+		void sendHeartbeat() {
+			synchronized (this) {
+				if (closed) return;
+				messageObserver.onNext(heartbeatSupplier.get());
+			}
+		}
+
+
+
+		void deregister() {
+			synchronized (this) {
+				closed = true;
+			}
+			streams.remove(this);
+			rpcCtx.removeOnFinishHandler(deregistration);
+		}
+	}
+
+
+
+	@Override
+	public String toString() {
+		return "StreamHeartbeats { intervalNanos=" + intervalNanos + ", streams=" + streams.size()
+				+ " }";
+	}
+
+
+
+	static final Logger log = Logger.getLogger(StreamHeartbeats.class.getName());
+}
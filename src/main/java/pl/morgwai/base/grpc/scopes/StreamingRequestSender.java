@@ -0,0 +1,132 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.Iterator;
+
+import io.grpc.stub.*;
+
+
+
+/**
+ * Streams request messages obtained from a producer {@link Iterator} to a client RPC, honoring
+ * its flow-control.
+ * An instance should be passed as the response {@link StreamObserver} argument to a client- or
+ * bi-streaming stub method: the returned request {@link StreamObserver} should then be ignored, as
+ * all request messages are sent by this sender.
+ * <p>
+ * Each time the RPC becomes {@link ClientCallStreamObserver#isReady() ready}, messages are
+ * obtained from the producer and sent in a single batch for as long as the RPC stays ready. When
+ * the producer is exhausted, the request stream is
+ * {@link ClientCallStreamObserver#onCompleted() half-closed}. This way at most the amount of
+ * messages allowed by gRPC's flow-control is buffered at any given time, while the transport can
+ * coalesce writes of each batch.</p>
+ * <p>
+ * As sending is triggered from the
+ * {@link ClientCallStreamObserver#setOnReadyHandler(Runnable) onReady() handler}, if the RPC's
+ * {@code Channel} was {@link io.grpc.ClientInterceptors#intercept(io.grpc.Channel,
+ * io.grpc.ClientInterceptor...) intercepted} with {@link GrpcModule#clientInterceptor} or
+ * {@link GrpcModule#nestingClientInterceptor}, all calls to the producer's methods are executed
+ * within {@link ListenerEventContext}s of the RPC's {@link ClientRpcContext}, so RPC-scoped
+ * {@code Object}s may be injected into the producer.<br/>
+ * For the same reason, the producer's methods must not block for long, as they are executed on
+ * gRPC {@code Threads}.</p>
+ * <p>
+ * If the producer throws, the RPC is cancelled by passing the thrown {@code Throwable} to
+ * {@link ClientCallStreamObserver#onError(Throwable)}. If the RPC fails or the server completes
+ * it before the producer is exhausted, sending stops.</p>
+ */
+public class StreamingRequestSender<RequestT, ResponseT>
+		implements ClientResponseObserver<RequestT, ResponseT> {
+
+
+
+	final StreamObserver<ResponseT> responseObserver;
+	final Iterator<RequestT> requestProducer;
+
+	ClientCallStreamObserver<RequestT> requestObserver;
+	boolean finished = false;  // guarded by this
+
+
+
+	/**
+	 * Constructs a sender that will stream messages from {@code requestProducer} and deliver
+	 * responses to {@code responseObserver}.
+	 * If {@code responseObserver} is a {@link ClientResponseObserver}, its
+	 * {@link ClientResponseObserver#beforeStart(ClientCallStreamObserver) beforeStart(...)} will be
+	 * called by this sender, however any {@code onReady()} handler it sets will be overridden.
+	 */
+	public StreamingRequestSender(
+		StreamObserver<ResponseT> responseObserver,
+		Iterator<RequestT> requestProducer
+	) {
+		this.responseObserver = responseObserver;
+		this.requestProducer = requestProducer;
+	}
+
+
+
+	@Override
+	public void beforeStart(ClientCallStreamObserver<RequestT> requestObserver) {
+		this.requestObserver = requestObserver;
+		if (responseObserver instanceof ClientResponseObserver) {
+			@SuppressWarnings("unchecked")
+			final var clientResponseObserver =
+					(ClientResponseObserver<RequestT, ResponseT>) responseObserver;
+			clientResponseObserver.beforeStart(requestObserver);
+		}
+		requestObserver.setOnReadyHandler(this::sendWhileReady);
+	}
+
+
+
+	/**
+	 * Sends messages from the producer for as long as the RPC is ready. Half-closes the request
+	 * stream if the producer is exhausted.
+	 */
+	synchronized void sendWhileReady() {
+		if (finished) return;
+		try {
+			while (requestObserver.isReady()) {
+				if ( !requestProducer.hasNext()) {
+					finished = true;
+					requestObserver.onCompleted();
+					return;
+				}
+				requestObserver.onNext(requestProducer.next());
+			}
+		} catch (Throwable t) {
+			finished = true;
+			requestObserver.onError(t);
+			if (t instanceof Error) throw (Error) t;
+		}
+	}
+
+
+
+	@Override
+	public void onNext(ResponseT response) {
+		responseObserver.onNext(response);
+	}
+
+
+
+	@Override
+	public void onError(Throwable error) {
+		stopSending();
+		responseObserver.onError(error);
+	}
+
+
+
+	@Override
+	public void onCompleted() {
+		stopSending();
+		responseObserver.onCompleted();
+	}
+
+
+
+	private synchronized void stopSending() {
+		finished = true;
+	}
+}
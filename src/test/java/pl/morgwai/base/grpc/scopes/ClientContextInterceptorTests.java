@@ -15,7 +15,6 @@ import pl.morgwai.base.guice.scopes.ContextTracker;
 
 import static org.junit.Assert.*;
 import static org.easymock.EasyMock.*;
-import static pl.morgwai.base.guice.scopes.ContextHelpers.produceIfAbsent;
 
 
 
@@ -50,11 +49,16 @@ public class ClientContextInterceptorTests extends EasyMockSupport {
 		@Override public void onClose(Status status, Metadata trailers) {
 			capturedStatus = status;
 			capturedTrailers = trailers;
+			final var rpcCtx = (ClientRpcContext) ctxVerifier.getRpcCtx();
+			statusFromCtx = rpcCtx.getStatus().orElse(null);
+			trailersFromCtx = rpcCtx.getTrailers().orElse(null);
 			ctxVerifier.verifyCtxs();
 		}
 
 		Status capturedStatus;
 		Metadata capturedTrailers;
+		Status statusFromCtx;
+		Metadata trailersFromCtx;
 
 
 
@@ -138,6 +142,8 @@ public class ClientContextInterceptorTests extends EasyMockSupport {
 				ctxTracker.getCurrentContext());
 
 		// verify onClose(...)
+		assertFalse("rpcCtx should not be marked as finished before onClose",
+				rpcCtx.isFinished());
 		assertTrue("status should be empty before onClose",
 				rpcCtx.getStatus().isEmpty());
 		assertTrue("trailers should be empty before onClose",
@@ -148,11 +154,27 @@ public class ClientContextInterceptorTests extends EasyMockSupport {
 		assertSame("status should not be modified",
 				status, mockListener.capturedStatus);
 		assertSame("status should be stored into rpcCtx",
-				status, rpcCtx.getStatus().get());
+				status, mockListener.statusFromCtx);
 		assertSame("trailers should not be modified",
 				trailers, mockListener.capturedTrailers);
 		assertSame("trailers should be stored into rpcCtx",
-				trailers, rpcCtx.getTrailers().get());
+				trailers, mockListener.trailersFromCtx);
+		assertTrue("rpcCtx should be marked as finished after onClose",
+				rpcCtx.isFinished());
+
+		// verify resources release
+		assertNull("RPC should be released after onClose",
+				rpcCtx.getRpc());
+		assertNull("request headers should be released after onClose",
+				rpcCtx.getRequestHeaders());
+		assertNull("response headers should be released after onClose",
+				rpcCtx.getResponseHeaders());
+		assertTrue("trailers should be released after onClose",
+				rpcCtx.getTrailers().isEmpty());
+		assertSame("status should be retained after onClose",
+				status, rpcCtx.getStatus().get());
+		assertEquals("method name should be retained after onClose",
+				methodDescriptor.getFullMethodName(), rpcCtx.getFullMethodName());
 		assertNull("event context should not be leaked",
 				ctxTracker.getCurrentContext());
 	}
@@ -191,23 +213,23 @@ public class ClientContextInterceptorTests extends EasyMockSupport {
 			});
 		final var innerCtx = ((ListenerProxy<Integer>) listenerCapture.getValue()).rpcContext;
 
-		produceIfAbsent(enclosingCtx, STRING_KEY, () -> stringFromEnclosing);
+		enclosingCtx.getOrProduce(STRING_KEY, () -> stringFromEnclosing);
 		assertSame("innerCtx should obtain String from enclosingCtx",
 				stringFromEnclosing,
-				produceIfAbsent(innerCtx, STRING_KEY, () -> stringFromInner));
+				innerCtx.getOrProduce(STRING_KEY, () -> stringFromInner));
 		innerCtx.removeScopedObject(STRING_KEY);
 		assertSame("removing String from innerCtx should remove it from enclosingCtx as well",
 				anotherString,
-				produceIfAbsent(enclosingCtx, STRING_KEY, () -> anotherString));
+				enclosingCtx.getOrProduce(STRING_KEY, () -> anotherString));
 
-		produceIfAbsent(innerCtx, INT_KEY, () -> intFromInner);
+		innerCtx.getOrProduce(INT_KEY, () -> intFromInner);
 		assertSame("enclosingCtx should obtain Integer from innerCtx",
 				intFromInner,
-				produceIfAbsent(enclosingCtx, INT_KEY, () -> intFromEnclosing));
+				enclosingCtx.getOrProduce(INT_KEY, () -> intFromEnclosing));
 		enclosingCtx.removeScopedObject(INT_KEY);
 		assertSame("removing String from enclosingCtx should remove it from innerCtx as well",
 				anotherInt,
-				produceIfAbsent(innerCtx, INT_KEY, () -> anotherInt));
+				innerCtx.getOrProduce(INT_KEY, () -> anotherInt));
 	}
 
 
@@ -224,23 +246,155 @@ public class ClientContextInterceptorTests extends EasyMockSupport {
 			});
 		final var innerCtx = ((ListenerProxy<Integer>) listenerCapture.getValue()).rpcContext;
 
-		produceIfAbsent(enclosingCtx, STRING_KEY, () -> stringFromEnclosing);
+		enclosingCtx.getOrProduce(STRING_KEY, () -> stringFromEnclosing);
 		assertSame("innerCtx should obtain String from itself",
 				stringFromInner,
-				produceIfAbsent(innerCtx, STRING_KEY, () -> stringFromInner));
+				innerCtx.getOrProduce(STRING_KEY, () -> stringFromInner));
 		innerCtx.removeScopedObject(STRING_KEY);
 		assertSame("removing String from innerCtx should not affect enclosingCtx",
 				stringFromEnclosing,
-				produceIfAbsent(enclosingCtx, STRING_KEY, () -> anotherString));
+				enclosingCtx.getOrProduce(STRING_KEY, () -> anotherString));
 
-		produceIfAbsent(innerCtx, INT_KEY, () -> intFromInner);
+		innerCtx.getOrProduce(INT_KEY, () -> intFromInner);
 		assertSame("enclosingCtx should obtain Integer from itself",
 				intFromEnclosing,
-				produceIfAbsent(enclosingCtx, INT_KEY, () -> intFromEnclosing));
+				enclosingCtx.getOrProduce(INT_KEY, () -> intFromEnclosing));
 		enclosingCtx.removeScopedObject(INT_KEY);
 		assertSame("removing String from enclosingCtx should not affect innerCtx",
 				intFromInner,
-				produceIfAbsent(innerCtx, INT_KEY, () -> anotherInt));
+				innerCtx.getOrProduce(INT_KEY, () -> anotherInt));
+	}
+
+
+
+	@Test
+	public void testDeepCtxNestingSharesRootStorage() {
+		resetAll();  // no RPCs are started by this test
+		replayAll();
+		final var rootCtx = new ServerRpcContext(null, null);
+		RpcContext innerCtx = rootCtx;
+		for (int i = 0; i < 16; i++) {
+			innerCtx = new ClientRpcContext(null, "test/testMethod", null, innerCtx);
+		}
+		assertSame("deeply nested ctx should resolve the outermost ctx as its root",
+				rootCtx, innerCtx.rootCtx);
+
+		rootCtx.getOrProduce(STRING_KEY, () -> stringFromEnclosing);
+		assertSame("deeply nested ctx should obtain String from the outermost ctx",
+				stringFromEnclosing,
+				innerCtx.getOrProduce(STRING_KEY, () -> stringFromInner));
+		innerCtx.removeScopedObject(STRING_KEY);
+		assertSame("removing String from deeply nested ctx should remove it from the outermost ctx",
+				anotherString,
+				rootCtx.getOrProduce(STRING_KEY, () -> anotherString));
+
+		innerCtx.accountMemory(10L);
+		assertEquals("deeply nested ctx should account memory to the outermost ctx",
+				10L, rootCtx.getMemoryUsage());
+		assertEquals("deeply nested ctx should report memory usage of the outermost ctx",
+				10L, innerCtx.getMemoryUsage());
+	}
+
+
+
+	@Test
+	public void testRetryAttemptsShareRetryCtx() {
+		final var retryCtx = grpcModule.newClientRetryContext();
+		final var retryOptions =
+				options.withOption(ClientContextInterceptor.RETRY_CONTEXT, retryCtx);
+		final var serverRpcCtx = new ServerRpcContext(null, null);
+		resetAll();
+		expect(mockChannel.newCall(same(methodDescriptor), same(retryOptions)))
+			.andReturn(mockRpc)
+			.times(2);
+		mockRpc.start(capture(listenerCapture), same(requestHeaders));
+		expectLastCall().times(2);
+		replayAll();
+
+		// start 2 attempts within serverRpcCtx using the nesting interceptor
+		final var interceptor = grpcModule.nestingClientInterceptor;
+		final Runnable startAttempt = () -> interceptor
+			.interceptCall(methodDescriptor, retryOptions, mockChannel)
+			.start(mockListener, requestHeaders);
+		new ListenerEventContext(serverRpcCtx, ctxTracker).executeWithinSelf(startAttempt);
+		final var firstAttemptListener = (ListenerProxy<Integer>) listenerCapture.getValue();
+		final var firstAttemptCtx = firstAttemptListener.rpcContext;
+		firstAttemptCtx.getOrProduce(STRING_KEY, () -> stringFromInner);
+		mockListener.ctxVerifier = new ContextVerifier(ctxTracker, firstAttemptCtx);
+		final var unavailable = Status.UNAVAILABLE;
+		firstAttemptListener.onClose(unavailable, new Metadata());
+		new ListenerEventContext(serverRpcCtx, ctxTracker).executeWithinSelf(startAttempt);
+		final var secondAttemptCtx =
+				((ListenerProxy<Integer>) listenerCapture.getValue()).rpcContext;
+
+		assertNotSame("each attempt should have its own ctx",
+				firstAttemptCtx, secondAttemptCtx);
+		assertSame("2nd attempt should obtain String produced during the 1st one",
+				stringFromInner,
+				secondAttemptCtx.getOrProduce(STRING_KEY, () -> anotherString));
+		assertSame("attempts should not share objects with the enclosing server RPC",
+				stringFromEnclosing,
+				serverRpcCtx.getOrProduce(STRING_KEY, () -> stringFromEnclosing));
+		assertSame("1st attempt should retain its own status",
+				unavailable, firstAttemptCtx.getStatus().orElseThrow());
+		assertTrue("2nd attempt should not have a status yet",
+				secondAttemptCtx.getStatus().isEmpty());
+		assertEquals("attempts should be counted",
+				2, retryCtx.getAttemptCount());
+		assertSame("last attempt should be the 2nd one",
+				secondAttemptCtx, retryCtx.getLastAttempt());
+		assertEquals("method name should be taken from attempts",
+				methodDescriptor.getFullMethodName(), retryCtx.getFullMethodName());
+
+		retryCtx.close();
+		assertTrue("closed retryCtx should be finished",
+				retryCtx.isFinished());
+		assertNull("last attempt should be released",
+				retryCtx.getLastAttempt());
+	}
+
+
+
+	@Test
+	public void testNestedRetryAttemptsResolveServerRpcScopedObjects() {
+		final var serverRpcCtx = new ServerRpcContext(null, null);
+		final var interceptor = grpcModule.nestingClientInterceptor;
+		final var retryCtx = new ListenerEventContext(serverRpcCtx, ctxTracker)
+			.executeWithinSelf(interceptor::newClientRetryContext);
+		final var retryOptions =
+				options.withOption(ClientContextInterceptor.RETRY_CONTEXT, retryCtx);
+		resetAll();
+		expect(mockChannel.newCall(same(methodDescriptor), same(retryOptions)))
+			.andReturn(mockRpc)
+			.times(2);
+		mockRpc.start(capture(listenerCapture), same(requestHeaders));
+		expectLastCall().times(2);
+		replayAll();
+		final var scopedStringProvider =
+				grpcModule.rpcScope.scope(STRING_KEY, () -> stringFromInner);
+		serverRpcCtx.getOrProduce(STRING_KEY, () -> stringFromEnclosing);
+
+		// start 2 attempts within serverRpcCtx and resolve the String within the 2nd one
+		final Runnable startAttempt = () -> interceptor
+			.interceptCall(methodDescriptor, retryOptions, mockChannel)
+			.start(mockListener, requestHeaders);
+		new ListenerEventContext(serverRpcCtx, ctxTracker).executeWithinSelf(startAttempt);
+		new ListenerEventContext(serverRpcCtx, ctxTracker).executeWithinSelf(startAttempt);
+		final var secondAttemptCtx =
+				((ListenerProxy<Integer>) listenerCapture.getValue()).rpcContext;
+		final var stringFromAttempt = new ListenerEventContext(secondAttemptCtx, ctxTracker)
+			.executeWithinSelf(scopedStringProvider::get);
+
+		assertSame("retried nested attempt should resolve server-RPC-scoped String",
+				stringFromEnclosing, stringFromAttempt);
+		assertSame("retryCtx should be nested within the server RPC ctx",
+				serverRpcCtx, retryCtx.rootCtx);
+		assertEquals("attempts should be counted",
+				2, retryCtx.getAttemptCount());
+		final var notNestedRetryCtx = new ListenerEventContext(serverRpcCtx, ctxTracker)
+			.executeWithinSelf(grpcModule.clientInterceptor::newClientRetryContext);
+		assertSame("retryCtx of a not nesting interceptor should not be nested",
+				notNestedRetryCtx, notNestedRetryCtx.rootCtx);
 	}
 
 
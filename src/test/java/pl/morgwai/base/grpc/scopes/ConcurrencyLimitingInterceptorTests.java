@@ -0,0 +1,183 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import io.grpc.*;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.ServerCall.Listener;
+import org.easymock.EasyMockSupport;
+import org.junit.Test;
+import pl.morgwai.base.grpc.scopes.ClientContextInterceptorTests.StubMarshaller;
+import pl.morgwai.base.grpc.scopes.ConcurrencyLimitingInterceptor.MethodLimiter;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+
+
+public class ConcurrencyLimitingInterceptorTests extends EasyMockSupport {
+
+
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final ConcurrencyLimitingInterceptor limiter =
+			grpcModule.newConcurrencyLimitingInterceptor(1, 1, 1);
+	@SuppressWarnings("deprecation")
+	final MethodDescriptor<Integer, Integer> methodDescriptor = MethodDescriptor.create(
+			MethodType.UNARY, "test/testMethod", new StubMarshaller<>(), new StubMarshaller<>());
+	final ServerCall<Integer, Integer> admittedRpc = mock(ServerCall.class);
+	final ServerCall<Integer, Integer> rejectedRpc = mock(ServerCall.class);
+	final ServerCall<Integer, Integer> laterRpc = mock(ServerCall.class);
+	final Listener<Integer> serviceListener = new Listener<>() {};
+	int startedCallCount = 0;
+	final ServerCallHandler<Integer, Integer> handler = (rpc, headers) -> {
+		startedCallCount++;
+		return serviceListener;
+	};
+
+
+
+	@Test
+	public void testRejectingAboveLimitAndReleasingUponFinish() {
+		expect(admittedRpc.getMethodDescriptor()).andStubReturn(methodDescriptor);
+		expect(rejectedRpc.getMethodDescriptor()).andStubReturn(methodDescriptor);
+		expect(laterRpc.getMethodDescriptor()).andStubReturn(methodDescriptor);
+		rejectedRpc.close(same(ConcurrencyLimitingInterceptor.LIMIT_EXCEEDED_STATUS), notNull());
+		replayAll();
+		final var limitedService = ServerInterceptors.intercept(
+			ServerServiceDefinition.builder("test")
+				.addMethod(methodDescriptor, handler)
+				.build(),
+			limiter,
+			grpcModule.serverInterceptor
+		);
+		@SuppressWarnings("unchecked")
+		final var interceptedHandler = (ServerCallHandler<Integer, Integer>)
+				limitedService.getMethods().iterator().next().getServerCallHandler();
+		final var serviceName = methodDescriptor.getFullMethodName();
+
+		final var admittedListener = (ServerContextInterceptor.ListenerProxy<?>)
+				interceptedHandler.startCall(admittedRpc, new Metadata());
+		assertEquals("admitted RPC should reach the service",
+				1, startedCallCount);
+		assertEquals("admitted RPC should be counted as in-flight",
+				1, limiter.getInFlight(serviceName));
+
+		final var rejectedListener = (ServerContextInterceptor.ListenerProxy<?>)
+				interceptedHandler.startCall(rejectedRpc, new Metadata());
+		assertEquals("rejected RPC should not reach the service",
+				1, startedCallCount);
+		rejectedListener.onComplete();
+		assertEquals("finishing a rejected RPC should not release any permit",
+				1, limiter.getInFlight(serviceName));
+
+		admittedListener.onComplete();
+		assertEquals("finishing an admitted RPC should release its permit",
+				0, limiter.getInFlight(serviceName));
+		interceptedHandler.startCall(laterRpc, new Metadata());
+		assertEquals("RPC started after a permit was released should reach the service",
+				2, startedCallCount);
+		verifyAll();
+	}
+
+
+
+	/**
+	 * Starts an RPC of {@link #methodDescriptor} via {@link #limiter} within {@code grpcCtx},
+	 * optionally half-closes it and then cancels it.
+	 * @return the {@link MethodLimiter} of {@link #methodDescriptor}.
+	 */
+	MethodLimiter startAndCancel(Context grpcCtx, boolean halfClose) throws Exception {
+		expect(admittedRpc.getMethodDescriptor()).andStubReturn(methodDescriptor);
+		replayAll();
+		final var interceptedHandler = ServerInterceptors.intercept(
+			ServerServiceDefinition.builder("test")
+				.addMethod(methodDescriptor, handler)
+				.build(),
+			limiter,
+			grpcModule.serverInterceptor
+		).getMethods().iterator().next().getServerCallHandler();
+		@SuppressWarnings("unchecked")
+		final var listener = grpcCtx.call(() ->
+				((ServerCallHandler<Integer, Integer>) interceptedHandler)
+						.startCall(admittedRpc, new Metadata()));
+		if (halfClose) listener.onHalfClose();
+		listener.onCancel();
+		assertEquals("cancelled RPC should release its permit",
+				0, limiter.getInFlight(methodDescriptor.getFullMethodName()));
+		verifyAll();
+		return limiter.methodLimiters.get(methodDescriptor.getFullMethodName());
+	}
+
+
+
+	@Test
+	public void testRpcCancelledByClientBeforeProcessingIsNotSampled() throws Exception {
+		final var methodLimiter = startAndCancel(Context.current(), false);
+		assertEquals("RPC cancelled before processing should not contribute a sample",
+				0.0, methodLimiter.longRttNanos, 0.0);
+	}
+
+
+
+	@Test
+	public void testRpcCancelledByClientDuringProcessingIsSampled() throws Exception {
+		final var methodLimiter = startAndCancel(Context.current(), true);
+		assertTrue("RPC cancelled during processing should contribute a sample",
+				methodLimiter.longRttNanos > 0.0);
+	}
+
+
+
+	@Test
+	public void testRpcCancelledDueToDeadlineIsSampled() throws Exception {
+		final var expiredCtx = Context.current().withDeadline(
+				Deadline.after(-1L, MILLISECONDS), mock(ScheduledExecutorService.class));
+		try {
+			final var methodLimiter = startAndCancel(expiredCtx, false);
+			assertTrue("RPC cancelled due to its deadline should contribute a sample",
+					methodLimiter.longRttNanos > 0.0);
+		} finally {
+			expiredCtx.cancel(null);
+		}
+	}
+
+
+
+	@Test
+	public void testInterceptingOutsideOfCtxThrows() {
+		replayAll();
+		try {
+			limiter.interceptCall(admittedRpc, new Metadata(), handler);
+			fail("intercepting outside of serverInterceptor should throw");
+		} catch (IllegalStateException expected) {}
+	}
+
+
+
+	@Test
+	public void testLimitDecreasesWhenLatencyGrows() {
+		final var methodLimiter = new MethodLimiter(100, 1, 1000);
+		final var baseRtt = MILLISECONDS.toNanos(10L);
+		for (int i = 0; i < 1000; i++) methodLimiter.update(baseRtt, methodLimiter.limit);
+		final var limitAtBaseRtt = methodLimiter.limit;
+		assertTrue("limit should grow while latency is stable and the limit is utilized",
+				limitAtBaseRtt > 100);
+
+		for (int i = 0; i < 50; i++) methodLimiter.update(baseRtt * 5, methodLimiter.limit);
+		assertTrue("limit should decrease when latency grows",
+				methodLimiter.limit < limitAtBaseRtt);
+	}
+
+
+
+	@Test
+	public void testLimitDoesNotGrowWhenNotUtilized() {
+		final var methodLimiter = new MethodLimiter(100, 1, 1000);
+		for (int i = 0; i < 100; i++) methodLimiter.update(MILLISECONDS.toNanos(10L), 1);
+		assertEquals("limit should not grow when not utilized",
+				100, methodLimiter.limit);
+	}
+}
@@ -0,0 +1,141 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+
+
+public class ContextBoundRecursiveTaskTests {
+
+
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final ContextTracker<ListenerEventContext> ctxTracker = grpcModule.listenerEventScope.tracker;
+	final ForkJoinPool pool = new ForkJoinPool(4);
+	final ServerRpcContext rpcCtx = new ServerRpcContext(null, null);
+	final ListenerEventContext eventCtx = new ListenerEventContext(rpcCtx, ctxTracker);
+
+
+
+	/** Sums {@code [from, to)} verifying that each leaf is computed within {@link #eventCtx}. */
+	class Sum extends ContextBoundRecursiveTask<Long> {
+
+		final int from;
+		final int to;
+
+		Sum(int from, int to) {
+			super(grpcModule);
+			this.from = from;
+			this.to = to;
+		}
+
+		Sum(Sum parent, int from, int to) {
+			super(parent);
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Long computeWithinContexts() {
+			if (to - from <= 16) {
+				assertSame("subtasks should be computed within the ctx of the top-level task",
+						eventCtx, ctxTracker.getCurrentContext());
+				long sum = 0L;
+				for (int i = from; i < to; i++) sum += i;
+				return sum;
+			}
+			final var middle = (from + to) / 2;
+			final var left = new Sum(this, from, middle);
+			left.fork();
+			final var right = new Sum(this, middle, to).compute();
+			return left.join() + right;
+		}
+	}
+
+
+
+	@After
+	public void shutdownPool() throws InterruptedException {
+		pool.shutdown();
+		assertTrue("pool should terminate", pool.awaitTermination(5L, SECONDS));
+	}
+
+
+
+	@Test
+	public void testSubtasksAreComputedWithinCtxOfTopLevelTask() {
+		final var size = 4096;
+		final var sum = eventCtx.executeWithinSelf(() -> pool.invoke(new Sum(0, size)));
+		assertEquals("result should be correct",
+				Long.valueOf(((long) size) * (size - 1) / 2), sum);
+		assertNull("ctx should not be leaked to the calling Thread",
+				ContextBoundRecursiveTask.currentTaskCtxs.get());
+	}
+
+
+
+	@Test
+	public void testTaskInvokedDirectlyIsComputedWithinCtx() {
+		final var task = eventCtx.executeWithinSelf(() -> new Sum(0, 16));
+		assertNull("calling Thread should be outside of any ctx",
+				ctxTracker.getCurrentContext());
+		assertEquals("result should be correct",
+				Long.valueOf(120L), task.invoke());
+		assertNull("ctx should not be leaked to the calling Thread",
+				ctxTracker.getCurrentContext());
+		assertNull("ctx should not be leaked to the calling Thread",
+				ContextBoundRecursiveTask.currentTaskCtxs.get());
+	}
+
+
+
+	/** Returns the {@link ListenerEventContext} stored in the gRPC Context of any leaf. */
+	static class KeyedEventCtxLookup extends ContextBoundRecursiveTask<ListenerEventContext> {
+
+		final int depth;
+
+		KeyedEventCtxLookup(GrpcModule grpcModule) {
+			super(grpcModule);
+			depth = 0;
+		}
+
+		KeyedEventCtxLookup(KeyedEventCtxLookup parent) {
+			super(parent);
+			depth = parent.depth + 1;
+		}
+
+		@Override
+		protected ListenerEventContext computeWithinContexts() {
+			if (depth == 8) return ListenerEventContext.GRPC_CONTEXT_KEY.get();
+			final var left = new KeyedEventCtxLookup(this);
+			left.fork();
+			final var right = new KeyedEventCtxLookup(this).compute();
+			final var fromLeft = left.join();
+			assertSame("all leaves should be computed within the same gRPC Context",
+					fromLeft, right);
+			return fromLeft;
+		}
+	}
+
+
+
+	@Test
+	public void testGrpcContextIsCarriedIfBridged() {
+		final var bridgingModule = new GrpcModule(true);
+		final var bridgedEventCtx =
+				new ListenerEventContext(rpcCtx, bridgingModule.listenerEventScope.tracker);
+		final var keyedEventCtx = bridgedEventCtx.executeWithinSelf(
+				() -> pool.invoke(new KeyedEventCtxLookup(bridgingModule)));
+		assertSame("subtasks should be computed within the gRPC Context of the top-level task",
+				bridgedEventCtx, keyedEventCtx);
+		assertNull("gRPC Context should not be leaked to the calling Thread",
+				ListenerEventContext.GRPC_CONTEXT_KEY.get());
+	}
+}
@@ -0,0 +1,109 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static org.junit.Assert.*;
+
+
+
+public class ContextBoundSpliteratorTests {
+
+
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final ContextTracker<ListenerEventContext> ctxTracker = grpcModule.listenerEventScope.tracker;
+	final ServerRpcContext rpcCtx = new ServerRpcContext(null, null);
+	final ListenerEventContext eventCtx = new ListenerEventContext(rpcCtx, ctxTracker);
+	final List<Integer> elements = new ArrayList<>();
+
+	{
+		for (int i = 0; i < 10_000; i++) elements.add(i);
+	}
+
+
+
+	Integer verifyCtxAndDouble(Integer element) {
+		assertSame("elements should be processed within the ctx of the stream creation",
+				eventCtx, ctxTracker.getCurrentContext());
+		return element * 2;
+	}
+
+
+
+	@Test
+	public void testParallelStreamElementsAreProcessedWithinCtx() {
+		final List<Integer> result = eventCtx.executeWithinSelf(
+			() -> ContextBoundSpliterator.parallelStream(grpcModule, elements)
+				.map(this::verifyCtxAndDouble)
+				.collect(Collectors.toList())
+		);
+		assertEquals("all elements should be processed in order",
+				elements.stream().map((i) -> i * 2).collect(Collectors.toList()), result);
+		assertNull("ctx should not be leaked to the calling Thread",
+				ctxTracker.getCurrentContext());
+	}
+
+
+
+	@Test
+	public void testShortCircuitingOperationsAreProcessedWithinCtx() {
+		final var found = eventCtx.executeWithinSelf(
+			() -> ContextBoundSpliterator.parallelStream(grpcModule, elements)
+				.map(this::verifyCtxAndDouble)
+				.filter((i) -> i == 9998)
+				.findFirst()
+		);
+		assertEquals("element should be found", Integer.valueOf(9998), found.orElse(null));
+	}
+
+
+
+	@Test
+	public void testBoundStreamPreservesParallelismAndCloses() {
+		final var closed = new boolean[1];
+		final var source = IntStream.range(0, 1000).boxed().parallel()
+				.onClose(() -> closed[0] = true);
+		final var bound = eventCtx.executeWithinSelf(
+				() -> ContextBoundSpliterator.bindToCurrentContexts(grpcModule, source));
+		assertTrue("bound stream should be parallel", bound.isParallel());
+		try (bound) {
+			assertEquals("all elements should be processed",
+					999_000L, bound.mapToLong(this::verifyCtxAndDouble).sum());
+		}
+		assertTrue("closing the bound stream should close the source", closed[0]);
+	}
+
+
+
+	@Test
+	public void testReboundStreamIsProcessedWithinCtxAfterStatefulOperations() {
+		final var source = new ArrayList<Integer>(elements.size() * 2);
+		for (int i = elements.size() - 1; i >= 0; i--) {
+			source.add(elements.get(i));
+			source.add(elements.get(i));
+		}
+		final List<Integer> result = eventCtx.executeWithinSelf(() -> {
+			final var ctxs = ContextTracker.getActiveContexts(grpcModule.getAllTrackers());
+			final var sorted = ContextBoundSpliterator.bind(source.parallelStream(), ctxs)
+				.map(this::verifyCtxAndDouble)
+				.sorted();
+			final var distinct = ContextBoundSpliterator.bind(sorted, ctxs)
+				.map(this::verifyCtxAndDouble)
+				.distinct();
+			return ContextBoundSpliterator.bind(distinct, ctxs)
+				.map(this::verifyCtxAndDouble)
+				.collect(Collectors.toList());
+		});
+		assertEquals("all distinct elements should be processed in sorted order",
+				elements.stream().map((i) -> i * 8).collect(Collectors.toList()), result);
+		assertNull("ctx should not be leaked to the calling Thread",
+				ctxTracker.getCurrentContext());
+	}
+}
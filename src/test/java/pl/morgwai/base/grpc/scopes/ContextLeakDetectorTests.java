@@ -0,0 +1,139 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.*;
+
+import org.junit.*;
+import pl.morgwai.base.grpc.scopes.ContextLeakDetector.ContextCapture;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+
+
+public class ContextLeakDetectorTests {
+
+
+
+	/** Long enough for the background checker to never report anything during a test. */
+	static final long GRACE_PERIOD_MILLIS = HOURS.toMillis(1L);
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final ContextLeakDetector leakDetector = grpcModule.leakDetector;
+	final ContextTracker<ListenerEventContext> ctxTracker = grpcModule.listenerEventScope.tracker;
+
+	final List<LogRecord> reports = new ArrayList<>();
+	final Handler reportCapturingHandler = new Handler() {
+		@Override public synchronized void publish(LogRecord record) { reports.add(record); }
+		@Override public void flush() {}
+		@Override public void close() {}
+	};
+
+
+
+	@Before
+	public void setup() {
+		ContextLeakDetector.log.addHandler(reportCapturingHandler);
+		ContextLeakDetector.log.setUseParentHandlers(false);
+		leakDetector.enable(GRACE_PERIOD_MILLIS, MILLISECONDS, 1.0);
+	}
+
+
+
+	@After
+	public void cleanup() {
+		leakDetector.disable();
+		ContextLeakDetector.log.removeHandler(reportCapturingHandler);
+		ContextLeakDetector.log.setUseParentHandlers(true);
+	}
+
+
+
+	/** Performs a single check as if the grace period has already passed. */
+	void checkAfterGracePeriod() {
+		leakDetector.checkFinishedRpcs(
+				System.nanoTime() + MILLISECONDS.toNanos(GRACE_PERIOD_MILLIS) + 1L);
+	}
+
+
+
+	@Test
+	public void testRetainedCtxIsReportedWithCaptureStack() {
+		final var rpcCtx = new ClientRpcContext(null, "test/Leaking", null);
+		leakDetector.track(rpcCtx);
+		final var retainedTask = new ListenerEventContext(rpcCtx, ctxTracker).executeWithinSelf(
+				() -> grpcModule.ctxBinder.bindToContext(() -> {}));
+		rpcCtx.markFinished();
+
+		checkAfterGracePeriod();
+		assertEquals("retained ctx should be reported once",
+				1L, leakDetector.getReportedLeakCount());
+		final LogRecord report;
+		synchronized (reportCapturingHandler) {
+			report = reports.get(0);
+		}
+		assertTrue("report should contain the RPC description",
+				report.getMessage().contains("test/Leaking"));
+		assertTrue("capture stack should be attached to the report",
+				report.getThrown() instanceof ContextCapture);
+		checkAfterGracePeriod();
+		assertEquals("retained ctx should not be reported again",
+				1L, leakDetector.getReportedLeakCount());
+		Reference.reachabilityFence(retainedTask);
+	}
+
+
+
+	@Test
+	public void testCollectedCtxIsNotReported() throws InterruptedException {
+		var rpcCtx = new ClientRpcContext(null, "test/NotLeaking", null);
+		leakDetector.track(rpcCtx);
+		final var trackedRpc = rpcCtx.leakTracking;
+		rpcCtx.markFinished();
+		rpcCtx = null;
+		for (int i = 0; i < 100 && trackedRpc.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10L);
+		}
+		assertNull("ctx should be collected",
+				trackedRpc.get());
+
+		checkAfterGracePeriod();
+		assertEquals("collected ctx should not be reported",
+				0L, leakDetector.getReportedLeakCount());
+		assertTrue("collected ctx should not be tracked anymore",
+				leakDetector.finishedRpcs.isEmpty());
+	}
+
+
+
+	@Test
+	public void testUnfinishedRpcIsNotReported() {
+		final var rpcCtx = new ClientRpcContext(null, "test/Ongoing", null);
+		leakDetector.track(rpcCtx);
+
+		checkAfterGracePeriod();
+		assertEquals("ctx of an ongoing RPC should not be reported",
+				0L, leakDetector.getReportedLeakCount());
+		Reference.reachabilityFence(rpcCtx);
+	}
+
+
+
+	@Test
+	public void testDisabledDetectorDoesNotSample() {
+		leakDetector.disable();
+		assertFalse("disabled detector should not sample RPCs",
+				leakDetector.shouldTrack());
+		final var rpcCtx = new ServerRpcContext(null, null);
+		new ListenerEventContext(rpcCtx, ctxTracker).executeWithinSelf(
+				() -> grpcModule.ctxBinder.bindToContext(() -> {}));
+		assertNull("untracked ctx should not have a tracking record",
+				rpcCtx.leakTracking);
+	}
+}
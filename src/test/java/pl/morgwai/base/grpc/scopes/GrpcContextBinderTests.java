@@ -0,0 +1,208 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.*;
+
+import io.grpc.Context;
+import org.junit.After;
+import org.junit.Test;
+import pl.morgwai.base.function.Throwing4Task;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+import pl.morgwai.base.guice.scopes.ContextTrackingExecutor;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+
+
+public class GrpcContextBinderTests {
+
+
+
+	static final long TIMEOUT_MILLIS = 500L;
+	static final Context.Key<String> OTHER_KEY = Context.key("otherKey");
+
+	final GrpcModule grpcModule = new GrpcModule(true);
+	final ContextTracker<ListenerEventContext> ctxTracker = grpcModule.listenerEventScope.tracker;
+	final ListenerEventContext eventCtx =
+			new ListenerEventContext(new ServerRpcContext(null, null), ctxTracker);
+	final ExecutorService executor = Executors.newSingleThreadExecutor();
+	final Runnable noop = () -> {};
+
+
+
+	@After
+	public void shutdownExecutor() throws InterruptedException {
+		executor.shutdown();
+		assertTrue("executor should terminate",
+				executor.awaitTermination(TIMEOUT_MILLIS, MILLISECONDS));
+	}
+
+
+
+	@Test
+	public void testBothContextsArePropagatedBySingleWrapper() throws Exception {
+		final var ctxTrackingExecutor = ContextTrackingExecutor.of(executor, grpcModule.ctxBinder);
+		final var trackedEventCtx = new AtomicReference<ListenerEventContext>();
+		final var keyedEventCtx = new AtomicReference<ListenerEventContext>();
+		final var otherValue = new AtomicReference<String>();
+		final var taskExecuted = new CountDownLatch(1);
+
+		Context.current().withValue(OTHER_KEY, "other").run(() -> eventCtx.executeWithinSelf(
+			() -> ctxTrackingExecutor.execute(() -> {
+				trackedEventCtx.set(ctxTracker.getCurrentContext());
+				keyedEventCtx.set(ListenerEventContext.GRPC_CONTEXT_KEY.get());
+				otherValue.set(OTHER_KEY.get());
+				taskExecuted.countDown();
+			})
+		));
+
+		assertTrue("task should be executed",
+				taskExecuted.await(TIMEOUT_MILLIS, MILLISECONDS));
+		assertSame("task should be executed within the event ctx",
+				eventCtx, trackedEventCtx.get());
+		assertSame("event ctx should be stored in the gRPC Context",
+				eventCtx, keyedEventCtx.get());
+		assertEquals("values of the gRPC Context should be propagated",
+				"other", otherValue.get());
+		executor.submit(() -> {
+			assertNull("event ctx should be removed after the task",
+					ctxTracker.getCurrentContext());
+			assertNull("gRPC Context should be detached after the task",
+					ListenerEventContext.GRPC_CONTEXT_KEY.get());
+		}).get();
+	}
+
+
+
+	@Test
+	public void testBoundCallableCarriesGrpcContext() throws Exception {
+		final Callable<ListenerEventContext> callable = () -> {
+			assertSame("callable should be executed within the event ctx",
+					eventCtx, ctxTracker.getCurrentContext());
+			assertEquals("values of the gRPC Context should be propagated",
+					"other", OTHER_KEY.get());
+			return ListenerEventContext.GRPC_CONTEXT_KEY.get();
+		};
+		final var bound = Context.current().withValue(OTHER_KEY, "other").call(() ->
+				eventCtx.executeWithinSelf(() -> grpcModule.ctxBinder.bindToContext(callable)));
+		assertSame("event ctx should be stored in the gRPC Context",
+				eventCtx, executor.submit(bound::perform).get());
+		assertNull("gRPC Context should be detached after the callable",
+				ListenerEventContext.GRPC_CONTEXT_KEY.get());
+	}
+
+
+
+	@Test
+	public void testBoundFunctionalInterfacesCarryGrpcContext() {
+		final var keyedEventCtxs = new ArrayList<ListenerEventContext>();
+		final var binder = grpcModule.ctxBinder;
+		final Consumer<Integer> consumer =
+				(i) -> keyedEventCtxs.add(ListenerEventContext.GRPC_CONTEXT_KEY.get());
+		final BiConsumer<Integer, Integer> biConsumer =
+				(i, j) -> keyedEventCtxs.add(ListenerEventContext.GRPC_CONTEXT_KEY.get());
+		final Function<Integer, ListenerEventContext> function =
+				(i) -> ListenerEventContext.GRPC_CONTEXT_KEY.get();
+		final BiFunction<Integer, Integer, ListenerEventContext> biFunction =
+				(i, j) -> ListenerEventContext.GRPC_CONTEXT_KEY.get();
+		final Supplier<ListenerEventContext> supplier = ListenerEventContext.GRPC_CONTEXT_KEY::get;
+		final Throwing4Task<RuntimeException, RuntimeException, RuntimeException, RuntimeException>
+				task = () -> keyedEventCtxs.add(ListenerEventContext.GRPC_CONTEXT_KEY.get());
+
+		final var boundConsumer = eventCtx.executeWithinSelf(() -> binder.bindToContext(consumer));
+		final var boundBiConsumer =
+				eventCtx.executeWithinSelf(() -> binder.bindToContext(biConsumer));
+		final var boundFunction = eventCtx.executeWithinSelf(() -> binder.bindToContext(function));
+		final var boundBiFunction =
+				eventCtx.executeWithinSelf(() -> binder.bindToContext(biFunction));
+		final var boundSupplier =
+				eventCtx.executeWithinSelf(() -> binder.bindSupplierToContext(supplier));
+		final var boundTask = eventCtx.executeWithinSelf(() -> binder.bindToContext(task));
+		boundConsumer.accept(1);
+		boundBiConsumer.accept(1, 2);
+		keyedEventCtxs.add(boundFunction.apply(1));
+		keyedEventCtxs.add(boundBiFunction.apply(1, 2));
+		keyedEventCtxs.add(boundSupplier.get());
+		boundTask.execute();
+
+		assertEquals("all bound closures should be called within the event's gRPC Context",
+				Collections.nCopies(6, eventCtx), keyedEventCtxs);
+		assertNull("gRPC Context should be detached after the calls",
+				ListenerEventContext.GRPC_CONTEXT_KEY.get());
+	}
+
+
+
+	@Test
+	public void testGrpcContextIsDerivedOncePerEvent() throws Exception {
+		final var bound =
+				eventCtx.executeWithinSelf(() -> grpcModule.ctxBinder.bindToContext(noop));
+		final var bridgedGrpcCtx = eventCtx.bridgedGrpcCtx;
+		assertNotNull("gRPC Context should be derived upon the first binding", bridgedGrpcCtx);
+		final var rebound =
+				eventCtx.executeWithinSelf(() -> grpcModule.ctxBinder.bindToContext(noop));
+		final var reboundFromBridged = eventCtx.executeWithinSelf(
+				() -> bridgedGrpcCtx.call(() -> grpcModule.ctxBinder.bindToContext(noop)));
+
+		assertSame("gRPC Context should be reused by subsequent bindings within the same event",
+				bridgedGrpcCtx, eventCtx.bridgedGrpcCtx);
+		assertEquals("no additional Context should be bound",
+				List.of(eventCtx), bound.contexts);
+		assertEquals("no additional Context should be bound",
+				List.of(eventCtx), rebound.contexts);
+		assertEquals("no additional Context should be bound when rebinding from the derived one",
+				List.of(eventCtx), reboundFromBridged.contexts);
+	}
+
+
+
+	@Test
+	public void testDifferentGrpcContextWithinTheSameEventIsAttachedSeparately() throws Exception {
+		final var keyedEventCtxs = new ArrayList<ListenerEventContext>();
+		final var otherValues = new ArrayList<String>();
+		final Runnable task = () -> {
+			keyedEventCtxs.add(ListenerEventContext.GRPC_CONTEXT_KEY.get());
+			otherValues.add(OTHER_KEY.get());
+		};
+		final var bound =
+				eventCtx.executeWithinSelf(() -> grpcModule.ctxBinder.bindToContext(task));
+		final var boundWithinOther = eventCtx.executeWithinSelf(
+			() -> Context.current().withValue(OTHER_KEY, "other").call(
+					() -> grpcModule.ctxBinder.bindToContext(task))
+		);
+		bound.run();
+		boundWithinOther.run();
+
+		assertEquals("both tasks should be called within the event's gRPC Context",
+				Collections.nCopies(2, eventCtx), keyedEventCtxs);
+		assertEquals("each task should be called within the gRPC Context it was bound in",
+				Arrays.asList(null, "other"), otherValues);
+		assertTrue("separately derived gRPC Context should be attached by an additional Context",
+				boundWithinOther.contexts.get(0) instanceof GrpcContextBinder.GrpcContextAttacher);
+		assertNull("gRPC Context should be detached after the calls",
+				ListenerEventContext.GRPC_CONTEXT_KEY.get());
+	}
+
+
+
+	@Test
+	public void testNotBridgingModuleDoesNotCaptureGrpcContext() throws Exception {
+		final var notBridgingModule = new GrpcModule();
+		final var notBridgedEventCtx = new ListenerEventContext(
+				new ServerRpcContext(null, null), notBridgingModule.listenerEventScope.tracker);
+		assertFalse("gRPC Context should not be bridged by default",
+				notBridgingModule.bridgesGrpcContext);
+		final var bound = Context.current().withValue(OTHER_KEY, "other").call(
+			() -> notBridgedEventCtx.executeWithinSelf(
+					() -> notBridgingModule.ctxBinder.bindToContext(noop))
+		);
+		assertNull("default binder should not capture gRPC Context",
+				notBridgedEventCtx.bridgedGrpcCtx);
+		assertEquals("default binder should not bind any additional Context",
+				List.of(notBridgedEventCtx), bound.contexts);
+	}
+}
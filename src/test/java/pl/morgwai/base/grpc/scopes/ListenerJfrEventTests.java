@@ -0,0 +1,96 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import io.grpc.*;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.ServerCall.Listener;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.easymock.EasyMockSupport;
+import org.junit.Test;
+import pl.morgwai.base.grpc.scopes.ClientContextInterceptorTests.StubMarshaller;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.*;
+
+
+
+public class ListenerJfrEventTests extends EasyMockSupport {
+
+
+
+	final GrpcModule grpcModule = new GrpcModule();
+	@SuppressWarnings("deprecation")
+	final MethodDescriptor<Integer, Integer> methodDescriptor = MethodDescriptor.create(
+			MethodType.CLIENT_STREAMING, "test/testMethod", new StubMarshaller<>(),
+			new StubMarshaller<>());
+	final ServerCall<Integer, Integer> mockRpc = mock(ServerCall.class);
+
+
+
+	Listener<Integer> interceptRpc() {
+		return grpcModule.serverInterceptor.interceptCall(
+				mockRpc, new Metadata(), (rpc, headers) -> new Listener<>() {});
+	}
+
+
+
+	@Test
+	public void testListenerEventsAreRecorded() throws IOException {
+		expect(mockRpc.getMethodDescriptor()).andStubReturn(methodDescriptor);
+		replayAll();
+		final var recordingFile = Files.createTempFile("grpc-scopes-test-", ".jfr");
+		try (final var recording = new Recording()) {
+			recording.enable(ListenerJfrEvent.NAME);
+			recording.start();
+			final var listener = interceptRpc();
+			listener.onMessage(1);
+			listener.onHalfClose();
+			listener.onComplete();
+			recording.stop();
+			recording.dump(recordingFile);
+
+			final var recordedEvents = RecordingFile.readAllEvents(recordingFile).stream()
+				.filter((event) -> event.getEventType().getName().equals(ListenerJfrEvent.NAME))
+				.collect(Collectors.toList());
+			assertEquals("all Listener events should be recorded in order",
+					List.of("startCall", "onMessage", "onHalfClose", "onComplete"),
+					recordedEvents.stream()
+						.map((event) -> event.getString("eventType"))
+						.collect(Collectors.toList()));
+			final var rpcId = recordedEvents.get(0).getLong("rpcId");
+			assertTrue("RPC id should be assigned",
+					rpcId > 0L);
+			for (RecordedEvent event: recordedEvents) {
+				assertEquals("method name should be recorded",
+						methodDescriptor.getFullMethodName(), event.getString("fullMethodName"));
+				assertEquals("all events of the same RPC should have the same id",
+						rpcId, event.getLong("rpcId"));
+				assertTrue("events should be marked as server side",
+						event.getBoolean("serverSide"));
+			}
+		} finally {
+			Files.deleteIfExists(recordingFile);
+		}
+		verifyAll();
+	}
+
+
+
+	@Test
+	public void testNoIdIsAssignedWhenNotRecording() {
+		expect(mockRpc.getMethodDescriptor()).andStubReturn(methodDescriptor);
+		replayAll();
+		final var listener = (ServerContextInterceptor.ListenerProxy<Integer>) interceptRpc();
+		listener.onMessage(1);
+		assertEquals("RPC id should not be assigned if no event was recorded",
+				0L, listener.rpcContext.recordingId);
+		verifyAll();
+	}
+}
@@ -0,0 +1,205 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import io.grpc.*;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.ServerCall.Listener;
+import org.easymock.EasyMockSupport;
+import org.junit.*;
+import pl.morgwai.base.grpc.scopes.ClientContextInterceptorTests.StubMarshaller;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+
+
+public class PriorityDispatcherTests extends EasyMockSupport {
+
+
+
+	static final long TIMEOUT_MILLIS = 500L;
+	static final Metadata.Key<String> PRIORITY_HEADER =
+			Metadata.Key.of("priority", Metadata.ASCII_STRING_MARSHALLER);
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final PriorityDispatcher dispatcher =
+			grpcModule.newPriorityDispatcher("testDispatcher", 1, PRIORITY_HEADER, 5, 9);
+	@SuppressWarnings("deprecation")
+	final MethodDescriptor<Integer, Integer> methodDescriptor = MethodDescriptor.create(
+			MethodType.BIDI_STREAMING, "test/testMethod", new StubMarshaller<>(),
+			new StubMarshaller<>());
+	final ServerCall<Integer, Integer> mockRpc = mock(ServerCall.class);
+
+	/** Blocks the only {@code Thread} of {@link #dispatcher} until counted down. */
+	final CountDownLatch dispatcherBlocked = new CountDownLatch(1);
+	final List<String> executed = new ArrayList<>();  // written only by the dispatcher Thread
+
+
+
+	@Before
+	public void setupMocks() {
+		expect(mockRpc.getMethodDescriptor()).andStubReturn(methodDescriptor);
+	}
+
+
+
+	@After
+	public void shutdownDispatcher() throws InterruptedException {
+		dispatcherBlocked.countDown();
+		dispatcher.shutdown();
+		assertTrue("dispatcher should terminate",
+				dispatcher.awaitTermination(TIMEOUT_MILLIS, MILLISECONDS));
+		verifyAll();
+	}
+
+
+
+	void blockDispatcher() {
+		dispatcher.execute(() -> {
+			try {
+				dispatcherBlocked.await();
+			} catch (InterruptedException ignored) {}
+		});
+	}
+
+
+
+	Metadata headersWithPriority(String priority) {
+		final var headers = new Metadata();
+		if (priority != null) headers.put(PRIORITY_HEADER, priority);
+		return headers;
+	}
+
+
+
+	@Test
+	public void testReadingPriority() {
+		replayAll();
+		assertEquals("missing header should result in the default priority",
+				5, dispatcher.readPriority(headersWithPriority(null)));
+		assertEquals("malformed header should result in the default priority",
+				5, dispatcher.readPriority(headersWithPriority("high")));
+		assertEquals("valid header should be parsed",
+				7, dispatcher.readPriority(headersWithPriority(" 7")));
+		assertEquals("too high priority should be clamped",
+				9, dispatcher.readPriority(headersWithPriority("666")));
+		assertEquals("negative priority should be clamped",
+				0, dispatcher.readPriority(headersWithPriority("-1")));
+	}
+
+
+
+	@Test
+	public void testTasksAreExecutedInPriorityOrder() throws InterruptedException {
+		replayAll();
+		final var ctxTracker = grpcModule.listenerEventScope.tracker;
+		final var lowPriorityRpcCtx = new ServerRpcContext(null, null, 1);
+		final var highPriorityRpcCtx = new ServerRpcContext(null, null, 8);
+		final var allExecuted = new CountDownLatch(5);
+		blockDispatcher();
+
+		new ListenerEventContext(lowPriorityRpcCtx, ctxTracker).executeWithinSelf(() -> {
+			dispatcher.execute(() -> { executed.add("low-1"); allExecuted.countDown(); });
+			dispatcher.execute(() -> { executed.add("low-2"); allExecuted.countDown(); });
+		});
+		dispatcher.execute(() -> { executed.add("default"); allExecuted.countDown(); });
+		new ListenerEventContext(highPriorityRpcCtx, ctxTracker).executeWithinSelf(() -> {
+			dispatcher.execute(() -> {
+				assertSame("task should be executed within its RPC's ctx",
+						highPriorityRpcCtx, ctxTracker.getCurrentContext().getRpcContext());
+				executed.add("high-1");
+				allExecuted.countDown();
+			});
+			dispatcher.execute(() -> { executed.add("high-2"); allExecuted.countDown(); });
+		});
+		dispatcherBlocked.countDown();
+
+		assertTrue("all tasks should be executed",
+				allExecuted.await(TIMEOUT_MILLIS, MILLISECONDS));
+		assertEquals("tasks should be executed by priority, then in FIFO order",
+				List.of("high-1", "high-2", "default", "low-1", "low-2"), executed);
+	}
+
+
+
+	@Test
+	public void testListenerEventsAreDispatchedInOrderWithRpcPriority()
+			throws InterruptedException {
+		replayAll();
+		final var ctxTracker = grpcModule.listenerEventScope.tracker;
+		final var allDelivered = new CountDownLatch(4);
+		final var callingThread = Thread.currentThread();
+		final var listener = dispatcher.serverInterceptor.interceptCall(
+			mockRpc,
+			headersWithPriority("8"),
+			(rpc, headers) -> new Listener<Integer>() {
+
+				void record(String event) {
+					assertNotSame("events should be delivered by the dispatcher",
+							callingThread, Thread.currentThread());
+					final var rpcCtx =
+							(ServerRpcContext) ctxTracker.getCurrentContext().getRpcContext();
+					assertEquals("priority should be read from the headers",
+							8, rpcCtx.getPriority());
+					executed.add(event);
+					allDelivered.countDown();
+				}
+
+				@Override public void onMessage(Integer message) { record("message-" + message); }
+				@Override public void onHalfClose() { record("halfClose"); }
+				@Override public void onComplete() { record("complete"); }
+			}
+		);
+		blockDispatcher();
+		dispatcher.execute(() -> executed.add("default-task"));
+
+		listener.onMessage(1);
+		listener.onMessage(2);
+		listener.onHalfClose();
+		listener.onComplete();
+		assertTrue("no events should be delivered synchronously",
+				executed.isEmpty());
+		dispatcherBlocked.countDown();
+
+		assertTrue("all events should be delivered",
+				allDelivered.await(TIMEOUT_MILLIS, MILLISECONDS));
+		assertEquals("events should be delivered in order before lower priority tasks",
+				List.of("message-1", "message-2", "halfClose", "complete"),
+				executed.subList(0, 4));
+	}
+
+
+
+	@Test
+	public void testListenerExceptionClosesRpc() throws InterruptedException {
+		final var thrown = new RuntimeException("thrown");
+		final var closed = new CountDownLatch(1);
+		mockRpc.close(anyObject(), anyObject());
+		expectLastCall().andAnswer(() -> {
+			final var status = (Status) getCurrentArguments()[0];
+			assertSame("status should be UNKNOWN",
+					Status.Code.UNKNOWN, status.getCode());
+			assertSame("cause should be the exception thrown by the Listener",
+					thrown, status.getCause());
+			closed.countDown();
+			return null;
+		});
+		replayAll();
+		final var listener = dispatcher.serverInterceptor.interceptCall(
+			mockRpc,
+			new Metadata(),
+			(rpc, headers) -> new Listener<>() {
+				@Override public void onMessage(Integer message) { throw thrown; }
+			}
+		);
+
+		listener.onMessage(1);
+		assertTrue("RPC should be closed",
+				closed.await(TIMEOUT_MILLIS, MILLISECONDS));
+	}
+}
@@ -0,0 +1,136 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static org.junit.Assert.*;
+
+
+
+public class RpcPinningCacheTests {
+
+
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final ContextTracker<ListenerEventContext> ctxTracker = grpcModule.listenerEventScope.tracker;
+	final Map<String, AtomicInteger> loadCounts = new HashMap<>();
+
+	/** Single-segment cache of 4 entries: 1 in the window, 3 in the main area. */
+	final RpcPinningCache<String, String> cache = new RpcPinningCache<>(
+		ctxTracker,
+		4,
+		(key) -> key + "-v" + loadCounts.computeIfAbsent(key, (k) -> new AtomicInteger(0))
+				.incrementAndGet(),
+		1
+	);
+
+
+
+	String getWithin(RpcContext rpcCtx, String key) {
+		return new ListenerEventContext(rpcCtx, ctxTracker).executeWithinSelf(() -> cache.get(key));
+	}
+
+	/** Obtains {@code key} within a new RPC that finishes right after. */
+	String getWithinNewRpc(String key) {
+		final var rpcCtx = new ServerRpcContext(null, null);
+		final var value = getWithin(rpcCtx, key);
+		rpcCtx.markFinished();
+		return value;
+	}
+
+	int loadCount(String key) {
+		final var count = loadCounts.get(key);
+		return count == null ? 0 : count.get();
+	}
+
+
+
+	@Test
+	public void testValuesArePinnedForRpcDuration() {
+		final var rpcCtx = new ServerRpcContext(null, null);
+		assertEquals("value should be loaded on the first lookup",
+				"key-v1", getWithin(rpcCtx, "key"));
+		cache.invalidate("key");
+		assertEquals("pinned value should be returned within the same RPC after invalidation",
+				"key-v1", getWithin(rpcCtx, "key"));
+		assertEquals("other RPCs should load a new value after invalidation",
+				"key-v2", getWithinNewRpc("key"));
+		assertEquals("other RPCs should share the cached value",
+				"key-v2", getWithinNewRpc("key"));
+		assertEquals("value should be loaded only once per invalidation",
+				2, loadCount("key"));
+		rpcCtx.markFinished();
+	}
+
+
+
+	@Test
+	public void testPinnedEntriesAreNotEvicted() {
+		final var rpcCtx = new ServerRpcContext(null, null);
+		for (int i = 0; i < 8; i++) getWithin(rpcCtx, "pinned-" + i);
+		assertEquals("pinned entries should not be evicted",
+				8, cache.size());
+		for (int i = 0; i < 8; i++) {
+			assertEquals("pinned values should not be reloaded",
+					"pinned-" + i + "-v1", getWithinNewRpc("pinned-" + i));
+		}
+
+		rpcCtx.markFinished();
+		for (int i = 0; i < 8; i++) getWithinNewRpc("other-" + i);
+		assertTrue("unpinned entries should be evicted to fit maxSize",
+				cache.size() <= 4);
+	}
+
+
+
+	@Test
+	public void testFrequentEntriesSurviveScan() {
+		for (int i = 0; i < 5; i++) getWithinNewRpc("hot");
+		for (int i = 0; i < 20; i++) getWithinNewRpc("scan-" + i);
+		getWithinNewRpc("hot");
+		assertEquals("frequently used entry should not be evicted by a scan of one-off keys",
+				1, loadCount("hot"));
+	}
+
+
+
+	@Test
+	public void testNestedClientRpcsSharePinsOfParent() {
+		final var serverRpcCtx = new ServerRpcContext(null, null);
+		final var clientRpcCtx = new ClientRpcContext(null, "test/testMethod", null, serverRpcCtx);
+		getWithin(clientRpcCtx, "key");
+		clientRpcCtx.markFinished();
+		cache.invalidate("key");
+		assertEquals("value should remain pinned by the parent RPC",
+				"key-v1", getWithin(serverRpcCtx, "key"));
+		serverRpcCtx.markFinished();
+	}
+
+
+
+	@Test
+	public void testGetAfterRpcFinishedDoesNotRetainPin() {
+		final var rpcCtx = new ServerRpcContext(null, null);
+		getWithin(rpcCtx, "first");
+		rpcCtx.markFinished();
+		getWithin(rpcCtx, "late");
+		for (int i = 0; i < 8; i++) getWithinNewRpc("other-" + i);
+		assertTrue("entries obtained after the RPC finished should not stay pinned",
+				cache.size() <= 4);
+	}
+
+
+
+	@Test
+	public void testGetOutsideOfCtxThrows() {
+		try {
+			cache.get("key");
+			fail("IllegalStateException expected");
+		} catch (IllegalStateException expected) {}
+	}
+}
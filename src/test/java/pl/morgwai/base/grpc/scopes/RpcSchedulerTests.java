@@ -0,0 +1,156 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static java.util.concurrent.TimeUnit.*;
+import static org.junit.Assert.*;
+
+
+
+public class RpcSchedulerTests {
+
+
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final ContextTracker<ListenerEventContext> ctxTracker = grpcModule.listenerEventScope.tracker;
+	final RpcScheduler scheduler = new RpcScheduler(
+			"testScheduler", 1L, MILLISECONDS, 8, Runnable::run, ctxTracker, grpcModule.ctxBinder);
+	final ServerRpcContext rpcCtx = new ServerRpcContext(null, null);
+	final ListenerEventContext eventCtx = new ListenerEventContext(rpcCtx, ctxTracker);
+
+
+
+	@After
+	public void shutdownScheduler() throws InterruptedException {
+		scheduler.shutdownNow();
+		assertTrue("scheduler should terminate",
+				scheduler.awaitTermination(1L, SECONDS));
+	}
+
+
+
+	@Test
+	public void testTasksAreExecutedWithinCtxOfScheduling() throws Exception {
+		final var delayMillis = 20L;  // more than 2 rounds of the wheel
+		final var startNanos = System.nanoTime();
+		final ScheduledFuture<ListenerEventContext> future = eventCtx.executeWithinSelf(
+				() -> scheduler.schedule(ctxTracker::getCurrentContext, delayMillis, MILLISECONDS));
+		assertSame("task should be executed within the ctx in which it was scheduled",
+				eventCtx, future.get(1L, SECONDS));
+		assertTrue("task should not be executed before its delay passes",
+				System.nanoTime() - startNanos >= MILLISECONDS.toNanos(delayMillis));
+	}
+
+
+
+	@Test
+	public void testPendingTasksAreCancelledWhenRpcFinishes() {
+		final ScheduledFuture<?> delayed = eventCtx.executeWithinSelf(
+				() -> scheduler.schedule(() -> {}, 1L, HOURS));
+		final ScheduledFuture<?> periodic = eventCtx.executeWithinSelf(
+				() -> scheduler.scheduleAtFixedRate(() -> {}, 1L, 1L, HOURS));
+		final ScheduledFuture<?> outsideOfRpc = scheduler.schedule(() -> {}, 1L, HOURS);
+		rpcCtx.markFinished();
+		assertTrue("delayed task should be cancelled", delayed.isCancelled());
+		assertTrue("periodic task should be cancelled", periodic.isCancelled());
+		assertFalse("task scheduled outside of RPC should not be cancelled",
+				outsideOfRpc.isCancelled());
+	}
+
+
+
+	@Test
+	public void testTaskScheduledAfterRpcFinishedIsCancelled() {
+		rpcCtx.markFinished();
+		final ScheduledFuture<?> future = eventCtx.executeWithinSelf(
+				() -> scheduler.schedule(() -> {}, 1L, MILLISECONDS));
+		assertTrue("task should be cancelled", future.isCancelled());
+	}
+
+
+
+	@Test
+	public void testPeriodicTaskRunsUntilRpcFinishes() throws InterruptedException {
+		final var runCount = new AtomicInteger(0);
+		final var threeRuns = new CountDownLatch(3);
+		final ScheduledFuture<?> future = eventCtx.executeWithinSelf(
+			() -> scheduler.scheduleWithFixedDelay(
+				() -> {
+					assertSame("periodic task should be executed within the ctx of scheduling",
+							eventCtx, ctxTracker.getCurrentContext());
+					runCount.incrementAndGet();
+					threeRuns.countDown();
+				},
+				0L,
+				2L,
+				MILLISECONDS
+			)
+		);
+		assertTrue("periodic task should be executed repeatedly",
+				threeRuns.await(1L, SECONDS));
+		rpcCtx.markFinished();
+		assertTrue("periodic task should be cancelled", future.isCancelled());
+		final var countAfterFinish = runCount.get();
+		Thread.sleep(20L);
+		assertTrue("periodic task should not be executed after the RPC finished",
+				runCount.get() <= countAfterFinish + 1);  // a run might have been in progress
+	}
+
+
+
+	@Test
+	public void testShutdown() throws Exception {
+		final var delayed = scheduler.schedule(() -> "result", 5L, MILLISECONDS);
+		final var periodic = scheduler.scheduleAtFixedRate(() -> {}, 1L, 1L, HOURS);
+		scheduler.shutdown();
+		try {
+			scheduler.schedule(() -> {}, 1L, MILLISECONDS);
+			fail("RejectedExecutionException expected");
+		} catch (RejectedExecutionException expected) {}
+		assertEquals("delayed task should still be executed after shutdown",
+				"result", delayed.get(1L, SECONDS));
+		assertTrue("scheduler should terminate",
+				scheduler.awaitTermination(1L, SECONDS));
+		assertTrue("periodic task should be cancelled upon shutdown", periodic.isCancelled());
+	}
+
+
+
+	@Test
+	public void testPeriodicTaskReAddedAfterShutdownIsCancelled() throws Exception {
+		final var keepAlive = scheduler.schedule(() -> {}, 50L, MILLISECONDS);
+		final var runCount = new AtomicInteger(0);
+		final var periodic = scheduler.new WheelTask<Void>(
+				runCount::incrementAndGet, null, System.nanoTime(), MILLISECONDS.toNanos(1L));
+		scheduler.unfinishedCount.incrementAndGet();
+		scheduler.shutdown();
+		Thread.sleep(10L);  // let the timer Thread cancel pending periodic tasks
+
+		// simulate a re-add by runOnce() of a periodic task that raced with shutdown()
+		scheduler.additions.add(periodic);
+		assertTrue("scheduler should terminate",
+				scheduler.awaitTermination(1L, SECONDS));
+		assertTrue("re-added periodic task should be cancelled", periodic.isCancelled());
+		assertEquals("re-added periodic task should not be executed after shutdown",
+				0, runCount.get());
+		assertTrue("delayed task should still be executed after shutdown",
+				keepAlive.isDone() && !keepAlive.isCancelled());
+	}
+
+
+
+	@Test
+	public void testShutdownNow() throws InterruptedException {
+		final var delayed = scheduler.schedule(() -> {}, 1L, HOURS);
+		scheduler.shutdownNow();
+		assertTrue("scheduler should terminate",
+				scheduler.awaitTermination(1L, SECONDS));
+		assertTrue("delayed task should be cancelled", delayed.isCancelled());
+	}
+}
@@ -0,0 +1,135 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.inject.*;
+import org.junit.Test;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+
+
+public class RpcScopeTests {
+
+
+
+	static final long TIMEOUT_MILLIS = 500L;
+	static final Key<String> STRING_KEY = Key.get(String.class);
+	static final Key<Integer> INT_KEY = Key.get(Integer.class);
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final ContextTracker<ListenerEventContext> ctxTracker = grpcModule.listenerEventScope.tracker;
+	final ServerRpcContext rpcCtx = new ServerRpcContext(null, null);
+
+
+
+	@Test
+	public void testScopingWithinRpcCtx() {
+		final var producedCount = new AtomicInteger(0);
+		final var scopedProvider = grpcModule.rpcScope.scope(
+				STRING_KEY, () -> "produced-" + producedCount.incrementAndGet());
+
+		final var fromFirstEvent = new ListenerEventContext(rpcCtx, ctxTracker)
+				.executeWithinSelf(scopedProvider::get);
+		final var fromSecondEvent = new ListenerEventContext(rpcCtx, ctxTracker)
+				.executeWithinSelf(scopedProvider::get);
+		assertSame("all events of the same RPC should share the same instance",
+				fromFirstEvent, fromSecondEvent);
+		assertEquals("producer should be called only once",
+				1, producedCount.get());
+
+		rpcCtx.removeScopedObject(STRING_KEY);
+		assertEquals("after removal a new instance should be produced",
+				"produced-2",
+				new ListenerEventContext(rpcCtx, ctxTracker).executeWithinSelf(scopedProvider::get));
+	}
+
+
+
+	@Test
+	public void testScopingOutsideOfCtxThrows() {
+		final var scopedProvider = grpcModule.rpcScope.scope(STRING_KEY, () -> "produced");
+		try {
+			scopedProvider.get();
+			fail("obtaining an RPC-scoped object outside of any ctx should throw");
+		} catch (OutOfScopeException expected) {}
+	}
+
+
+
+	@Test
+	public void testConcurrentProductionYieldsSingleInstance() throws Exception {
+		final int threadCount = 8;
+		final var producedCount = new AtomicInteger(0);
+		final var allThreadsStarted = new CyclicBarrier(threadCount);
+		final var executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			final var results = new CompletableFuture<?>[threadCount];
+			for (int i = 0; i < threadCount; i++) {
+				results[i] = CompletableFuture.supplyAsync(
+					() -> {
+						try {
+							allThreadsStarted.await(TIMEOUT_MILLIS, MILLISECONDS);
+						} catch (Exception e) {
+							throw new CompletionException(e);
+						}
+						return rpcCtx.getOrProduce(STRING_KEY, () -> {
+							producedCount.incrementAndGet();
+							return new String("produced");
+						});
+					},
+					executor
+				);
+			}
+			final var first = results[0].get(TIMEOUT_MILLIS, MILLISECONDS);
+			for (var result: results) {
+				assertSame("all Threads should obtain the same instance",
+						first, result.get(TIMEOUT_MILLIS, MILLISECONDS));
+			}
+			assertEquals("producer should be called only once",
+					1, producedCount.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+
+	@Test
+	public void testNestedProductionOfAnotherKey() {
+		final var produced = rpcCtx.getOrProduce(
+				STRING_KEY, () -> "produced-" + rpcCtx.getOrProduce(INT_KEY, () -> 69));
+		assertEquals("nested production should succeed",
+				"produced-69", produced);
+		assertEquals("nested produced object should be stored",
+				Integer.valueOf(69), rpcCtx.getOrProduce(INT_KEY, () -> 666));
+	}
+
+
+
+	@Test
+	public void testFailedProductionIsRetried() {
+		try {
+			rpcCtx.getOrProduce(STRING_KEY, () -> { throw new RuntimeException("thrown"); });
+			fail("exception thrown by the producer should be propagated");
+		} catch (RuntimeException expected) {}
+		assertEquals("next attempt should call the producer again",
+				"produced", rpcCtx.getOrProduce(STRING_KEY, () -> "produced"));
+	}
+
+
+
+	@Test
+	public void testNullIsStored() {
+		assertNull("null should be returned",
+				rpcCtx.getOrProduce(STRING_KEY, () -> null));
+		assertNull("null should be stored",
+				rpcCtx.getOrProduce(STRING_KEY, () -> "produced"));
+		assertTrue("stored null should be removable",
+				rpcCtx.removeScopedObject(STRING_KEY));
+	}
+}
@@ -0,0 +1,133 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.concurrent.*;
+
+import org.junit.Test;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+
+
+public class RpcSubtaskScopeTests {
+
+
+
+	static final long TIMEOUT_MILLIS = 500L;
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final ContextTracker<ListenerEventContext> ctxTracker = grpcModule.listenerEventScope.tracker;
+	final ServerRpcContext rpcCtx = new ServerRpcContext(null, null);
+	final ListenerEventContext eventCtx = new ListenerEventContext(rpcCtx, ctxTracker);
+
+
+
+	@Test
+	public void testSubtasksAreExecutedWithinEnclosingCtx() throws Exception {
+		final var subtaskResult = eventCtx.executeWithinSelf(() -> {
+			try (final var subtaskScope = grpcModule.newRpcSubtaskScope()) {
+				final var result = subtaskScope.fork(ctxTracker::getCurrentContext);
+				subtaskScope.join();
+				assertTrue("subtask should be completed after join()",
+						result.isDone());
+				return result.get();
+			}
+		});
+		assertSame("subtask should be executed within the enclosing eventCtx",
+				eventCtx, subtaskResult);
+		assertNull("event context should not be leaked",
+				ctxTracker.getCurrentContext());
+	}
+
+
+
+	@Test
+	public void testRpcFinishCancelsSubtasks() throws Exception {
+		final var subtaskStarted = new CountDownLatch(1);
+		final var subtaskExited = new CountDownLatch(1);
+		final var subtaskScope = eventCtx.executeWithinSelf(
+				() -> grpcModule.newRpcSubtaskScope());
+		final var result = subtaskScope.fork(() -> {
+			try {
+				subtaskStarted.countDown();
+				Thread.sleep(TIMEOUT_MILLIS * 10);
+				return "not cancelled";
+			} finally {
+				subtaskExited.countDown();
+			}
+		});
+		assertTrue("subtask should start",
+				subtaskStarted.await(TIMEOUT_MILLIS, MILLISECONDS));
+
+		rpcCtx.markFinished();
+		assertTrue("subtask should be cancelled",
+				result.isCancelled());
+		assertTrue("subtask should be interrupted",
+				subtaskExited.await(TIMEOUT_MILLIS, MILLISECONDS));
+		assertTrue("subtaskScope should be shutdown",
+				subtaskScope.isShutdown());
+		try {
+			subtaskScope.fork(() -> "too late");
+			fail("forking in a shutdown scope should throw");
+		} catch (IllegalStateException expected) {}
+		subtaskScope.close();
+	}
+
+
+
+	@Test
+	public void testCloseWaitsForCancelledSubtasks() throws Exception {
+		final var subtaskStarted = new CountDownLatch(1);
+		final var subtaskExited = new CountDownLatch(1);
+		final var subtaskScope = eventCtx.executeWithinSelf(
+				() -> grpcModule.newRpcSubtaskScope());
+		subtaskScope.fork(() -> {
+			subtaskStarted.countDown();
+			try {
+				Thread.sleep(TIMEOUT_MILLIS * 10);
+			} catch (InterruptedException e) {
+				Thread.sleep(10L);  // simulate cleanup
+			}
+			subtaskExited.countDown();
+			return null;
+		});
+		assertTrue("subtask should start",
+				subtaskStarted.await(TIMEOUT_MILLIS, MILLISECONDS));
+
+		subtaskScope.close();
+		assertEquals("subtask should exit before close() returns",
+				0L, subtaskExited.getCount());
+		assertFalse("closing the scope should not finish the RPC",
+				rpcCtx.isFinished());
+	}
+
+
+
+	@Test
+	public void testCloseDoesNotWaitForSubtasksDroppedByExecutor() throws Exception {
+		final Executor droppingExecutor = (task) -> {};
+		final var subtaskScope = eventCtx.executeWithinSelf(
+				() -> grpcModule.newRpcSubtaskScope(droppingExecutor));
+		final var result = subtaskScope.fork(() -> "dropped");
+
+		final var closingThread = new Thread(subtaskScope::close);
+		closingThread.start();
+		closingThread.join(TIMEOUT_MILLIS);
+		assertFalse("close() should not wait for subtasks that were never started",
+				closingThread.isAlive());
+		assertTrue("dropped subtask should be cancelled",
+				result.isCancelled());
+	}
+
+
+
+	@Test
+	public void testCreatingOutsideOfCtxThrows() {
+		try {
+			grpcModule.newRpcSubtaskScope();
+			fail("creating a scope outside of any ListenerEventContext should throw");
+		} catch (IllegalStateException expected) {}
+	}
+}
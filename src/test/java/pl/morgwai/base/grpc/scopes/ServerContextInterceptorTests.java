@@ -1,14 +1,22 @@
 // Copyright 2021 Piotr Morgwai Kotarbinski, Licensed unLevel.der the Apache License, Version 2.0
 package pl.morgwai.base.grpc.scopes;
 
-import io.grpc.Metadata;
-import io.grpc.ServerCall;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.*;
+
+import io.grpc.*;
+import io.grpc.MethodDescriptor.MethodType;
 import io.grpc.ServerCall.Listener;
 import org.easymock.EasyMockSupport;
 import org.junit.*;
+import pl.morgwai.base.grpc.scopes.ClientContextInterceptorTests.StubMarshaller;
 import pl.morgwai.base.grpc.scopes.tests.ContextVerifier;
 import pl.morgwai.base.guice.scopes.ContextTracker;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.easymock.EasyMock.*;
 import static org.junit.Assert.*;
 
 
@@ -22,11 +30,15 @@ public class ServerContextInterceptorTests extends EasyMockSupport {
 	final ServerContextInterceptor interceptor =
 			(ServerContextInterceptor) grpcModule.serverInterceptor;
 	final ServerCall<Integer, Integer> mockRpc = mock(ServerCall.class);
+	@SuppressWarnings("deprecation")
+	final MethodDescriptor<Integer, Integer> methodDescriptor = MethodDescriptor.create(
+			MethodType.UNARY, "testMethod", new StubMarshaller<>(), new StubMarshaller<>());
 
 
 
 	@Before
 	public void setupMocks() {
+		expect(mockRpc.getMethodDescriptor()).andStubReturn(methodDescriptor);
 		replayAll();
 	}
 
@@ -93,13 +105,30 @@ public class ServerContextInterceptorTests extends EasyMockSupport {
 				message, mockListener.capturedMessage);
 		assertNull("event context should not be leaked",
 				ctxTracker.getCurrentContext());
+		assertNull("message should not be retained by the proxy",
+				((ServerContextInterceptor.ListenerProxy<Integer>) decoratedListener).pendingMessage);
 
 		decoratedListener.onHalfClose();
 		assertNull("event context should not be leaked",
 				ctxTracker.getCurrentContext());
+		final var rpcCtx = (ServerRpcContext) mockListener.ctxVerifier.getRpcCtx();
+		assertFalse("rpcCtx should not be marked as finished before onCancel",
+				rpcCtx.isFinished());
 		decoratedListener.onCancel();
 		assertNull("event context should not be leaked",
 				ctxTracker.getCurrentContext());
+		assertTrue("rpcCtx should be marked as cancelled",
+				rpcCtx.isCancelled());
+		assertTrue("rpcCtx should be marked as finished after onCancel",
+				rpcCtx.isFinished());
+		assertNull("RPC should be released after onCancel",
+				rpcCtx.getRpc());
+		assertNull("request headers should be released after onCancel",
+				rpcCtx.getRequestHeaders());
+		assertEquals("method name should be retained after onCancel",
+				methodDescriptor.getFullMethodName(), rpcCtx.getFullMethodName());
+		assertEquals("duration should not change after onCancel",
+				rpcCtx.getDurationNanos(), rpcCtx.getDurationNanos());
 		decoratedListener.onComplete();
 		assertNull("event context should not be leaked",
 				ctxTracker.getCurrentContext());
@@ -110,6 +139,242 @@ public class ServerContextInterceptorTests extends EasyMockSupport {
 
 
 
+	@Test
+	public void testExceedingMemoryLimitClosesRpc() {
+		final ServerCall<Integer, Integer> limitedRpc = mock(ServerCall.class);
+		expect(limitedRpc.getMethodDescriptor()).andStubReturn(methodDescriptor);
+		limitedRpc.close(same(ServerContextInterceptor.MEMORY_LIMIT_EXCEEDED_STATUS), notNull());
+		replay(limitedRpc);
+		final var allocationResults = new ArrayList<Boolean>();
+		interceptor.setRpcMemoryLimit(100L);
+		final var listener = interceptor.interceptCall(
+			limitedRpc,
+			new Metadata(),
+			(rpc, headers) -> new Listener<>() {
+				@Override public void onMessage(Integer message) {
+					allocationResults.add(
+							ctxTracker.getCurrentContext().getRpcContext().accountMemory(60L));
+				}
+			}
+		);
+		final var rpcCtx = ((ServerContextInterceptor.ListenerProxy<Integer>) listener).rpcContext;
+
+		listener.onMessage(1);
+		assertEquals("memory usage should be accounted",
+				60L, rpcCtx.getMemoryUsage());
+		assertFalse("RPC within the limit should not be marked",
+				rpcCtx.isMemoryLimitExceeded());
+		listener.onMessage(2);
+		assertEquals("allocation exceeding the limit should be reported to the caller",
+				List.of(true, false), allocationResults);
+		assertTrue("RPC exceeding the limit should be marked",
+				rpcCtx.isMemoryLimitExceeded());
+		listener.onMessage(3);  // limitedRpc.close(...) should not be called again
+		assertTrue("freeing memory should succeed",
+				rpcCtx.accountMemory(-180L));
+		assertEquals("freed memory should be accounted",
+				0L, rpcCtx.getMemoryUsage());
+		verify(limitedRpc);
+	}
+
+
+
+	@Test
+	public void testExceedingMemoryLimitOutsideOfEventsClosesRpcUponNextOutboundCall() {
+		final ServerCall<Integer, Integer> limitedRpc = mock(ServerCall.class);
+		expect(limitedRpc.getMethodDescriptor()).andStubReturn(methodDescriptor);
+		replay(limitedRpc);
+		final var handlerRpc = new AtomicReference<ServerCall<Integer, Integer>>();
+		interceptor.setRpcMemoryLimit(100L);
+		final var listener = interceptor.interceptCall(
+			limitedRpc,
+			new Metadata(),
+			(rpc, headers) -> {
+				handlerRpc.set(rpc);
+				return new Listener<>() {};
+			}
+		);
+		final var rpcCtx = ((ServerContextInterceptor.ListenerProxy<Integer>) listener).rpcContext;
+		listener.onHalfClose();
+		assertFalse("allocation exceeding the limit should be reported to the caller",
+				rpcCtx.accountMemory(200L));  // for example by an executor task
+		assertTrue("RPC exceeding the limit should be marked",
+				rpcCtx.isMemoryLimitExceeded());
+		verify(limitedRpc);  // the RPC should not be closed by the accounting Thread
+
+		reset(limitedRpc);
+		expect(limitedRpc.getMethodDescriptor()).andStubReturn(methodDescriptor);
+		limitedRpc.close(same(ServerContextInterceptor.MEMORY_LIMIT_EXCEEDED_STATUS), notNull());
+		replay(limitedRpc);
+		handlerRpc.get().sendMessage(1);  // should be dropped
+		verify(limitedRpc);
+		handlerRpc.get().sendMessage(2);  // limitedRpc.close(...) should not be called again
+		handlerRpc.get().close(Status.OK, new Metadata());
+		listener.onComplete();
+		verify(limitedRpc);
+	}
+
+
+
+	@Test
+	public void testExceedingMemoryLimitByAnotherThreadDuringStreamingIsSerialized()
+			throws Exception {
+		final var limitedRpc = new ConcurrencyDetectingServerCall(methodDescriptor);
+		interceptor.setRpcMemoryLimit(100L);
+		final var handlerRpc = new AtomicReference<ServerCall<Integer, Integer>>();
+		final var listener = interceptor.interceptCall(
+			limitedRpc,
+			new Metadata(),
+			(rpc, headers) -> {
+				handlerRpc.set(rpc);
+				return new Listener<>() {};
+			}
+		);
+		final var rpcCtx = ((ServerContextInterceptor.ListenerProxy<Integer>) listener).rpcContext;
+		final var streamingStarted = new CountDownLatch(1);
+		final var streamer = new Thread(() -> {
+			for (int i = 0; i < 100_000 && !limitedRpc.closed; i++) {
+				handlerRpc.get().sendMessage(i);
+				if (i == 100) streamingStarted.countDown();
+			}
+		});
+		final var accountant = new Thread(() -> {
+			while (rpcCtx.accountMemory(1L)) Thread.yield();
+		});
+		streamer.start();
+		assertTrue("streaming should start",
+				streamingStarted.await(5L, SECONDS));
+		accountant.start();
+		accountant.join(5000L);
+		streamer.join(5000L);
+
+		assertFalse("ServerCall should never be called concurrently",
+				limitedRpc.concurrentCallDetected);
+		assertSame("RPC should be closed due to the memory limit",
+				ServerContextInterceptor.MEMORY_LIMIT_EXCEEDED_STATUS, limitedRpc.closeStatus);
+		assertSame("RPC should be closed by the Thread handling it",
+				streamer, limitedRpc.closingThread);
+		assertEquals("RPC should be closed once",
+				1, limitedRpc.closeCount.get());
+		assertEquals("no messages should be sent after the RPC was closed",
+				0, limitedRpc.messagesAfterClose.get());
+	}
+
+
+
+	/** Records calls made after {@link #close(Status, Metadata)} and concurrent calls. */
+	static class ConcurrencyDetectingServerCall extends ServerCall<Integer, Integer> {
+
+		final MethodDescriptor<Integer, Integer> methodDescriptor;
+		final AtomicBoolean inCall = new AtomicBoolean(false);
+		final AtomicInteger closeCount = new AtomicInteger(0);
+		final AtomicInteger messagesAfterClose = new AtomicInteger(0);
+		volatile boolean concurrentCallDetected = false;
+		volatile boolean closed = false;
+		volatile Status closeStatus;
+		volatile Thread closingThread;
+
+		ConcurrencyDetectingServerCall(MethodDescriptor<Integer, Integer> methodDescriptor) {
+			this.methodDescriptor = methodDescriptor;
+		}
+
+		void enter() {
+			if ( !inCall.compareAndSet(false, true)) concurrentCallDetected = true;
+			Thread.yield();  // widen the window for races
+		}
+
+		void exit() {
+			inCall.set(false);
+		}
+
+		@Override public void sendMessage(Integer message) {
+			enter();
+			if (closed) messagesAfterClose.incrementAndGet();
+			exit();
+		}
+
+		@Override public void close(Status status, Metadata trailers) {
+			enter();
+			closeCount.incrementAndGet();
+			closeStatus = status;
+			closingThread = Thread.currentThread();
+			closed = true;
+			exit();
+		}
+
+		@Override public void request(int numMessages) {}
+		@Override public void sendHeaders(Metadata headers) {}
+		@Override public boolean isCancelled() { return false; }
+		@Override public MethodDescriptor<Integer, Integer> getMethodDescriptor() {
+			return methodDescriptor;
+		}
+	}
+
+
+
+	@Test
+	public void testInterceptInOrder() {
+		@SuppressWarnings("deprecation")
+		final MethodDescriptor<Integer, Integer> serviceMethodDescriptor = MethodDescriptor.create(
+				MethodType.UNARY, "test/testMethod", new StubMarshaller<>(), new StubMarshaller<>());
+		final var interceptorCalls = new ArrayList<String>();
+		final var rejecting = new AtomicBoolean(false);
+		final ServerInterceptor ctxFreeInterceptor = new ServerInterceptor() {
+			@Override public <RequestT, ResponseT> Listener<RequestT> interceptCall(
+				ServerCall<RequestT, ResponseT> rpc,
+				Metadata headers,
+				ServerCallHandler<RequestT, ResponseT> handler
+			) {
+				assertNull("ctx-free interceptor should be called before ctx creation",
+						ctxTracker.getCurrentContext());
+				interceptorCalls.add("ctxFree");
+				if (rejecting.get()) return new Listener<>() {};
+				return handler.startCall(rpc, headers);
+			}
+		};
+		final ServerInterceptor ctxDependentInterceptor = new ServerInterceptor() {
+			@Override public <RequestT, ResponseT> Listener<RequestT> interceptCall(
+				ServerCall<RequestT, ResponseT> rpc,
+				Metadata headers,
+				ServerCallHandler<RequestT, ResponseT> handler
+			) {
+				assertNotNull("ctx-dependent interceptor should be called within ctx",
+						ctxTracker.getCurrentContext());
+				interceptorCalls.add("ctxDependent");
+				return handler.startCall(rpc, headers);
+			}
+		};
+		final var interceptedService = grpcModule.interceptInOrder(
+			ServerServiceDefinition.builder("test")
+				.addMethod(serviceMethodDescriptor, (rpc, headers) -> {
+					interceptorCalls.add("handler");
+					return new Listener<>() {};
+				})
+				.build(),
+			List.of(ctxFreeInterceptor),
+			ctxDependentInterceptor
+		);
+		@SuppressWarnings("unchecked")
+		final var interceptedHandler = (ServerCallHandler<Integer, Integer>)
+				interceptedService.getMethods().iterator().next().getServerCallHandler();
+
+		final var listener = interceptedHandler.startCall(mockRpc, new Metadata());
+		assertEquals("interceptors should be called in the given order",
+				List.of("ctxFree", "ctxDependent", "handler"), interceptorCalls);
+		assertTrue("serverInterceptor should be applied",
+				listener instanceof ServerContextInterceptor.ListenerProxy);
+
+		interceptorCalls.clear();
+		rejecting.set(true);
+		final var rejectedListener = interceptedHandler.startCall(mockRpc, new Metadata());
+		assertEquals("RPCs rejected by a ctx-free interceptor should not reach further",
+				List.of("ctxFree"), interceptorCalls);
+		assertFalse("no ctxs should be created for RPCs rejected by a ctx-free interceptor",
+				rejectedListener instanceof ServerContextInterceptor.ListenerProxy);
+	}
+
+
+
 	static class MockListener extends Listener<Integer> {
 
 		ContextVerifier ctxVerifier;
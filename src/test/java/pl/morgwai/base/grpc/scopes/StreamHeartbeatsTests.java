@@ -0,0 +1,118 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Test;
+import pl.morgwai.base.guice.scopes.ContextTracker;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.junit.Assert.*;
+
+
+
+public class StreamHeartbeatsTests {
+
+
+
+	static final String HEARTBEAT = "heartbeat";
+
+	final GrpcModule grpcModule = new GrpcModule();
+	final ContextTracker<ListenerEventContext> ctxTracker = grpcModule.listenerEventScope.tracker;
+	final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+	/** Ticks are triggered manually by calling {@link StreamHeartbeats#tick()}. */
+	final StreamHeartbeats heartbeats = grpcModule.newStreamHeartbeats(timer, 1L, HOURS);
+	final ServerRpcContext rpcCtx = new ServerRpcContext(null, null);
+	final ListenerEventContext eventCtx = new ListenerEventContext(rpcCtx, ctxTracker);
+	final RecordingObserver recordingObserver = new RecordingObserver();
+
+
+
+	class RecordingObserver implements StreamObserver<String> {
+
+		final List<String> messages = new ArrayList<>();
+		final List<ListenerEventContext> ctxs = new ArrayList<>();
+
+		@Override public void onNext(String message) {
+			messages.add(message);
+			ctxs.add(ctxTracker.getCurrentContext());
+		}
+
+		@Override public void onError(Throwable t) {}
+		@Override public void onCompleted() {}
+	}
+
+
+
+	@After
+	public void shutdownTimer() {
+		heartbeats.close();
+		timer.shutdown();
+	}
+
+
+
+	StreamObserver<String> register() {
+		return eventCtx.executeWithinSelf(
+				() -> heartbeats.register(recordingObserver, () -> HEARTBEAT));
+	}
+
+
+
+	@Test
+	public void testHeartbeatsAreSentOnlyWhenIdle() {
+		final var observer = register();
+		observer.onNext("message");
+		heartbeats.tick();
+		assertEquals("no heartbeat should be sent after a message",
+				List.of("message"), recordingObserver.messages);
+
+		heartbeats.tick();
+		assertEquals("heartbeat should be sent when idle for a whole tick",
+				List.of("message", HEARTBEAT), recordingObserver.messages);
+		assertSame("heartbeat should be sent within the ctx of the registration",
+				eventCtx, recordingObserver.ctxs.get(1));
+
+		heartbeats.tick();
+		assertEquals("heartbeats should be sent on each tick while idle",
+				List.of("message", HEARTBEAT, HEARTBEAT), recordingObserver.messages);
+	}
+
+
+
+	@Test
+	public void testStreamIsDeregisteredWhenRpcFinishes() {
+		register();
+		assertEquals("stream should be registered", 1, heartbeats.getStreamCount());
+		rpcCtx.markFinished();
+		assertEquals("stream should be deregistered", 0, heartbeats.getStreamCount());
+		heartbeats.tick();
+		assertTrue("no heartbeats should be sent after the RPC finished",
+				recordingObserver.messages.isEmpty());
+	}
+
+
+
+	@Test
+	public void testStreamIsDeregisteredWhenCompleted() {
+		register().onCompleted();
+		assertEquals("stream should be deregistered", 0, heartbeats.getStreamCount());
+		heartbeats.tick();
+		assertTrue("no heartbeats should be sent after the stream was completed",
+				recordingObserver.messages.isEmpty());
+	}
+
+
+
+	@Test
+	public void testRegisterOutsideOfCtxThrows() {
+		try {
+			heartbeats.register(recordingObserver, () -> HEARTBEAT);
+			fail("IllegalStateException expected");
+		} catch (IllegalStateException expected) {}
+	}
+}
@@ -0,0 +1,114 @@
+// Copyright 2026 Piotr Morgwai Kotarbinski, Licensed under the Apache License, Version 2.0
+package pl.morgwai.base.grpc.scopes;
+
+import java.util.*;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.easymock.*;
+import org.junit.*;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+
+
+public class StreamingRequestSenderTests extends EasyMockSupport {
+
+
+
+	final List<Integer> responses = new ArrayList<>();
+	final StreamObserver<Integer> responseObserver = new StreamObserver<>() {
+		@Override public void onNext(Integer response) { responses.add(response); }
+		@Override public void onError(Throwable error) { capturedError = error; }
+		@Override public void onCompleted() { completed = true; }
+	};
+	Throwable capturedError;
+	boolean completed = false;
+
+	final Capture<Runnable> onReadyHandlerCapture = newCapture();
+	@Mock ClientCallStreamObserver<Integer> mockRequestObserver;
+
+
+
+	@Before
+	public void setupMocks() {
+		injectMocks(this);
+		mockRequestObserver.setOnReadyHandler(capture(onReadyHandlerCapture));
+		expectLastCall().times(1);
+	}
+
+
+
+	@After
+	public void verifyMocks() {
+		verifyAll();
+	}
+
+
+
+	@Test
+	public void testSendingInBatchesWhileReady() {
+		final var sender = new StreamingRequestSender<>(
+				responseObserver, List.of(1, 2, 3, 4, 5).iterator());
+		expect(mockRequestObserver.isReady())
+			.andReturn(true).times(3)
+			.andReturn(false).times(1)
+			.andReturn(true).times(3);
+		mockRequestObserver.onNext(1);
+		mockRequestObserver.onNext(2);
+		mockRequestObserver.onNext(3);
+		mockRequestObserver.onNext(4);
+		mockRequestObserver.onNext(5);
+		mockRequestObserver.onCompleted();
+		replayAll();
+
+		sender.beforeStart(mockRequestObserver);
+		onReadyHandlerCapture.getValue().run();
+		onReadyHandlerCapture.getValue().run();
+		onReadyHandlerCapture.getValue().run();  // should be ignored after onCompleted()
+		sender.onNext(69);
+		sender.onCompleted();
+		assertEquals("responses should be delivered to responseObserver",
+				List.of(69), responses);
+		assertTrue("completion should be delivered to responseObserver",
+				completed);
+	}
+
+
+
+	@Test
+	public void testProducerFailureCancelsRpc() {
+		final var thrown = new RuntimeException("thrown");
+		final var sender = new StreamingRequestSender<Integer, Integer>(
+			responseObserver,
+			new Iterator<>() {
+				@Override public boolean hasNext() { return true; }
+				@Override public Integer next() { throw thrown; }
+			}
+		);
+		expect(mockRequestObserver.isReady()).andReturn(true).times(1);
+		mockRequestObserver.onError(same(thrown));
+		replayAll();
+
+		sender.beforeStart(mockRequestObserver);
+		onReadyHandlerCapture.getValue().run();
+		onReadyHandlerCapture.getValue().run();  // should be ignored after onError(...)
+	}
+
+
+
+	@Test
+	public void testRpcFailureStopsSending() {
+		final var error = new Exception("error");
+		final var sender = new StreamingRequestSender<>(
+				responseObserver, List.of(1, 2, 3).iterator());
+		replayAll();
+
+		sender.beforeStart(mockRequestObserver);
+		sender.onError(error);
+		onReadyHandlerCapture.getValue().run();
+		assertSame("error should be delivered to responseObserver",
+				error, capturedError);
+	}
+}
@@ -43,6 +43,12 @@ public class ContextVerifier {
 
 
 
+	public RpcContext getRpcCtx() {
+		return rpcCtx;
+	}
+
+
+
 	public void add(ListenerEventContext eventCtx) {
 		seenEventCtxs.add(eventCtx);
 	}
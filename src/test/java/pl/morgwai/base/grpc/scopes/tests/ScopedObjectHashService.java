@@ -2,6 +2,7 @@
 package pl.morgwai.base.grpc.scopes.tests;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
@@ -44,11 +45,20 @@ public class ScopedObjectHashService extends ScopedObjectHashImplBase {
 	}
 	BiConsumer<Integer, List<String>> finalizationListener;
 
+	/**
+	 * Whether to log all seen scoped instances to check for duplicates. By default true. As logs
+	 * grow with each call, load tests should disable it.
+	 */
+	public void setDuplicationCheckingEnabled(boolean duplicationCheckingEnabled) {
+		this.duplicationCheckingEnabled = duplicationCheckingEnabled;
+	}
+	volatile boolean duplicationCheckingEnabled = true;
+
 	/** Log of all seen RPC-scoped instances to check for duplicates. */
-	final Set<RpcScopedService> rpcScopedLog = new HashSet<>();
+	final Set<RpcScopedService> rpcScopedLog = ConcurrentHashMap.newKeySet();
 
 	/** Log of all seen event-scoped instances to check for duplicates. */
-	final Set<EventScopedService> eventScopedLog = new HashSet<>();
+	final Set<EventScopedService> eventScopedLog = ConcurrentHashMap.newKeySet();
 
 
 
@@ -65,7 +75,7 @@ public class ScopedObjectHashService extends ScopedObjectHashImplBase {
 		if (eventScoped != eventScopedProvider.get()) {
 			errors.add(String.format(SCOPING_ERROR, event, "event"));
 		}
-		if ( !eventScopedLog.add(eventScoped)) {
+		if (duplicationCheckingEnabled && !eventScopedLog.add(eventScoped)) {
 			errors.add(String.format(DUPLICATE_ERROR, event, "event"));
 		}
 	}
@@ -78,7 +88,7 @@ public class ScopedObjectHashService extends ScopedObjectHashImplBase {
 	/** Called once at the beginning of each call. */
 	void verifyRpcScopingDuplication(List<String> errors, RpcScopedService rpcScoped, String event)
 	{
-		if ( !rpcScopedLog.add(rpcScoped)) {
+		if (duplicationCheckingEnabled && !rpcScopedLog.add(rpcScoped)) {
 			errors.add(String.format(DUPLICATE_ERROR, event, "RPC"));
 		}
 	}